@@ -0,0 +1,115 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark.persistency.outcomebuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.persistency.outcomebuilder.OutcomeBuilder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the population and the lookups of large ListOfValues. The enumeration case builds the list from the
+ * enumeration facets of the schema and selects the last value in strict mode, the input case populates the list
+ * from the inputs of the NgDynamicForms generation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListOfValuesBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class LovState {
+        @Param({"100", "1000", "10000"})
+        public int size;
+
+        Schema enumSchema;
+        Schema inputSchema;
+
+        JSONObject          selectLast;
+        Map<String, Object> inputs;
+
+        @Setup
+        public void setup() {
+            StringBuilder xsd = new StringBuilder()
+                    .append("<?xml version='1.0' encoding='utf-8'?>")
+                    .append("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>")
+                    .append("<xs:element name='Lov'><xs:complexType><xs:sequence>")
+                    .append("<xs:element name='Choice'><xs:simpleType><xs:restriction base='xs:string'>");
+
+            for (int i = 0; i < size; i++) xsd.append("<xs:enumeration value='Value").append(i).append("'/>");
+
+            xsd.append("</xs:restriction></xs:simpleType></xs:element>")
+               .append("</xs:sequence></xs:complexType></xs:element></xs:schema>");
+
+            enumSchema = new Schema("LovEnum" + size, 0, xsd.toString());
+
+            inputSchema = new Schema("LovInput" + size, 0,
+                    "<?xml version='1.0' encoding='utf-8'?>"
+                  + "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+                  + "<xs:element name='Lov'><xs:complexType><xs:sequence>"
+                  + "<xs:element name='Choice' type='xs:string'><xs:annotation><xs:appinfo>"
+                  + "<listOfValues><inputName>names</inputName></listOfValues>"
+                  + "</xs:appinfo></xs:annotation></xs:element>"
+                  + "</xs:sequence></xs:complexType></xs:element></xs:schema>");
+
+            selectLast = new JSONObject().put("Lov", new JSONObject().put("Choice", "Value" + (size - 1)));
+
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < size; i++) names.add("Name" + i);
+
+            inputs = new HashMap<>();
+            inputs.put("names", names);
+        }
+    }
+
+    @Benchmark
+    public OutcomeBuilder enumeration(LovState state) throws Exception {
+        OutcomeBuilder builder = new OutcomeBuilder(state.enumSchema);
+
+        builder.addJsonInstance(state.selectLast);
+
+        return builder;
+    }
+
+    @Benchmark
+    public JSONArray inputList(LovState state) throws Exception {
+        return new OutcomeBuilder(state.inputSchema).generateNgDynamicFormsJson(state.inputs);
+    }
+}
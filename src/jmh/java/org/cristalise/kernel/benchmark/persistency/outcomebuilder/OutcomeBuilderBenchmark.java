@@ -0,0 +1,161 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark.persistency.outcomebuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.persistency.outcomebuilder.OutcomeBuilder;
+import org.cristalise.kernel.test.persistency.XMLUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.XML;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the main use cases of OutcomeBuilder using the schemas of src/test/data/outcomeBuilder.
+ * Benchmarks updating an Outcome create a new OutcomeBuilder in each invocation, so their result includes
+ * the cost of building the empty Outcome, which is measured separately by newOutcomeBuilder.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutcomeBuilderBenchmark {
+
+    public static final String DIR = "src/test/data/outcomeBuilder";
+
+    @State(Scope.Benchmark)
+    public static class JsonState {
+        @Param({"PatientDetails", "Employee", "Table"})
+        public String schemaName;
+
+        Schema     schema;
+        JSONObject json;
+
+        @Setup
+        public void setup() throws Exception {
+            schema = new Schema(schemaName, 0, XMLUtils.getXSD(DIR, schemaName));
+
+            if ("PatientDetails".equals(schemaName)) json = XML.toJSONObject(XMLUtils.getXML(DIR, schemaName + "Updated"));
+            else                                     json = new JSONObject(XMLUtils.getJSON(DIR, schemaName));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RecordState {
+        Schema              schema;
+        Map<String, String> upsRecord = new LinkedHashMap<>();
+
+        @Setup
+        public void setup() throws Exception {
+            schema = new Schema("SiteCharacteristicsData", 0, XMLUtils.getXSD(DIR, "SiteCharacteristicsData"));
+
+            upsRecord.put("Manufacturer", "acme");
+            upsRecord.put("Phases",       "final");
+            upsRecord.put("Power",        "super");
+            upsRecord.put("Remarks",      "irrelevant");
+            upsRecord.put("TimeAutonomy", "daily");
+            upsRecord.put("UsedFor",      "creation");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class FormState {
+        @Param({"PatientDetails", "Storage"})
+        public String schemaName;
+
+        OutcomeBuilder builder;
+
+        @Setup
+        public void setup() throws Exception {
+            builder = new OutcomeBuilder(schemaName, new Schema(schemaName, 0, XMLUtils.getXSD(DIR, schemaName)), false);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class XmlState {
+        @Param({"PatientDetails", "Table"})
+        public String schemaName;
+
+        /**
+         * getXml() validates the Outcome if true
+         */
+        @Param({"true", "false"})
+        public boolean check;
+
+        OutcomeBuilder builder;
+
+        @Setup
+        public void setup() throws Exception {
+            Schema schema = new Schema(schemaName, 0, XMLUtils.getXSD(DIR, schemaName));
+
+            builder = new OutcomeBuilder(schema, XMLUtils.getXML(DIR, schemaName + "Updated"));
+        }
+    }
+
+    @Benchmark
+    public OutcomeBuilder newOutcomeBuilder(JsonState state) throws Exception {
+        return new OutcomeBuilder(state.schema, true);
+    }
+
+    @Benchmark
+    public OutcomeBuilder addJsonInstance(JsonState state) throws Exception {
+        OutcomeBuilder builder = new OutcomeBuilder(state.schema, true);
+        builder.addJsonInstance(state.json);
+        return builder;
+    }
+
+    @Benchmark
+    public OutcomeBuilder addRecord(RecordState state) throws Exception {
+        OutcomeBuilder builder = new OutcomeBuilder(state.schema);
+
+        builder.addRecord("/SiteCharacteristicsData/UPS", state.upsRecord);
+        builder.addfield("/SiteCharacteristicsData/BuildingType", "semi-detached");
+        builder.addfield("/SiteCharacteristicsData/AHOwner",      "mine");
+        builder.addfield("BuildingTypeRemarks",                   "awsome");
+
+        return builder;
+    }
+
+    @Benchmark
+    public JSONArray generateNgDynamicForms(FormState state) throws Exception {
+        return state.builder.generateNgDynamicFormsJson();
+    }
+
+    @Benchmark
+    public String getXml(XmlState state) throws Exception {
+        return state.builder.getXml(state.check);
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark.persistency.outcomebuilder;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.persistency.outcomebuilder.OutcomeBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the creation of the child elements of a record with many optional fields, i.e. the cost of finding
+ * the insertion point of each new element. The schema is generated, and the fields are added either in the order
+ * of the model (each element is appended) or in reverse order (each element is inserted before all the others).
+ * The batch variant adds all the fields with a single addRecords() call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WideRecordBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class WideState {
+        @Param({"100", "1000", "5000"})
+        public int width;
+
+        @Param({"model", "reverse"})
+        public String order;
+
+        Schema   schema;
+        String[] paths;
+
+        @Setup
+        public void setup() {
+            StringBuilder xsd = new StringBuilder()
+                    .append("<?xml version='1.0' encoding='utf-8'?>")
+                    .append("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>")
+                    .append("<xs:element name='Wide'><xs:complexType><xs:sequence>");
+
+            for (int i = 0; i < width; i++) {
+                xsd.append("<xs:element name='Field").append(i).append("' type='xs:string' minOccurs='0'/>");
+            }
+
+            xsd.append("</xs:sequence></xs:complexType></xs:element></xs:schema>");
+
+            schema = new Schema("Wide" + width, 0, xsd.toString());
+            paths  = new String[width];
+
+            for (int i = 0; i < width; i++) {
+                int field = "reverse".equals(order) ? width - 1 - i : i;
+                paths[i] = "/Wide/Field" + field;
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class BuilderState {
+        OutcomeBuilder builder;
+
+        @Setup(Level.Invocation)
+        public void setup(WideState wide) throws Exception {
+            builder = new OutcomeBuilder(wide.schema);
+        }
+    }
+
+    @Benchmark
+    public OutcomeBuilder createChildElements(WideState wide, BuilderState state) throws Exception {
+        Map<String, String> emptyRecord = Collections.emptyMap();
+
+        for (String path : wide.paths) state.builder.addRecord(path, emptyRecord);
+
+        return state.builder;
+    }
+
+    @Benchmark
+    public OutcomeBuilder createChildElementsBatch(WideState wide, BuilderState state) throws Exception {
+        Map<String, Map<String, String>> records = new LinkedHashMap<>();
+
+        for (String path : wide.paths) records.put(path, Collections.<String, String>emptyMap());
+
+        state.builder.addRecords(records);
+
+        return state.builder;
+    }
+}
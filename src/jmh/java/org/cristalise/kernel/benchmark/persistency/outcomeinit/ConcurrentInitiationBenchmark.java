@@ -0,0 +1,122 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark.persistency.outcomeinit;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.entity.agent.Job;
+import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.persistency.outcomeinit.EmptyOutcomeInitiator;
+import org.cristalise.kernel.persistency.outcomeinit.XPathOutcomeInitiator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how the throughput of a single EmptyOutcomeInitiator and XPathOutcomeInitiator, shared by all threads
+ * like the module level instances, scales with the number of threads. The schemas are cached during the warmup,
+ * so the scores of the 1, 2, 4 and MAX (one per available processor) thread variants shall grow near linearly
+ * up to the number of cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentInitiationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedState {
+        EmptyOutcomeInitiator emptyOI;
+        XPathOutcomeInitiator xpathOI;
+        Job                   emptyJob;
+        Job                   xpathJob;
+
+        @Setup
+        public void setup() throws Exception {
+            emptyOI  = new EmptyOutcomeInitiator();
+            xpathOI  = new XPathOutcomeInitiator("/");
+            emptyJob = OutcomeInitiatorBenchmark.mockJob("PatientDetails", new LinkedHashMap<>());
+            xpathJob = OutcomeInitiatorBenchmark.mockJob("PatientDetails", OutcomeInitiatorBenchmark.getPatientDetailsProps());
+
+            // the variables used by the MVEL templates are not matched by the '/' prefix
+            xpathJob.getActProps().put("PatientID", "42");
+            xpathJob.getActProps().put("Weight",    "3250");
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Outcome emptyInit1Thread(SharedState state) throws Exception {
+        return state.emptyOI.initOutcomeInstance(state.emptyJob);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Outcome emptyInit2Threads(SharedState state) throws Exception {
+        return state.emptyOI.initOutcomeInstance(state.emptyJob);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Outcome emptyInit4Threads(SharedState state) throws Exception {
+        return state.emptyOI.initOutcomeInstance(state.emptyJob);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Outcome emptyInitMaxThreads(SharedState state) throws Exception {
+        return state.emptyOI.initOutcomeInstance(state.emptyJob);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Outcome xpathInit1Thread(SharedState state) throws Exception {
+        return state.xpathOI.initOutcomeInstance(state.xpathJob);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Outcome xpathInit2Threads(SharedState state) throws Exception {
+        return state.xpathOI.initOutcomeInstance(state.xpathJob);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Outcome xpathInit4Threads(SharedState state) throws Exception {
+        return state.xpathOI.initOutcomeInstance(state.xpathJob);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Outcome xpathInitMaxThreads(SharedState state) throws Exception {
+        return state.xpathOI.initOutcomeInstance(state.xpathJob);
+    }
+}
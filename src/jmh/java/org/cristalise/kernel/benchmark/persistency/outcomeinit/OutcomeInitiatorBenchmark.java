@@ -0,0 +1,187 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark.persistency.outcomeinit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.entity.agent.Job;
+import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.persistency.outcomeinit.EmptyOutcomeInitiator;
+import org.cristalise.kernel.persistency.outcomeinit.InitiationResult;
+import org.cristalise.kernel.persistency.outcomeinit.XPathOutcomeInitiator;
+import org.cristalise.kernel.test.persistency.XMLUtils;
+import org.cristalise.kernel.utils.CastorHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of EmptyOutcomeInitiator and XPathOutcomeInitiator using the schemas of src/test/data
+ * and a mocked Job similar to OutcomeInitiatorTestBase. The XPath benchmarks use the PatientDetails schema
+ * with a realistic set of literal and MVEL Activity Properties. The batch benchmarks compare a loop of
+ * initOutcomeInstance() calls with initOutcomeInstances() for the same Jobs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutcomeInitiatorBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class EmptyState {
+        @Param({"IntegerField", "StateMachine", "PatientDetails", "Module"})
+        public String schemaName;
+
+        EmptyOutcomeInitiator emptyOI;
+        Job                   job;
+
+        @Setup
+        public void setup() throws Exception {
+            emptyOI = new EmptyOutcomeInitiator();
+            job     = mockJob(schemaName, new LinkedHashMap<>());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class XPathState {
+        XPathOutcomeInitiator xpathOI;
+        Job                   job;
+
+        @Setup
+        public void setup() throws Exception {
+            xpathOI = new XPathOutcomeInitiator("/");
+            job     = mockJob("PatientDetails", getPatientDetailsProps());
+
+            // the variables used by the MVEL templates are not matched by the '/' prefix
+            job.getActProps().put("PatientID", "42");
+            job.getActProps().put("Weight",    "3250");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class BatchState {
+        @Param({"10", "100", "1000"})
+        public int batchSize;
+
+        XPathOutcomeInitiator xpathOI;
+        List<Job>             jobs = new ArrayList<>();
+
+        @Setup
+        public void setup() throws Exception {
+            xpathOI = new XPathOutcomeInitiator("/");
+
+            for (int i = 0; i < batchSize; i++) {
+                Job job = mockJob("PatientDetails", getPatientDetailsProps());
+                job.getActProps().put("PatientID", String.valueOf(i));
+                job.getActProps().put("Weight",    "3250");
+                jobs.add(job);
+            }
+        }
+    }
+
+    /**
+     * Creates a mocked Job. The mock is stub only, so it does not record the invocations during the benchmark.
+     *
+     * @param schemaName the name of the xsd file in src/test/data
+     * @param props the Activity Properties of the Job
+     * @return the mocked Job
+     * @throws Exception every exception
+     */
+    public static Job mockJob(String schemaName, Map<String, Object> props) throws Exception {
+        Job j = mock(Job.class, withSettings().stubOnly());
+
+        CastorHashMap actProps = new CastorHashMap();
+        actProps.putAll(props);
+
+        when(j.getSchema()).thenReturn(new Schema(schemaName, 0, null, XMLUtils.getXSD(schemaName)));
+        when(j.getActPropString(EmptyOutcomeInitiator.ROOTNAME_PROPNAME)).thenReturn(null);
+        when(j.matchActPropNames("/")).thenReturn(props);
+        when(j.getActProps()).thenReturn(actProps);
+
+        return j;
+    }
+
+    /**
+     * Activity Properties used by the XPathOutcomeInitiator benchmarks
+     */
+    public static Map<String, Object> getPatientDetailsProps() {
+        Map<String, Object> props = new LinkedHashMap<>();
+
+        props.put("/PatientDetails/@id",             "@{PatientID}");
+        props.put("/PatientDetails/InsuranceNumber", "123-456-789");
+        props.put("/PatientDetails/DateOfBirth",     "1970-01-01");
+        props.put("/PatientDetails/Gender",          "female");
+        props.put("/PatientDetails/Weight",          "@{Weight}");
+        props.put("/PatientDetails/Weight/@unit",    "g");
+
+        return props;
+    }
+
+    @Benchmark
+    public String emptyInitOutcome(EmptyState state) throws Exception {
+        return state.emptyOI.initOutcome(state.job);
+    }
+
+    @Benchmark
+    public Outcome emptyInitOutcomeInstance(EmptyState state) throws Exception {
+        return state.emptyOI.initOutcomeInstance(state.job);
+    }
+
+    @Benchmark
+    public String xpathInitOutcome(XPathState state) throws Exception {
+        return state.xpathOI.initOutcome(state.job);
+    }
+
+    @Benchmark
+    public Outcome xpathInitOutcomeInstance(XPathState state) throws Exception {
+        return state.xpathOI.initOutcomeInstance(state.job);
+    }
+
+    @Benchmark
+    public List<Outcome> xpathInitOutcomeInstanceLoop(BatchState state) throws Exception {
+        List<Outcome> outcomes = new ArrayList<>();
+        for (Job job : state.jobs) outcomes.add(state.xpathOI.initOutcomeInstance(job));
+        return outcomes;
+    }
+
+    @Benchmark
+    public List<InitiationResult> xpathInitOutcomeInstances(BatchState state) {
+        return state.xpathOI.initOutcomeInstances(state.jobs);
+    }
+}
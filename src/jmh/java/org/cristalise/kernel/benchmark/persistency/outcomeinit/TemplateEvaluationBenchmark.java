@@ -0,0 +1,89 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark.persistency.outcomeinit;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.persistency.outcomeinit.XPathOutcomeInitiator;
+import org.mvel2.templates.TemplateRuntime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of evaluating the value of a single Activity Property: 'eval' is the original
+ * TemplateRuntime.eval() call, 'evaluate' uses the cached CompiledTemplate and the literal fast path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateEvaluationBenchmark {
+
+    /**
+     * Exposes the protected evaluate() method
+     */
+    static class Initiator extends XPathOutcomeInitiator {
+        Initiator() {
+            super("/");
+        }
+
+        String evaluateValue(String value, Map<String, Object> vars) {
+            return evaluate(value, vars);
+        }
+    }
+
+    @Param({"123", "@{IntValue}", "<State id='@{IntValue}' name='new' proceeds='false'/>"})
+    public String value;
+
+    Initiator           initiator;
+    Map<String, Object> vars;
+
+    @Setup
+    public void setup() {
+        initiator = new Initiator();
+
+        vars = new HashMap<>();
+        vars.put("IntValue", "123");
+    }
+
+    @Benchmark
+    public Object eval() {
+        return TemplateRuntime.eval(value, vars);
+    }
+
+    @Benchmark
+    public String evaluate() {
+        return initiator.evaluateValue(value, vars);
+    }
+}
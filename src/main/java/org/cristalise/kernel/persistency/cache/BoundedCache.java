@@ -0,0 +1,241 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.cristalise.kernel.utils.Logger;
+
+/**
+ * Size bounded LRU cache counting hits, misses and evictions. A maximum size of zero or less disables the cache,
+ * i.e. get() always returns null and put() does nothing. Optionally the entries expire after a given time since
+ * they were put into the cache, expired entries are counted as evictions.
+ * <p>
+ * The cache is safe to use from many threads and lookups take no lock: the entries are kept in a ConcurrentHashMap
+ * and the LRU order is approximated by the time of the last access recorded in each entry (with a resolution of
+ * one millisecond). Only the eviction of the least recently used entries, which happens after a put() exceeding
+ * the maximum size, is serialised. Concurrent misses of the same key may compute and put the value more than once,
+ * unless the caller coordinates the computation, e.g. with a future per key and {@link #peek(Object)}.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the cached value
+ */
+public class BoundedCache<K, V> {
+
+    /**
+     * The last access time is not updated more often than this, so hot entries are not written by every lookup
+     */
+    private static final long ACCESS_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Cached value, the time when it expires and the time when it was last accessed
+     */
+    private static class CacheEntry<V> {
+        final V    value;
+        final long expiresAt;
+
+        volatile long lastAccess = System.nanoTime();
+
+        CacheEntry(V value, long expiresAt) {
+            this.value     = value;
+            this.expiresAt = expiresAt;
+        }
+
+        void touch() {
+            long now = System.nanoTime();
+            if (now - lastAccess > ACCESS_RESOLUTION_NANOS) lastAccess = now;
+        }
+    }
+
+    private final String name;
+    private final int    maxSize;
+    private final long   ttlMillis;
+
+    private final ConcurrentHashMap<K, CacheEntry<V>> entries = new ConcurrentHashMap<>();
+
+    private final Object evictionLock = new Object();
+
+    private final LongAdder hits      = new LongAdder();
+    private final LongAdder misses    = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     *
+     * @param name the name of the cache used in log messages
+     * @param maxSize the maximum number of entries kept in the cache
+     */
+    public BoundedCache(String name, int maxSize) {
+        this(name, maxSize, 0);
+    }
+
+    /**
+     *
+     * @param name the name of the cache used in log messages
+     * @param maxSize the maximum number of entries kept in the cache
+     * @param ttlMillis the time in milliseconds after an entry expires, zero or less means never
+     */
+    public BoundedCache(String name, int maxSize, long ttlMillis) {
+        this.name      = name;
+        this.maxSize   = maxSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns the cached value and updates the hit/miss counters
+     *
+     * @param key the key of the entry
+     * @return the cached value or null
+     */
+    public V get(K key) {
+        CacheEntry<V> entry = entries.get(key);
+
+        if (entry != null && ttlMillis > 0 && System.currentTimeMillis() >= entry.expiresAt) {
+            Logger.msg(8, "BoundedCache.get() - cache:%s expired key:%s", name, key);
+
+            // another thread could have replaced the expired entry already
+            if (entries.remove(key, entry)) evictions.increment();
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        entry.touch();
+
+        return entry.value;
+    }
+
+    /**
+     * Returns the cached value without updating the counters and the time of the last access, e.g. to check again
+     * after a miss whether another thread has put the value in the meantime
+     *
+     * @param key the key of the entry
+     * @return the cached value or null if it is not cached or expired
+     */
+    public V peek(K key) {
+        CacheEntry<V> entry = entries.get(key);
+
+        if (entry == null || (ttlMillis > 0 && System.currentTimeMillis() >= entry.expiresAt)) return null;
+
+        return entry.value;
+    }
+
+    public V put(K key, V value) {
+        if (!isEnabled()) return null;
+
+        long expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+
+        CacheEntry<V> previous = entries.put(key, new CacheEntry<V>(value, expiresAt));
+
+        if (entries.size() > maxSize) evictEldestEntries();
+
+        return getValue(previous);
+    }
+
+    /**
+     * Removes the least recently used entries until the size of the cache is within the limit. The scan is linear,
+     * but it is only done when a new entry is put into a full cache.
+     */
+    private void evictEldestEntries() {
+        synchronized (evictionLock) {
+            while (entries.size() > maxSize) {
+                Map.Entry<K, CacheEntry<V>> eldest = null;
+
+                for (Map.Entry<K, CacheEntry<V>> e : entries.entrySet()) {
+                    if (eldest == null || e.getValue().lastAccess - eldest.getValue().lastAccess < 0) eldest = e;
+                }
+
+                if (eldest == null) return;
+
+                if (entries.remove(eldest.getKey(), eldest.getValue())) {
+                    evictions.increment();
+                    Logger.msg(8, "BoundedCache.evictEldestEntries() - cache:%s evicting key:%s", name, eldest.getKey());
+                }
+            }
+        }
+    }
+
+    public V remove(K key) {
+        return getValue(entries.remove(key));
+    }
+
+    private static <V> V getValue(CacheEntry<V> entry) {
+        return entry == null ? null : entry.value;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the ratio of hits to all lookups, or 0 if there was no lookup yet
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedCache[name:" + name + " size:" + size() + "/" + maxSize + " hits:" + hits.sum() + " misses:" + misses.sum()
+                + " evictions:" + evictions.sum() + "]";
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters of the number and the duration of executions, e.g. Script evaluations or validations
+ */
+public class ExecutionStatistics {
+
+    private final String name;
+
+    private final AtomicLong count      = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos   = new AtomicLong();
+
+    /**
+     * @param name the name of the statistics used in toString()
+     */
+    public ExecutionStatistics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records the duration of an execution
+     *
+     * @param nanos the duration of the execution in nanoseconds
+     */
+    public void record(long nanos) {
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalMillis() {
+        return totalNanos.get() / 1000000;
+    }
+
+    public long getMaxMillis() {
+        return maxNanos.get() / 1000000;
+    }
+
+    /**
+     * @return the average duration of the executions in milliseconds, or 0 if there was no execution yet
+     */
+    public double getAverageMillis() {
+        long c = count.get();
+
+        return c == 0 ? 0.0 : totalNanos.get() / 1000000.0 / c;
+    }
+
+    public void reset() {
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionStatistics[name:" + name + " count:" + count.get() + " total:" + getTotalMillis() + "ms max:"
+                + getMaxMillis() + "ms]";
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.cache;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.cristalise.kernel.common.InvalidDataException;
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.Logger;
+
+/**
+ * Computes the key of a Schema used by the caches of the compiled Schemas, e.g. the compiled SchemaTypeSystems of
+ * the OutcomeInitiators or the Schema models and Validators of the OutcomeBuilder. The key is based on the name,
+ * the version and the SHA-256 digest of the XSD, so a Schema edited without a version change is compiled again.
+ */
+public final class SchemaKey {
+
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to override the default size (1000) of the
+     * cache of Schema digests. Zero or negative value disables the cache.
+     */
+    public static final String DIGEST_CACHE_SIZE_CONFIGKEY = "SchemaKey.DigestCacheSize";
+
+    /**
+     * The last computed key of each Schema version together with the XSD it was computed from. The key is reused
+     * as long as the XSD is the same, so the digest is not recomputed for every Job.
+     */
+    private static volatile BoundedCache<String, SchemaDigest> digestCache;
+
+    private static final class SchemaDigest {
+        final String xsd;
+        final String key;
+
+        SchemaDigest(String xsd, String key) {
+            this.xsd = xsd;
+            this.key = key;
+        }
+
+        boolean matches(String data) {
+            // Schema instances of the same version normally share the String, so equals() is rarely needed
+            return xsd == data || xsd.equals(data);
+        }
+    }
+
+    private SchemaKey() {}
+
+    private static BoundedCache<String, SchemaDigest> getDigestCache() {
+        if (digestCache == null) {
+            synchronized (SchemaKey.class) {
+                if (digestCache == null) {
+                    digestCache = new BoundedCache<>("SchemaDigest", Gateway.getProperties().getInt(DIGEST_CACHE_SIZE_CONFIGKEY, 1000));
+                }
+            }
+        }
+        return digestCache;
+    }
+
+    /**
+     * Computes the key of the Schema. The digest is memoized per Schema version and recomputed only if the XSD
+     * has changed.
+     * 
+     * @param schema the Schema
+     * @return the key
+     * @throws InvalidDataException SHA-256 is not available
+     */
+    public static String getSchemaKey(Schema schema) throws InvalidDataException {
+        String nameVersion = schema.getName() + ":" + schema.getVersion();
+        String xsd = schema.getSchemaData();
+
+        SchemaDigest memo = getDigestCache().get(nameVersion);
+        if (memo != null && memo.matches(xsd)) return memo.key;
+
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(xsd.getBytes(StandardCharsets.UTF_8));
+
+            String key = nameVersion + ":" + new BigInteger(1, digest).toString(16);
+            getDigestCache().put(nameVersion, new SchemaDigest(xsd, key));
+
+            return key;
+        }
+        catch (NoSuchAlgorithmException e) {
+            Logger.error(e);
+            throw new InvalidDataException(e.getMessage());
+        }
+    }
+}
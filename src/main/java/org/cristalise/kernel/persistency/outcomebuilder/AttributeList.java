@@ -23,6 +23,7 @@ package org.cristalise.kernel.persistency.outcomebuilder;
 import java.io.Writer;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.cristalise.kernel.persistency.outcomebuilder.field.StringField;
@@ -42,8 +43,13 @@ public class AttributeList extends OutcomeStructure {
     private HashMap<String, StringField> attrMap = new HashMap<>();
 
     public AttributeList(ElementDecl model) {
+        this(model, null);
+    }
+
+    public AttributeList(ElementDecl model, SchemaModel schemaModel) {
         AttributeDecl thisDecl;
         this.model = model;
+        this.schemaModel = schemaModel;
 
         // simple types have no attributes
         if (model.getType().isSimpleType()) return;
@@ -56,7 +62,7 @@ public class AttributeList extends OutcomeStructure {
             Logger.msg(8, "AttributeList() - attribute:"+thisDecl.getName()+" optional:"+thisDecl.isOptional());
 
             // FIXME: this will be overwritten by the help of next attributes
-            help = OutcomeStructure.extractHelp(thisDecl);
+            help = getHelp(thisDecl);
 
             //Skipping optional attributes
             //if (thisDecl.isOptional()) continue;
@@ -64,7 +70,7 @@ public class AttributeList extends OutcomeStructure {
             // Add entry
             try {
                 //attrSet.add( StringField.getField(thisDecl) );
-                attrMap.put(thisDecl.getName(), StringField.getField(thisDecl) );
+                attrMap.put(thisDecl.getName(), newField(thisDecl) );
             }
             catch (StructuralException e) {
                 Logger.error(e);
@@ -101,6 +107,35 @@ public class AttributeList extends OutcomeStructure {
         }
     }
 
+    /**
+     * Checks the values of the existing attributes against the facets of their types
+     * 
+     * @param errors the descriptions of the violated facets are added to this list
+     */
+    public void validateValues(List<String> errors) {
+        if (myElement == null) return;
+
+        for (Map.Entry<String, StringField> entry : attrMap.entrySet()) {
+            if (!myElement.hasAttribute(entry.getKey())) continue;
+
+            String error = entry.getValue().validate(myElement.getAttribute(entry.getKey()));
+
+            if (error != null) errors.add("Attribute '" + getName() + "/@" + entry.getKey() + "': " + error);
+        }
+    }
+
+    /**
+     * Returns true if {@link #validateValues(List)} checks the attributes exactly like the Schema validation
+     * 
+     * @return true if the values of all attributes can be validated on their own
+     */
+    public boolean isExactlyValidated() {
+        for (StringField attr : attrMap.values()) {
+            if (!attr.isExactlyValidated()) return false;
+        }
+        return true;
+    }
+
     private Attr newAttribute(AttributeDecl attr) {
         myElement.setAttribute(attr.getName(), attr.getFixedValue() != null?attr.getFixedValue() : attr.getDefaultValue());
         return myElement.getAttributeNode(attr.getName());
@@ -157,6 +192,29 @@ public class AttributeList extends OutcomeStructure {
 
         return attrs;
     }
+
+    /**
+     * Generates the config of the attributes for the cached template, see {@link NgDynamicFormsTemplate}
+     */
+    public JSONArray generateNgDynamicFormsTemplate(NgDynamicFormsTemplate template, String path) {
+        JSONArray attrs = new JSONArray();
+
+        for (Map.Entry<String, StringField> entry: attrMap.entrySet()) {
+            StringField attr = entry.getValue();
+
+            if (attr.isNgDynamicFormsCacheable()) attrs.put(attr.generateNgDynamicForms(null));
+            else                                  attrs.put(template.addSlot(path, entry.getKey()));
+        }
+
+        return attrs;
+    }
+
+    /**
+     * Generates the config of a single attribute
+     */
+    public JSONObject generateNgDynamicForms(String attrName, Map<String, Object> inputs) {
+        return attrMap.get(attrName).generateNgDynamicForms(inputs);
+    }
     
     public boolean hasAttributeDecl(String name) {
         return ((ComplexType)model.getType()).getAttributeDecl(name) != null;
@@ -178,7 +236,7 @@ public class AttributeList extends OutcomeStructure {
         StringField field = attrMap.get(attrName);
 
         if (field == null) {
-            field = StringField.getField(attrDecl);
+            field = newField(attrDecl);
             attrMap.put(attrName,  field);
         }
 
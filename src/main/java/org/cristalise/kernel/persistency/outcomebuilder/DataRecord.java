@@ -22,13 +22,16 @@ package org.cristalise.kernel.persistency.outcomebuilder;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.cristalise.kernel.utils.Logger;
 import org.exolab.castor.xml.schema.ComplexType;
 import org.exolab.castor.xml.schema.ElementDecl;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -39,11 +42,15 @@ public class DataRecord extends OutcomeStructure {
     Document      parentDoc;
 
     public DataRecord(ElementDecl model) throws OutcomeBuilderException {
-        super(model);
+        this(model, null);
+    }
+
+    public DataRecord(ElementDecl model, SchemaModel schemaModel) throws OutcomeBuilderException {
+        super(model, schemaModel);
         setup();
     }
 
-    public synchronized void activate() {
+    public void activate() {
         try {
             setup();
             if (myElement != null) populateInstance();
@@ -55,7 +62,7 @@ public class DataRecord extends OutcomeStructure {
 
     private void setup() throws OutcomeBuilderException {
         // attributes at the top
-        myAttributes = new AttributeList(model);
+        myAttributes = new AttributeList(model, schemaModel);
 
         ComplexType elementType;
         try {
@@ -129,7 +136,7 @@ public class DataRecord extends OutcomeStructure {
             int total = childStructure.getModel().getMinOccurs();
 
             for (int i = count; i < total; i++) {
-                myElement.appendChild(childStructure.initNew(parentDoc));
+                insertChildElement(childStructure.initNew(parentDoc));
             }
         }
     }
@@ -162,6 +169,40 @@ public class DataRecord extends OutcomeStructure {
         }
     }
 
+    /**
+     * Processes the keys in the order of the stream. New optional elements are inserted at their position in the
+     * model, so the order of the keys does not change the Outcome.
+     */
+    @Override
+    public void addJsonInstance(Element parent, String name, JSONTokener json) throws OutcomeBuilderException {
+        Logger.msg(5, "DataRecord.addJsonInstance() - streaming name:'" + name + "'");
+
+        myElement = parent;
+
+        if (!name.equals(model.getName())) throw new InvalidOutcomeException("Missmatch in names:" + name + "!=" + model.getName());
+
+        Set<String> keys = new HashSet<String>();
+
+        JsonStreamReader.beginObject(json);
+
+        for (String key = JsonStreamReader.nextKey(json); key != null; key = JsonStreamReader.nextKey(json)) {
+            if (!keys.add(key)) throw json.syntaxError("Duplicate key \"" + key + "\"");
+
+            OutcomeStructure childStructure = subStructure.get(key);
+
+            if (myAttributes.hasAttributeDecl(key)) {
+                myAttributes.addJsonInstance(myElement, key, json.nextValue());
+            }
+            else if (childStructure != null) {
+                childStructure.addJsonInstance(parent, key, json);
+            }
+            else {
+                //keys which are not in the model are ignored
+                json.nextValue();
+            }
+        }
+    }
+
     @Override
     public Element initNew(Document rootDocument) {
         Logger.msg(5, "DataRecord.initNew() - name:'" + model.getName() + "'");
@@ -208,6 +249,15 @@ public class DataRecord extends OutcomeStructure {
 
     @Override
     public Object generateNgDynamicForms(Map<String, Object> inputs) {
+        return generateNgDynamicForms(inputs, null, null);
+    }
+
+    @Override
+    public Object generateNgDynamicFormsTemplate(NgDynamicFormsTemplate template, String path) {
+        return generateNgDynamicForms(null, template, path);
+    }
+
+    private JSONObject generateNgDynamicForms(Map<String, Object> inputs, NgDynamicFormsTemplate template, String path) {
         JSONObject dr = new JSONObject();
         
         dr.put("cls", generateNgDynamicFormsCls());
@@ -219,9 +269,20 @@ public class DataRecord extends OutcomeStructure {
         //String label = StringUtils.join(StringUtils.splitByCharacterTypeCamelCase(model.getName()), " ");
         //dr.put("label", label);
 
-        JSONArray array = myAttributes.generateNgDynamicForms(inputs);
+        JSONArray array;
 
-        for (String elementName : subStructureOrder) array.put(subStructure.get(elementName).generateNgDynamicForms(inputs));
+        if (template == null) {
+            array = myAttributes.generateNgDynamicForms(inputs);
+
+            for (String elementName : subStructureOrder) array.put(subStructure.get(elementName).generateNgDynamicForms(inputs));
+        }
+        else {
+            array = myAttributes.generateNgDynamicFormsTemplate(template, path);
+
+            for (String elementName : subStructureOrder) {
+                array.put(subStructure.get(elementName).generateNgDynamicFormsTemplate(template, getChildPath(path, elementName)));
+            }
+        }
 
         dr.put("group", array);
 
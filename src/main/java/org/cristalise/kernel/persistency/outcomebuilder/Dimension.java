@@ -29,6 +29,7 @@ import org.cristalise.kernel.utils.Logger;
 import org.exolab.castor.xml.schema.ElementDecl;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -40,15 +41,19 @@ public class Dimension extends OutcomeStructure {
     Element                      parent;
 //    DomKeyPushTable              table;
     ArrayList<DimensionInstance> instances = new ArrayList<DimensionInstance>(); // stores DimensionInstances if tabs
-    ArrayList<Element>           elements  = new ArrayList<Element>();           // stores current children
+    ArrayList<Element>           elements  = new ArrayList<Element>();           // stores current children if tabs
     Mode                         mode;
 
     public Dimension(ElementDecl model) {
-        super(model);
+        this(model, null);
+    }
+
+    public Dimension(ElementDecl model, SchemaModel schemaModel) {
+        super(model, schemaModel);
 
         // decide whether a table or tabs
         try {
-            tableModel = new DimensionTableModel(model);
+            tableModel = new DimensionTableModel(model, schemaModel);
             Logger.msg(8, "Dimension() - name:" + model.getName() + " mode:table");
 
             mode = Mode.TABLE;
@@ -68,14 +73,13 @@ public class Dimension extends OutcomeStructure {
 
     @Override
     public void addInstance(Element myElement, Document parentDoc) throws OutcomeBuilderException {
-        Logger.msg(6, "Dimension.addInstance() - adding instance " + (elements.size() + 1) + " for " + myElement.getTagName());
+        Logger.msg(6, "Dimension.addInstance() - adding instance " + (getChildCount() + 1) + " for " + myElement.getTagName());
 
         if (parent == null) setParentElement((Element) myElement.getParentNode());
 
         // if table, pass to table model
         if (mode == Mode.TABLE) {
             tableModel.addInstance(myElement, -1);
-            elements.add(myElement);
         }
         else {
             DimensionInstance target;
@@ -89,13 +93,14 @@ public class Dimension extends OutcomeStructure {
     }
 
     public int getChildCount() {
-        return elements.size();
+        if (mode == Mode.TABLE) return tableModel.getRowCount();
+        else                    return elements.size();
     }
 
     public DimensionInstance newInstance() {
         DimensionInstance newInstance = null;
         try {
-            newInstance = new DimensionInstance(model);
+            newInstance = new DimensionInstance(model, schemaModel);
             instances.add(newInstance);
             newInstance.setTabNumber(instances.size());
             newInstance.setParent(this);
@@ -131,7 +136,6 @@ public class Dimension extends OutcomeStructure {
 
         if (mode == Mode.TABLE) {
             newElement = tableModel.initNew(parent, -1);
-            elements.add(newElement);
         }
         else {
             DimensionInstance newTab = null;
@@ -235,24 +239,45 @@ public class Dimension extends OutcomeStructure {
             JSONArray jsonArray = (JSONArray)json;
             int i = 0;
             for (Object element : jsonArray) {
-                JSONObject jsonObj = (JSONObject)element;
+                addJsonRow(parent, i, (JSONObject)element);
+                i++;
+            }
+        }
+        else
+            throw new UnsupportedOperationException("Dimension cannot process TABS yet");
+    }
+
+    /**
+     * Reads the rows from the stream one by one, so only a single row is materialized at a time
+     */
+    @Override
+    public void addJsonInstance(Element parent, String name, JSONTokener json) throws OutcomeBuilderException {
+        Logger.msg(5, "Dimension.addJsonInstance() - streaming name:'" + name + "', mode:"+mode);
+
+        if (myElement == null) myElement = parent;
 
-                if (tableModel.getRowCount() < i+1) {
-                    Element newElement = tableModel.initNew(parent.getOwnerDocument(), i);
-                    parent.appendChild(newElement);
-    
-                    elements.add(newElement);
-                }
+        if (!name.equals(model.getName())) throw new InvalidOutcomeException("Missmatch in names:" + name + "!=" + model.getName());
 
-                for (String key: jsonObj.keySet()) {
-                    Object value = jsonObj.get(key);
-                    tableModel.setValueAt(value, i, key);
-                }
+        if (mode == Mode.TABLE) {
+            JsonStreamReader.beginArray(json);
 
-                i++;
+            for (int i = 0; JsonStreamReader.hasNextElement(json); i++) {
+                addJsonRow(parent, i, (JSONObject)json.nextValue());
             }
         }
         else
             throw new UnsupportedOperationException("Dimension cannot process TABS yet");
     }
+
+    private void addJsonRow(Element parent, int i, JSONObject jsonObj) {
+        if (tableModel.getRowCount() < i+1) {
+            Element newElement = tableModel.initNew(parent.getOwnerDocument(), i);
+            insertIntoParent(parent, newElement);
+        }
+
+        for (String key: jsonObj.keySet()) {
+            Object value = jsonObj.get(key);
+            tableModel.setValueAt(value, i, key);
+        }
+    }
 }
@@ -31,7 +31,11 @@ public class DimensionInstance extends DataRecord {
     String tabName = null;
 
     public DimensionInstance(ElementDecl model) throws OutcomeBuilderException {
-        super(model);
+        this(model, null);
+    }
+
+    public DimensionInstance(ElementDecl model, SchemaModel schemaModel) throws OutcomeBuilderException {
+        super(model, schemaModel);
     }
 
     public void setTabNumber(int tabNumber) {
@@ -22,171 +22,106 @@ package org.cristalise.kernel.persistency.outcomebuilder;
 
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
 
 import org.cristalise.kernel.utils.Logger;
 import org.exolab.castor.xml.schema.Annotated;
 import org.exolab.castor.xml.schema.AttributeDecl;
 import org.exolab.castor.xml.schema.ComplexType;
-import org.exolab.castor.xml.schema.ContentModelGroup;
 import org.exolab.castor.xml.schema.ElementDecl;
-import org.exolab.castor.xml.schema.Group;
-import org.exolab.castor.xml.schema.Order;
-import org.exolab.castor.xml.schema.Particle;
-import org.exolab.castor.xml.schema.SimpleType;
-import org.exolab.castor.xml.schema.SimpleTypesFactory;
-import org.exolab.castor.xml.schema.XMLType;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.w3c.dom.Text;
 
 public class DimensionTableModel {
 
-    ElementDecl          model;
-    ArrayList<String>    columnHeadings = new ArrayList<String>();
-    ArrayList<Class<?>>  columnClasses  = new ArrayList<Class<?>>();
-    ArrayList<Annotated> columnDecls    = new ArrayList<Annotated>();
-    ArrayList<String>    colHelp        = new ArrayList<String>();
-
-    ArrayList<Object[]>  rows           = new ArrayList<Object[]>();
-    ArrayList<Element>   elements       = new ArrayList<Element>();
+    ElementDecl            model;
+
+    /**
+     * Column metadata shared by all tables of the element, see {@link TableLayout}
+     */
+    final List<String>     columnHeadings;
+    final List<Class<?>>   columnClasses;
+    final List<Annotated>  columnDecls;
+    final List<String>     colHelp;
+
+    /**
+     * Values of the rows stored by column, see {@link TableColumn}
+     */
+    ArrayList<TableColumn> columns        = new ArrayList<TableColumn>();
+    ArrayList<Element>     elements       = new ArrayList<Element>();
+
+    /**
+     * Cell elements of each row indexed by column, null if the column is not an element or the element does not exist
+     */
+    ArrayList<Element[]>   cells          = new ArrayList<Element[]>();
+
+    /**
+     * Index of the columns which are child elements, keyed by the element name
+     */
+    final Map<String, Integer> elementColumns;
+
+    /**
+     * Index of the columns keyed by the heading, which may contain the fixed attributes of the element
+     */
+    final Map<String, Integer> headingColumns;
 
     public DimensionTableModel(ElementDecl model) throws OutcomeBuilderException {
-        XMLType modelContent = model.getType();
-        this.model = model;
-        // use text node for simple types
-        if (modelContent.isSimpleType()) {
-            SimpleType elementType = (SimpleType)modelContent;
-            SimpleType baseType = elementType.getBuiltInBaseType();
-            addColumn(model.getName(), baseType, baseType.getTypeCode());
-        }
-        else if (modelContent.isComplexType()) {  // if complex type, process child elements
-            ComplexType elementType = (ComplexType)modelContent;
-
-            // find out if a CDATA type is used for this complex type
-            XMLType baseType = elementType.getBaseType();
-            while (!(baseType instanceof SimpleType) && baseType != null) {
-                baseType = baseType.getBaseType();
-            }
-
-            if (baseType != null) {
-                int typeCode = ((SimpleType)baseType).getTypeCode();
-                addColumn(model.getName(), baseType, typeCode);
-            }
-
-            // process attributes
-            for (Enumeration<?> e = elementType.getAttributeDecls(); e.hasMoreElements();) {
-                AttributeDecl thisAttr = (AttributeDecl)e.nextElement();
-                // HACK: if we don't resolve the reference, the type will be null
-                if (thisAttr.isReference()) thisAttr = thisAttr.getReference();
-
-                if (thisAttr.getSimpleType() == null)
-                    throw new StructuralException("Attribute "+thisAttr.getName()+" in "+model.getName()+" has no type");
-
-                addColumn(thisAttr.getName(), thisAttr, thisAttr.getSimpleType().getTypeCode());
-            }
-
-            // enumerate child elements
-            enumerateElements(elementType);
-        }
+        this(model, (SchemaModel)null);
     }
 
-    public synchronized void addColumn(String heading, Annotated decl, int typeCode) {
-        Logger.msg(8, "DimensionTableModel.addColumn() - Column "+heading+" contains "+decl.getClass().getSimpleName());
-
-        columnHeadings.add(heading);
-        columnDecls.add(decl);
-        columnClasses.add(OutcomeStructure.getJavaClass(typeCode));
-
-        // read help
-        String helpText;
-        if (decl instanceof SimpleType) helpText = OutcomeStructure.extractHelp(model);
-        else                            helpText = OutcomeStructure.extractHelp(decl);
-
-        if (helpText.length() == 0) helpText = "<i>No help is available for this cell</i>";
-
-        colHelp.add(helpText);
+    /**
+     * Creates the table of the element using the column metadata cached in the SchemaModel
+     *
+     * @param model the declaration of the repeating element
+     * @param schemaModel the model of the Schema, can be null
+     * @throws OutcomeBuilderException the element is too complex for a table
+     */
+    public DimensionTableModel(ElementDecl model, SchemaModel schemaModel) throws OutcomeBuilderException {
+        this(model, schemaModel != null ? schemaModel.getTableLayout(model) : new TableLayout(model));
     }
 
+    DimensionTableModel(ElementDecl model, TableLayout layout) {
+        this.model = model;
 
-    public void enumerateElements(ContentModelGroup group) throws OutcomeBuilderException {
-        for (Enumeration<?> childElements = group.enumerate(); childElements.hasMoreElements(); ) {
-            Particle thisParticle = (Particle)childElements.nextElement();
-            String extraHeader = "";
-
-            if (thisParticle instanceof Group) {
-                Group thisGroup = (Group)thisParticle;
-                Order order = thisGroup.getOrder();
-
-                if (order == Order.sequence || order == Order.all)
-                    enumerateElements(thisGroup);
-                else // we only support sequences in data structures such as these
-                    throw new StructuralException("Element "+thisGroup.getName()+". Expecting sequence or all. Got "+thisGroup.getOrder());
-            }
-            else if (thisParticle instanceof ElementDecl) {
-                ElementDecl thisElement = (ElementDecl)thisParticle;
-                int typeCode = SimpleTypesFactory.INVALID_TYPE;
-                //make sure not too complex
-                if (thisElement.getType() != null) {
-                    if (thisElement.getType().isComplexType()) {
-                        ComplexType elementType = (ComplexType)thisElement.getType();
-                        if (elementType.getParticleCount() > 0 ||
-                                thisElement.getMaxOccurs() > 1)
-                            throw new StructuralException("Too deep for a table");
-                        for (Enumeration<?> attrs = elementType.getAttributeDecls(); attrs.hasMoreElements();) {
-                            AttributeDecl thisAttr = (AttributeDecl)attrs.nextElement();
-                            if (!thisAttr.isFixed())
-                                throw new StructuralException("Non-fixed attributes of child elements not supported in tables.");
-                            else
-                                extraHeader=extraHeader+" ("+thisAttr.getName()+":"+(thisAttr.getFixedValue()!=null?thisAttr.getFixedValue():thisAttr.getDefaultValue())+")";
-                        }
-                        // find type
-                        XMLType parentType = thisElement.getType();
-                        while (!(parentType instanceof SimpleType) && parentType != null) {
-                            parentType = parentType.getBaseType();
-                            if (parentType != null) typeCode = ((SimpleType)parentType).getTypeCode();
-                        }
-                    }
-                    else
-                        typeCode = ((SimpleType)thisElement.getType()).getTypeCode();
-                }
+        columnHeadings = layout.columnHeadings;
+        columnClasses  = layout.columnClasses;
+        columnDecls    = layout.columnDecls;
+        colHelp        = layout.colHelp;
+        elementColumns = layout.elementColumns;
+        headingColumns = layout.headingColumns;
 
-                //add to list
-                addColumn(thisElement.getName()+extraHeader, thisElement, typeCode);
-            }
-            else throw new StructuralException("Particle "+thisParticle.getClass()+" not implemented");
-        }
+        for (Class<?> columnClass : columnClasses) columns.add(TableColumn.create(columnClass));
     }
 
     public void addInstance(Element myElement, int index) throws OutcomeBuilderException {
         if (index == -1) index = elements.size();
         Object[] newRow = new Object[columnHeadings.size()];
+        Element[] rowCells = bindCells(myElement);
         for (int i=0; i<columnDecls.size(); i++) {
             if (columnDecls.get(i) instanceof ElementDecl) { // sub element - get the node from it
                 ElementDecl columnElementDecl = (ElementDecl)columnDecls.get(i);
-                NodeList childElements = myElement.getElementsByTagName(columnElementDecl.getName());
-                switch (childElements.getLength()) {
-                    case 1: // element exists - read the contents
-                        Element childElement = (Element)childElements.item(0);
-                        if (childElement.hasChildNodes()) {
-                            Node thisNode = childElement.getFirstChild();
-                            if (thisNode.getNodeType() == Node.TEXT_NODE)
-                                newRow[i] = OutcomeStructure.getTypedValue(((Text)thisNode).getData(), columnClasses.get(i));
-                            else
-                                throw new StructuralException("First child of Field " + columnElementDecl.getName() + " was not Text. (NodeType:"+thisNode.getNodeType()+")");
-                        }
-                        else { // create text node
-                            newRow[i] = this.setupDefaultElement(columnElementDecl, childElement, columnClasses.get(i));
-                        }
-                        break;
-                    case 0: // element is missing - create it
-                        Element newElement = myElement.getOwnerDocument().createElement(columnElementDecl.getName());
-                        myElement.appendChild(newElement); //TODO: not in the right place in sequence. should insert it
-                        newRow[i] = setupDefaultElement(columnElementDecl, newElement, columnClasses.get(i));
-                        break;
-                    default:
-                        throw new CardinalException("Element "+columnElementDecl.getName()+" appeared more than once.");
+                Element childElement = rowCells[i];
+
+                if (childElement != null) { // element exists - read the contents
+                    if (childElement.hasChildNodes()) {
+                        Node thisNode = childElement.getFirstChild();
+                        if (thisNode.getNodeType() == Node.TEXT_NODE)
+                            newRow[i] = OutcomeStructure.getTypedValue(((Text)thisNode).getData(), columnClasses.get(i));
+                        else
+                            throw new StructuralException("First child of Field " + columnElementDecl.getName() + " was not Text. (NodeType:"+thisNode.getNodeType()+")");
+                    }
+                    else { // create text node
+                        newRow[i] = this.setupDefaultElement(columnElementDecl, childElement, columnClasses.get(i));
+                    }
+                }
+                else { // element is missing - create it
+                    Element newElement = myElement.getOwnerDocument().createElement(columnElementDecl.getName());
+                    insertCell(myElement, rowCells, i, newElement);
+                    newRow[i] = setupDefaultElement(columnElementDecl, newElement, columnClasses.get(i));
+                    rowCells[i] = newElement;
                 }
             }
             else if (columnDecls.get(i) instanceof AttributeDecl) { //attribute
@@ -206,8 +141,57 @@ public class DimensionTableModel {
                     throw new StructuralException("First child of Column " + myElement.getTagName() + " was not Text");
             }
         }
-        elements.add(index, myElement);
-        rows.add(index, newRow);
+        insertRow(index, myElement, rowCells, newRow);
+    }
+
+    /**
+     * Finds the cell elements of a row in a single pass over its child nodes
+     *
+     * @param rowElement the element of the row
+     * @return the cell elements indexed by column
+     * @throws CardinalException a cell element appeared more than once
+     */
+    private Element[] bindCells(Element rowElement) throws CardinalException {
+        Element[] rowCells = new Element[columnDecls.size()];
+
+        for (Node child = rowElement.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (!(child instanceof Element)) continue;
+
+            Integer i = elementColumns.get(child.getNodeName());
+
+            if (i == null) continue;
+
+            if (rowCells[i] != null) throw new CardinalException("Element "+child.getNodeName()+" appeared more than once.");
+
+            rowCells[i] = (Element)child;
+        }
+
+        return rowCells;
+    }
+
+    /**
+     * Inserts a new cell element before the next existing cell of the row, i.e. at its place in the sequence
+     *
+     * @param rowElement the element of the row
+     * @param rowCells the cell elements of the row indexed by column
+     * @param columnIndex the column of the new cell
+     * @param cell the new cell element
+     */
+    private void insertCell(Element rowElement, Element[] rowCells, int columnIndex, Element cell) {
+        for (int i = columnIndex + 1; i < rowCells.length; i++) {
+            if (rowCells[i] != null) {
+                rowElement.insertBefore(cell, rowCells[i]);
+                return;
+            }
+        }
+        rowElement.appendChild(cell);
+    }
+
+    private void insertRow(int index, Element rowElement, Element[] rowCells, Object[] newRow) {
+        elements.add(index, rowElement);
+        cells.add(index, rowCells);
+
+        for (int i = 0; i < columns.size(); i++) columns.get(i).insert(index, newRow[i]);
     }
 
     public Class<?> getColumnClass(int columnIndex) {
@@ -219,44 +203,75 @@ public class DimensionTableModel {
     }
 
     public int getRowCount() {
-        return rows.size();
+        return elements.size();
     }
 
     public int getColumnCount() {
         return columnHeadings.size();
     }
 
-    public void setValueAt(Object aValue, int rowIndex, String columnName) {
-        Logger.msg(5, "DimensionTableModel.setValueAt() - columnName:%s", columnName);
+    /**
+     * Finds the index of a column by its heading or, if the heading contains the fixed attributes, by the element name
+     *
+     * @param columnName the heading or the element name of the column
+     * @return the index of the column or -1 if not found
+     */
+    public int getColumnIndex(String columnName) {
+        Integer idx = headingColumns.get(columnName);
+
+        if (idx == null) idx = elementColumns.get(columnName);
+
+        return idx == null ? -1 : idx;
+    }
+
+    /**
+     * Resolves the indexes of the given columns once, so bulk loaders can set the values of many rows
+     * using {@link #setValueAt(Object, int, int)}
+     *
+     * @param columnNames the headings or the element names of the columns
+     * @return the indexes of the columns in the same order as the names
+     * @throws UnsupportedOperationException a column was not found
+     */
+    public int[] bindColumns(String... columnNames) {
+        int[] indexes = new int[columnNames.length];
+
+        for (int i = 0; i < columnNames.length; i++) indexes[i] = findColumn(columnNames[i]);
+
+        return indexes;
+    }
 
-        int idx = columnHeadings.lastIndexOf(columnName);
+    private int findColumn(String columnName) {
+        int idx = getColumnIndex(columnName);
 
         if (idx == -1) throw new UnsupportedOperationException("ColumnName "+columnName+" not found in "+model.getName());
 
-        setValueAt(aValue, rowIndex, idx);
+        return idx;
+    }
+
+    public void setValueAt(Object aValue, int rowIndex, String columnName) {
+        Logger.msg(5, "DimensionTableModel.setValueAt() - columnName:%s", columnName);
+
+        setValueAt(aValue, rowIndex, findColumn(columnName));
     }
 
     public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
-        Object[] thisRow = rows.get(rowIndex);
-        thisRow[columnIndex]=aValue;
+        columns.get(columnIndex).set(rowIndex, aValue);
         Element rowElement = elements.get(rowIndex);
         // update node
         if (columnDecls.get(columnIndex) instanceof ElementDecl) { // sub element
             ElementDecl columnDecl = (ElementDecl)columnDecls.get(columnIndex);
-            NodeList elements = rowElement.getElementsByTagName(columnDecl.getName());
+            Element[] rowCells = cells.get(rowIndex);
 
-            Element columnElement = null;
+            Element columnElement = rowCells[columnIndex];
 
             //Create the optional element if the new value is not null
-            if (elements.item(0) == null && aValue != null && !"null".equals(aValue.toString())) {
+            if (columnElement == null && aValue != null && !"null".equals(aValue.toString())) {
                 Logger.msg(5, "DimensionTableModel.setValueAt() - Creating columnElement:%s", columnDecl.getName());
 
                 columnElement = rowElement.getOwnerDocument().createElement(columnDecl.getName());
                 setupDefaultElement(columnDecl, columnElement, columnClasses.get(columnIndex));
-                rowElement.appendChild(columnElement);
-            }
-            else {
-                columnElement = (Element) elements.item(0);
+                insertCell(rowElement, rowCells, columnIndex, columnElement);
+                rowCells[columnIndex] = columnElement;
             }
 
             if (aValue != null && !"null".equals(aValue.toString())) {
@@ -267,6 +282,7 @@ public class DimensionTableModel {
                 if (columnDecl.getMinOccurs() == 0) {
                     Logger.msg(5, "DimensionTableModel.setValueAt() - Removing columnElement:%s", columnDecl.getName());
                     rowElement.removeChild(columnElement);
+                    rowCells[columnIndex] = null;
                 }
                 else {
                     Logger.msg(5, "DimensionTableModel.setValueAt() - Setting columnElement:%s to default value", columnDecl.getName());
@@ -283,13 +299,13 @@ public class DimensionTableModel {
             Text textNode = (Text)rowElement.getFirstChild();
             textNode.setData(aValue.toString());
         }
-        rows.get(rowIndex)[columnIndex] = aValue;
     }
 
     public Element removeRow(int rowIndex) {
         Element elementToGo = elements.get(rowIndex);
         elements.remove(rowIndex);
-        rows.remove(rowIndex);
+        cells.remove(rowIndex);
+        for (TableColumn column : columns) column.remove(rowIndex);
         return elementToGo;
     }
 
@@ -315,21 +331,20 @@ public class DimensionTableModel {
     }
 
     public Object getValueAt(int rowIndex, int columnIndex) {
-        Object[] thisRow = rows.get(rowIndex);
-        if (!(getColumnClass(columnIndex).equals(thisRow[columnIndex].getClass())))
-            Logger.warning(thisRow[columnIndex]+" should be "+getColumnClass(columnIndex)+" is a "+thisRow[columnIndex].getClass().getName());
+        Object value = columns.get(columnIndex).get(rowIndex);
+        if (value != null && !(getColumnClass(columnIndex).equals(value.getClass())))
+            Logger.warning(value+" should be "+getColumnClass(columnIndex)+" is a "+value.getClass().getName());
 
-        return thisRow[columnIndex];
+        return value;
     }
 
     public String validateStructure() { // remove empty rows
-        for (int j=0; j < rows.size(); j++) {
-            Object[] elems = rows.get(j);
+        for (int j=0; j < elements.size(); j++) {
             boolean empty = true;
-            for (int i = 0; i < elems.length && empty; i++)
-                empty &= OutcomeStructure.isEmpty(elems[i]);
+            for (int i = 0; i < columns.size() && empty; i++)
+                empty &= OutcomeStructure.isEmpty(columns.get(i).get(j));
             if (empty)
-                if (model.getMinOccurs() < rows.size())
+                if (model.getMinOccurs() < elements.size())
                     removeRow(j);
                 else
                     return "Too many empty rows in table "+model.getName();
@@ -342,6 +357,7 @@ public class DimensionTableModel {
 
         if (index == -1) index = elements.size();
         Object[] newRow = new Object[columnHeadings.size()];
+        Element[] rowCells = new Element[columnDecls.size()];
         Element myElement = parent.createElement(model.getName());
 
         for (int i=0; i<columnDecls.size(); i++) {
@@ -354,6 +370,7 @@ public class DimensionTableModel {
                 Object newValue = setupDefaultElement(columnElementDecl, columnElement, columnClasses.get(i));
                 myElement.appendChild(columnElement);
                 newRow[i] = newValue;
+                rowCells[i] = columnElement;
             }
             else if (columnDecls.get(i) instanceof AttributeDecl) { //attribute
                 AttributeDecl columnAttrDecl = (AttributeDecl)columnDecls.get(i);
@@ -368,8 +385,7 @@ public class DimensionTableModel {
                 newRow[i] = setupDefaultElement(model, myElement, columnClasses.get(i));
             }
         }
-        elements.add(index,myElement);
-        rows.add(index, newRow);
+        insertRow(index, myElement, rowCells, newRow);
         return myElement;
     }
 
@@ -22,6 +22,7 @@ package org.cristalise.kernel.persistency.outcomebuilder;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
@@ -41,10 +42,14 @@ public class Field extends OutcomeStructure {
     Text          textNode;
 
     public Field(ElementDecl model) {
-        super(model);
+        this(model, null);
+    }
+
+    public Field(ElementDecl model, SchemaModel schemaModel) {
+        super(model, schemaModel);
 
         // field can have attributes
-        myAttributes = new AttributeList(model);
+        myAttributes = new AttributeList(model, schemaModel);
 
         Logger.msg(8, "Field() - name:"+model.getName()+" optional:" + isOptional());
         
@@ -52,7 +57,7 @@ public class Field extends OutcomeStructure {
         //if (isOptional()) return;
 
         try {
-            myFieldInstance = StringField.getField(model);
+            myFieldInstance = newField(model);
             Logger.msg(6, "Field() - name:" + model.getName() + " type: "+myFieldInstance.getClass().getSimpleName());
         }
         catch (StructuralException e) {
@@ -104,11 +109,11 @@ public class Field extends OutcomeStructure {
     private void createOptinalElement(Element parent) throws StructuralException {
         Logger.msg(5, "Field.createOptinalElement() - name: "+model.getName());
 
-        if (myFieldInstance == null) myFieldInstance = StringField.getField(model);
+        if (myFieldInstance == null) myFieldInstance = newField(model);
 
         if (myElement == null) {
             myElement = parent.getOwnerDocument().createElement(model.getName());
-            parent.appendChild(myElement);
+            insertIntoParent(parent, myElement);
         }
 
         if (myFieldInstance.getData() == null) {
@@ -175,6 +180,34 @@ public class Field extends OutcomeStructure {
         return null;
     }
 
+    /**
+     * Checks the value and the attributes of the element against the facets of their types, i.e. without
+     * validating the whole Outcome. Nothing is checked if the optional element does not exist.
+     * 
+     * @param errors the descriptions of the violated facets are added to this list
+     */
+    public void validateValues(List<String> errors) {
+        if (myElement == null) return;
+
+        myAttributes.validateValues(errors);
+
+        if (myFieldInstance != null) {
+            String error = myFieldInstance.validate(myElement.getTextContent());
+
+            if (error != null) errors.add("Field '" + getName() + "': " + error);
+        }
+    }
+
+    /**
+     * Returns true if {@link #validateValues(List)} checks the value and the attributes exactly like the Schema
+     * validation, otherwise the whole Outcome shall be validated after the value was changed.
+     * 
+     * @return true if the field can be validated on its own
+     */
+    public boolean isExactlyValidated() {
+        return myFieldInstance != null && myFieldInstance.isExactlyValidated() && myAttributes.isExactlyValidated();
+    }
+
     @Override
     public Element initNew(Document rootDocument) {
         Logger.msg(6, "Field.initiNew() - Creating '"+this.getName()+"'");
@@ -222,6 +255,12 @@ public class Field extends OutcomeStructure {
         return myFieldInstance.generateNgDynamicFormsCls();
     }
 
+    @Override
+    public Object generateNgDynamicFormsTemplate(NgDynamicFormsTemplate template, String path) {
+        if (myFieldInstance.isNgDynamicFormsCacheable()) return generateNgDynamicForms(null);
+        else                                             return template.addSlot(path, null);
+    }
+
     @Override
     public Object generateNgDynamicForms(Map<String, Object> inputs) {
         String defVal = getDefaultValue();
@@ -0,0 +1,97 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomebuilder;
+
+import org.json.JSONTokener;
+
+/**
+ * Reads the structure of a JSON text token by token using a JSONTokener, so the objects and arrays do not need
+ * to be materialized as JSONObject and JSONArray. The syntax accepted is the same as of the constructors of
+ * JSONObject and JSONArray, e.g. trailing comma is allowed at the end of an array.
+ */
+final class JsonStreamReader {
+
+    private JsonStreamReader() {}
+
+    /**
+     * Reads the opening '{' of an object
+     */
+    static void beginObject(JSONTokener json) {
+        if (json.nextClean() != '{') throw json.syntaxError("A JSONObject text must begin with '{'");
+    }
+
+    /**
+     * Reads the next key of the current object including the ':' following it. The caller shall read
+     * the value of the key before calling this method again.
+     *
+     * @param json the tokener
+     * @return the key or null if the closing '}' of the object was read
+     */
+    static String nextKey(JSONTokener json) {
+        char c = json.nextClean();
+
+        if (c == ',' || c == ';') c = json.nextClean();
+
+        switch (c) {
+            case 0:
+                throw json.syntaxError("A JSONObject text must end with '}'");
+            case '}':
+                return null;
+            default:
+                json.back();
+                String key = json.nextValue().toString();
+
+                if (json.nextClean() != ':') throw json.syntaxError("Expected a ':' after a key");
+
+                return key;
+        }
+    }
+
+    /**
+     * Reads the opening '[' of an array
+     */
+    static void beginArray(JSONTokener json) {
+        if (json.nextClean() != '[') throw json.syntaxError("A JSONArray text must start with '['");
+    }
+
+    /**
+     * Checks if the current array has more elements. The caller shall read the next element
+     * before calling this method again.
+     *
+     * @param json the tokener
+     * @return false if the closing ']' of the array was read
+     */
+    static boolean hasNextElement(JSONTokener json) {
+        char c = json.nextClean();
+
+        if (c == ',') c = json.nextClean();
+
+        switch (c) {
+            case 0:
+                throw json.syntaxError("Expected a ',' or ']'");
+            case ']':
+                return false;
+            default:
+                json.back();
+                return true;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomebuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * NgDynamicForms generated once for a root element of a Schema. The fields which depend on the inputs or on the time
+ * of the generation (e.g. ComboField using ListOfValues, DateField with 'now' value) are replaced by placeholders,
+ * which are generated again by {@link #generate(OutcomeBuilder, Map)} using the structures of the given OutcomeBuilder.
+ * The template is never modified after it was built, so it can be shared by all OutcomeBuilder instances of the Schema.
+ */
+public class NgDynamicFormsTemplate {
+
+    /**
+     * Identifies the structure generating the placeholder
+     */
+    private static class Slot {
+        final String path;
+        final String attributeName;
+
+        Slot(String path, String attributeName) {
+            this.path          = path;
+            this.attributeName = attributeName;
+        }
+    }
+
+    private final IdentityHashMap<Object, Slot> slots = new IdentityHashMap<>();
+
+    private final JSONArray form;
+    private final String    json;
+    private final String    etag;
+
+    /**
+     * Builds the template using the structures of the given root
+     *
+     * @param modelRoot the root of the OutcomeStructures
+     */
+    public NgDynamicFormsTemplate(OutcomeStructure modelRoot) {
+        form = new JSONArray();
+        form.put(modelRoot.generateNgDynamicFormsTemplate(this, ""));
+
+        if (slots.isEmpty()) {
+            json = form.toString(2);
+            etag = computeETag(json);
+        }
+        else {
+            json = null;
+            etag = null;
+        }
+    }
+
+    /**
+     * Registers a placeholder for the field of the given structure
+     *
+     * @param path the path of the structure as in the index of OutcomeBuilder, empty for the root
+     * @param attributeName the name of the attribute of the structure, or null if the placeholder is the structure itself
+     * @return the placeholder to be added to the template
+     */
+    JSONObject addSlot(String path, String attributeName) {
+        JSONObject placeholder = new JSONObject();
+        slots.put(placeholder, new Slot(path, attributeName));
+        return placeholder;
+    }
+
+    /**
+     * @return true if the template has no placeholder, i.e. it is the same for any inputs
+     */
+    public boolean isStatic() {
+        return slots.isEmpty();
+    }
+
+    /**
+     * @return the json string of the template if it is static, otherwise null
+     */
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * @return the ETag of the template if it is static, otherwise null
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * Creates a copy of the template and generates the placeholders using the structures of the given builder
+     *
+     * @param builder the OutcomeBuilder built from the same Schema and root
+     * @param inputs the inputs used to generate the placeholders, can be null
+     * @return the NgDynamicForms which can be modified by the caller
+     */
+    public JSONArray generate(OutcomeBuilder builder, Map<String, Object> inputs) {
+        return (JSONArray) copy(form, builder, inputs);
+    }
+
+    private Object copy(Object value, OutcomeBuilder builder, Map<String, Object> inputs) {
+        Slot slot = slots.get(value);
+
+        if (slot != null) return builder.generateNgDynamicForms(slot.path, slot.attributeName, inputs);
+
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            JSONObject copy   = new JSONObject();
+
+            for (String key : object.keySet()) copy.put(key, copy(object.get(key), builder, inputs));
+
+            return copy;
+        }
+        else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            JSONArray copy  = new JSONArray();
+
+            for (int i = 0; i < array.length(); i++) copy.put(copy(array.opt(i), builder, inputs));
+
+            return copy;
+        }
+
+        return value;
+    }
+
+    /**
+     * Computes the ETag of the given NgDynamicForms json, i.e. the hex SHA-256 digest of its content
+     *
+     * @param json the NgDynamicForms json string
+     * @return the ETag without quotes
+     */
+    public static String computeETag(String json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder etag = new StringBuilder(digest.length * 2);
+            for (byte b : digest) etag.append(String.format("%02x", b));
+
+            return etag.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -21,11 +21,22 @@
 package org.cristalise.kernel.persistency.outcomebuilder;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.cristalise.kernel.common.InvalidDataException;
@@ -35,20 +46,60 @@ import org.cristalise.kernel.utils.Logger;
 import org.exolab.castor.xml.schema.ComplexType;
 import org.exolab.castor.xml.schema.ElementDecl;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
- *
+ * Builds and updates an Outcome using the tree of OutcomeStructures created from the Schema. An instance and its
+ * OutcomeStructures are not thread-safe, they shall be used by one thread at a time. The SchemaModel, the
+ * NgDynamicFormsTemplates and the SchemaValidators are immutable or thread-safe, and they are shared by all instances.
  */
 public class OutcomeBuilder {
 
+    /**
+     * The way the last call of {@link OutcomeBuilder#validate()} checked the Outcome
+     */
+    public enum ValidationMode {
+        /** Nothing was modified since the previous validation */
+        NONE,
+        /** Only the values of the modified fields were checked against the facets of their types */
+        FIELDS,
+        /** The whole Outcome was validated against the Schema */
+        OUTCOME
+    }
+
     OutcomeStructure modelRoot;
     Outcome          outcome;
 
+    /**
+     * Position of the paths relative to the root (e.g. 'Level1/Level2') in the depth first traversal of the tree,
+     * i.e. the order of the elements in the Outcome. It is shared by all instances, see {@link SchemaModel#getPathOrder(OutcomeStructure)}
+     */
+    Map<String, Integer> pathOrder = Collections.emptyMap();
+    /**
+     * OutcomeStructures of the tree in the order of their paths in pathOrder
+     */
+    List<OutcomeStructure> structures = new ArrayList<OutcomeStructure>();
+
+    /**
+     * Fields modified since the last validation. They are validated alone unless the structure was modified too.
+     */
+    Set<Field> modifiedFields = new LinkedHashSet<Field>();
+    /**
+     * True if elements could have been added or removed since the last validation, i.e. the next validation shall
+     * validate the whole Outcome against the Schema
+     */
+    boolean structureModified = true;
+    /**
+     * The way the Outcome was checked by the last validation
+     */
+    ValidationMode lastValidationMode = ValidationMode.NONE;
+
     public OutcomeBuilder(Schema schema) throws OutcomeBuilderException {
         this("", schema, true);
     }
@@ -65,12 +116,12 @@ public class OutcomeBuilder {
         try {
             if (initOutcome) {
                 Document document = Outcome.parse((InputSource)null);
-                initialise(schema.getSom(), document, root);
+                initialise(SchemaModel.getSchemaModel(schema), document, root);
                 document.appendChild( modelRoot.initNew(document) );
                 outcome = new Outcome(-1, document, schema);
             }
             else {
-                initialise(schema.getSom(), null, root);
+                initialise(SchemaModel.getSchemaModel(schema), null, root);
             }
         }
         catch (SAXException | IOException e) {
@@ -89,7 +140,7 @@ public class OutcomeBuilder {
 
     public OutcomeBuilder(String root, Schema schema, Outcome outcome) throws OutcomeBuilderException {
         this.outcome = outcome;
-        initialise(schema.getSom(), outcome.getDOM(), root);
+        initialise(SchemaModel.getSchemaModel(schema), outcome.getDOM(), root);
         addInstance(outcome);
     }
 
@@ -98,20 +149,23 @@ public class OutcomeBuilder {
     }
 
     public void initialise(org.exolab.castor.xml.schema.Schema som, Document document, String selectedRoot) throws OutcomeBuilderException {
-        if (som == null) throw new InvalidSchemaException("No valid schema was supplied.");
+        initialise(new SchemaModel(som), document, selectedRoot);
+    }
+
+    /**
+     * Builds the OutcomeStructure tree of the selected root element using the (cached) SchemaModel
+     *
+     * @param schemaModel the immutable model of the Schema
+     * @param document the Outcome document, can be null
+     * @param selectedRoot the name of the root element, can be blank if the Schema has a single root or the document is given
+     * @throws OutcomeBuilderException the root element could not be identified or the structure could not be built
+     */
+    public void initialise(SchemaModel schemaModel, Document document, String selectedRoot) throws OutcomeBuilderException {
+        if (schemaModel == null) throw new InvalidSchemaException("No valid schema was supplied.");
 
         // find the root element declaration in the schema - may need to look for annotation??
-        ElementDecl rootElementDecl = null;
         Element docElement = (document == null) ? null : document.getDocumentElement();
-
-        HashMap<String, ElementDecl> foundRoots = new HashMap<String, ElementDecl>();
-        for (ElementDecl elementDecl : som.getElementDecls()) foundRoots.put(elementDecl.getName(), elementDecl);
-
-        if (foundRoots.size() == 0) throw new InvalidSchemaException("No root elements defined");
-
-        if (StringUtils.isNotBlank(selectedRoot)) rootElementDecl = foundRoots.get(selectedRoot);
-        else if (foundRoots.size() == 1)          rootElementDecl = foundRoots.values().iterator().next();
-        else if (docElement != null)              rootElementDecl = foundRoots.get(docElement.getTagName());
+        ElementDecl rootElementDecl = schemaModel.getRootElementDecl(selectedRoot, docElement);
 
         if (rootElementDecl == null) throw new InvalidSchemaException("No root element defined");
 
@@ -122,13 +176,22 @@ public class OutcomeBuilder {
             throw new InvalidSchemaException("Root element '"+rootElementDecl.getName()+"' shall not be simple type");
         }
         else {
-            modelRoot = new DataRecord(rootElementDecl);
+            modelRoot = new DataRecord(rootElementDecl, schemaModel);
         }
 
+        pathOrder = schemaModel.getPathOrder(modelRoot);
+
+        structures.clear();
+        modelRoot.collectStructures(structures);
+
+        structureModified = true;
+        modifiedFields.clear();
+
         Logger.msg(5, "OutcomeBuilder.initialise() - DONE");
     }
 
     public void addInstance(Outcome outcome) throws OutcomeBuilderException {
+        structureModified = true;
         modelRoot.addInstance(outcome.getDOM().getDocumentElement(), outcome.getDOM());
     }
 
@@ -139,9 +202,55 @@ public class OutcomeBuilder {
 
         if (keys.length != 1) throw new InvalidOutcomeException("Outcome must have a single root (length = " + keys.length + ")");
 
+        // optional elements and rows of tables can be created
+        structureModified = true;
+
         modelRoot.addJsonInstance(outcome.getDOM().getDocumentElement(), keys[0], json.getJSONObject(keys[0]));
     }
 
+    /**
+     * Streaming variant of {@link #addJsonInstance(JSONObject)}, which reads the JSON with a pull parser and populates
+     * the Outcome as the tokens arrive, i.e. the JSON is never materialized as a whole. The keys of each record are
+     * processed in the order of the stream, and new optional elements are inserted at their position in the Schema.
+     *
+     * @param json the reader of the JSON text
+     * @throws OutcomeBuilderException the JSON is not valid or it does not match the Schema
+     */
+    public void addJsonInstance(Reader json) throws OutcomeBuilderException {
+        addJsonInstance(new JSONTokener(json));
+    }
+
+    /**
+     * Streaming variant of {@link #addJsonInstance(JSONObject)}, see {@link #addJsonInstance(Reader)}
+     *
+     * @param json the stream of the JSON text encoded in UTF-8
+     * @throws OutcomeBuilderException the JSON is not valid or it does not match the Schema
+     */
+    public void addJsonInstance(InputStream json) throws OutcomeBuilderException {
+        addJsonInstance(new InputStreamReader(json, StandardCharsets.UTF_8));
+    }
+
+    private void addJsonInstance(JSONTokener json) throws OutcomeBuilderException {
+        // optional elements and rows of tables can be created
+        structureModified = true;
+
+        try {
+            JsonStreamReader.beginObject(json);
+
+            String root = JsonStreamReader.nextKey(json);
+
+            if (root == null) throw new InvalidOutcomeException("Outcome must have a single root (length = 0)");
+
+            modelRoot.addJsonInstance(outcome.getDOM().getDocumentElement(), root, json);
+
+            if (JsonStreamReader.nextKey(json) != null) throw new InvalidOutcomeException("Outcome must have a single root (length > 1)");
+        }
+        catch (JSONException e) {
+            Logger.error(e);
+            throw new InvalidOutcomeException(e.getMessage());
+        }
+    }
+
     /**
      * 
      * @param path
@@ -153,7 +262,10 @@ public class OutcomeBuilder {
         
         String[] names = StringUtils.split(path, "/");
 
-        Element newElement = null;
+        // a new element is always created
+        structureModified = true;
+
+        Element parentElement = null;
         String fieldName = null;
 
         if(names.length == 1) {
@@ -169,17 +281,17 @@ public class OutcomeBuilder {
         else {
             fieldName = names[names.length-1];
 
-            //Remove the first and the last entry
-            OutcomeStructure modelElement = modelRoot.find(Arrays.copyOfRange(names, 1, names.length-1));
+            OutcomeStructure modelElement = findParentStructure(names);
 
             if (modelElement == null) throw new StructuralException("Invalid path:'"+path+"'");
 
-            newElement = modelElement.createChildElement(outcome.getDOM(), fieldName);
+            modelElement.createChildElement(outcome.getDOM(), fieldName);
+            parentElement = modelElement.getElement();
         }
 
         try {
-            if (newElement == null) outcome.setField(fieldName, data);
-            else                    outcome.setField(newElement, fieldName, data);
+            if (parentElement == null) outcome.setField(fieldName, data);
+            else                       outcome.setField(parentElement, fieldName, data);
         }
         catch (InvalidDataException e) {
             Logger.error(e);
@@ -213,14 +325,16 @@ public class OutcomeBuilder {
         else {
             String recordName = names[names.length-1];
 
-            //Remove the first and the last entry
-            OutcomeStructure modelElement = modelRoot.find(Arrays.copyOfRange(names, 1, names.length-1));
+            OutcomeStructure modelElement = findParentStructure(names);
 
             if (modelElement == null) throw new StructuralException("Invalid path:'"+path+"'");
 
             newElement = modelElement.createChildElement(outcome.getDOM(), recordName);
         }
 
+        if (newElement == null) fieldsModified(record.keySet());
+        else                    structureModified = true;
+
         try {
             if (newElement == null) outcome.setRecord(record);
             else                    outcome.setRecord(newElement, record);
@@ -231,12 +345,120 @@ public class OutcomeBuilder {
         }
     }
 
+    /**
+     * Adds many records in one pass. The records are sorted by the order of the model, so parent records are created
+     * before their children, and the new elements of each parent are merged into its existing child elements in a
+     * single traversal. Like {@link #addRecord(String, Map)}, each path creates a new element, except the root.
+     *
+     * @param records the field values of the records keyed by the path of the record, e.g. '/Root/Level1/Record'
+     * @throws OutcomeBuilderException a path is invalid or a record could not be set
+     */
+    public void addRecords(Map<String, Map<String, String>> records) throws OutcomeBuilderException {
+        Logger.msg(5,"OutcomeBuilder.addRecords() - #records:"+records.size());
+
+        Map<String, String[]> namesOfPath = new HashMap<String, String[]>();
+        Map<String, Integer>  orderOfPath = new HashMap<String, Integer>();
+
+        for (String path : records.keySet()) {
+            String[] names = StringUtils.split(path, "/");
+
+            if (!modelRoot.getName().equals(names[0])) {
+                throw new StructuralException("path does not start with rootElement: '"+path+"' ?~ '"+modelRoot.getName()+"'");
+            }
+
+            Integer order = (names.length == 1) ? -1 : pathOrder.get(StringUtils.join(names, '/', 1, names.length));
+
+            if (order == null) throw new StructuralException("Invalid path:'"+path+"'");
+
+            namesOfPath.put(path, names);
+            orderOfPath.put(path, order);
+        }
+
+        List<String> paths = new ArrayList<String>(records.keySet());
+        paths.sort(Comparator.comparing(orderOfPath::get));
+
+        // parents are added in model order, so a new parent element is created before its children are added
+        LinkedHashMap<OutcomeStructure, List<String>> pathsOfParent = new LinkedHashMap<OutcomeStructure, List<String>>();
+
+        for (String path : paths) {
+            String[] names = namesOfPath.get(path);
+
+            if (names.length == 1) {
+                setRecord(null, records.get(path));
+            }
+            else {
+                OutcomeStructure parent = (names.length == 2) ? modelRoot : findParentStructure(names);
+
+                if (!pathsOfParent.containsKey(parent)) pathsOfParent.put(parent, new ArrayList<String>());
+
+                pathsOfParent.get(parent).add(path);
+            }
+        }
+
+        for (Map.Entry<OutcomeStructure, List<String>> entry : pathsOfParent.entrySet()) {
+            List<String> recordNames = new ArrayList<String>();
+
+            for (String path : entry.getValue()) {
+                String[] names = namesOfPath.get(path);
+                recordNames.add(names[names.length-1]);
+            }
+
+            List<Element> newElements = entry.getKey().createChildElements(outcome.getDOM(), recordNames);
+
+            for (int i = 0; i < newElements.size(); i++) setRecord(newElements.get(i), records.get(entry.getValue().get(i)));
+        }
+    }
+
+    private void setRecord(Element element, Map<String, String> record) throws StructuralException {
+        if (element == null) fieldsModified(record.keySet());
+        else                 structureModified = true;
+
+        try {
+            if (element == null) outcome.setRecord(record);
+            else                 outcome.setRecord(element, record);
+        }
+        catch (InvalidDataException e) {
+            Logger.error(e);
+            throw new StructuralException(e);
+        }
+    }
+
+    /**
+     * Returns the OutcomeStructure of the parent of the last element in the path using the index of paths
+     *
+     * @param names the names of the elements in the path starting with the root element
+     * @return the structure or null if the path is invalid
+     */
+    private OutcomeStructure findParentStructure(String[] names) {
+        //Remove the first and the last entry
+        return getStructure(StringUtils.join(names, '/', 1, names.length-1));
+    }
+
+    /**
+     * Returns the OutcomeStructure of the path relative to the root using the shared order of paths
+     *
+     * @param path the path of the structure, e.g. 'Level1/Level2'
+     * @return the structure or null if the path is invalid
+     */
+    private OutcomeStructure getStructure(String path) {
+        Integer order = pathOrder.get(path);
+
+        return (order == null) ? null : structures.get(order);
+    }
+
     public String getXml() throws InvalidDataException {
         return getXml(true);
     }
 
+    /**
+     * Returns the xml of the Outcome
+     *
+     * @param check validate the Outcome before, see {@link #validate()}
+     * @return the xml string
+     * @throws InvalidDataException the Outcome is not valid
+     */
     public String getXml(boolean check) throws InvalidDataException {
-        if (check) outcome.validateAndCheck();
+        if (check) validate();
         return outcome.getData();
     }
 
@@ -244,17 +466,145 @@ public class OutcomeBuilder {
         return getOutcome(true);
     }
 
+    /**
+     * Returns the Outcome. The next validation will validate the whole Outcome, because the caller can change it.
+     *
+     * @param check validate the Outcome before, see {@link #validate()}
+     * @return the Outcome
+     * @throws InvalidDataException the Outcome is not valid
+     */
     public Outcome getOutcome(boolean check) throws InvalidDataException {
-        if (check) outcome.validateAndCheck();
+        if (check) validate();
+
+        structureModified = true;
+
         return outcome;
     }
 
+    /**
+     * Sets the value of an existing field. The field is either given by its name if it is the child of the root,
+     * or by its path starting with the root element, e.g. '/NestedRecord/Level1/Level2/Counter'.
+     *
+     * @param name the name or the path of the field
+     * @param data the new value of the field
+     * @throws InvalidDataException the field does not exist or the path is invalid
+     */
     public void putField(String name, String data) throws InvalidDataException {
-        outcome.setField(name, data);
+        String[] names = StringUtils.split(name, "/");
+
+        if (names.length == 0) throw new InvalidDataException("Invalid path:'"+name+"'");
+
+        if (names.length > 1 && !modelRoot.getName().equals(names[0])) {
+            throw new InvalidDataException("path does not start with rootElement: '"+name+"' ?~ '"+modelRoot.getName()+"'");
+        }
+
+        if (names.length <= 2) {
+            String fieldName = names[names.length-1];
+
+            fieldModified(modelRoot, fieldName);
+            outcome.setField(fieldName, data);
+        }
+        else {
+            OutcomeStructure parent = findParentStructure(names);
+
+            if (parent == null || parent.getElement() == null) throw new InvalidDataException("Invalid path:'"+name+"'");
+
+            fieldModified(parent, names[names.length-1]);
+            outcome.setField(parent.getElement(), names[names.length-1], data);
+        }
+    }
+
+    /**
+     * Validates the Outcome. The whole Outcome is validated against the Schema if its structure could have been
+     * modified since the last validation, or if the type of a modified field has constraints which cannot be
+     * checked on their own exactly like the Schema validation does (e.g. pattern using XSD only syntax, date types).
+     * Otherwise only the values of the modified fields are checked against the facets of their types.
+     * The modifications are only tracked when they are done by the methods of this class
+     * (e.g. {@link #putField(String, String)}), therefore the Outcome returned by {@link #getOutcome()} is
+     * always validated as a whole next time.
+     *
+     * @throws InvalidDataException the Outcome is not valid
+     */
+    public void validate() throws InvalidDataException {
+        if (structureModified || !isExactlyValidated(modifiedFields)) {
+            Logger.msg(5, "OutcomeBuilder.validate() - validating the whole outcome");
+
+            lastValidationMode = ValidationMode.OUTCOME;
+            validateOutcome();
+        }
+        else if (!modifiedFields.isEmpty()) {
+            Logger.msg(5, "OutcomeBuilder.validate() - validating #fields:%d", modifiedFields.size());
+
+            lastValidationMode = ValidationMode.FIELDS;
+
+            List<String> errors = new ArrayList<String>();
+
+            for (Field field : modifiedFields) field.validateValues(errors);
+
+            if (!errors.isEmpty()) throw new InvalidDataException(StringUtils.join(errors, "\n"));
+        }
+        else {
+            lastValidationMode = ValidationMode.NONE;
+        }
+
+        structureModified = false;
+        modifiedFields.clear();
+    }
+
+    /**
+     * Returns the way the last call of {@link #validate()} checked the Outcome
+     *
+     * @return the mode of the last validation
+     */
+    public ValidationMode getLastValidationMode() {
+        return lastValidationMode;
+    }
+
+    private static boolean isExactlyValidated(Collection<Field> fields) {
+        for (Field field : fields) {
+            if (!field.isExactlyValidated()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Validates the whole Outcome with the cached SchemaValidator, or with the Outcome itself if the xsd could not
+     * be compiled on its own, e.g. it includes other Schemas.
+     */
+    private void validateOutcome() throws InvalidDataException {
+        SchemaValidator validator = null;
+
+        try {
+            validator = SchemaValidator.getSchemaValidator(outcome.getSchema());
+        }
+        catch (InvalidSchemaException e) {
+            // the failure is cached and logged once by SchemaValidator
+            Logger.msg(5, "OutcomeBuilder.validateOutcome() - using the validation of Outcome: %s", e.getMessage());
+        }
+
+        if (validator != null) validator.validateAndCheck(outcome.getDOM());
+        else                   outcome.validateAndCheck();
+    }
+
+    /**
+     * Records the modification of a field of the parent element. It is a structural modification if the field
+     * is not a simple element of the parent or the element does not exist yet.
+     */
+    private void fieldModified(OutcomeStructure parent, String name) {
+        OutcomeStructure child = parent.getChildModelElement(name);
+
+        if (child instanceof Field && child.getElement() != null) modifiedFields.add((Field) child);
+        else                                                      structureModified = true;
+    }
+
+    private void fieldsModified(Collection<String> names) {
+        for (String name : names) fieldModified(modelRoot, name);
     }
 
     public String generateNgDynamicForms(Map<String, Object> inputs) {
-        String json = generateNgDynamicFormsJson(inputs).toString(2);
+        NgDynamicFormsTemplate template = getNgDynamicFormsTemplate();
+
+        String json = template.isStatic() ? template.getJson() : template.generate(this, inputs).toString(2);
 
         Logger.msg(5, "OutcomeBuilder.generateNgDynamicForms() - json:%s", json);
 
@@ -270,9 +620,46 @@ public class OutcomeBuilder {
     }
 
     public JSONArray generateNgDynamicFormsJson(Map<String, Object> inputs) {
-        JSONArray array = new JSONArray();
-        array.put(modelRoot.generateNgDynamicForms(inputs));
-        return array;
+        return getNgDynamicFormsTemplate().generate(this, inputs);
+    }
+
+    /**
+     * Returns the ETag of the NgDynamicForms generated for the given inputs, so clients can skip downloading
+     * unchanged forms. The ETag of forms without inputs dependent fields is computed only once per Schema.
+     *
+     * @param inputs the inputs used to generate the forms, can be null
+     * @return the hex SHA-256 digest of the json returned by {@link #generateNgDynamicForms(Map)}, without quotes
+     */
+    public String getNgDynamicFormsETag(Map<String, Object> inputs) {
+        NgDynamicFormsTemplate template = getNgDynamicFormsTemplate();
+
+        if (template.isStatic()) return template.getETag();
+        else                     return NgDynamicFormsTemplate.computeETag(template.generate(this, inputs).toString(2));
+    }
+
+    /**
+     * Returns the template of the NgDynamicForms, which is cached in the SchemaModel for each root element
+     */
+    private NgDynamicFormsTemplate getNgDynamicFormsTemplate() {
+        SchemaModel schemaModel = modelRoot.getSchemaModel();
+
+        if (schemaModel == null) return new NgDynamicFormsTemplate(modelRoot);
+        else                     return schemaModel.getNgDynamicFormsTemplate(modelRoot);
+    }
+
+    /**
+     * Generates the config of a placeholder of the NgDynamicFormsTemplate using the structures of this builder
+     *
+     * @param path the path of the structure in the pathOrder, empty for the root
+     * @param attributeName the name of the attribute of the DataRecord, or null to generate the structure itself
+     * @param inputs the inputs used to generate the config, can be null
+     * @return the config
+     */
+    Object generateNgDynamicForms(String path, String attributeName, Map<String, Object> inputs) {
+        OutcomeStructure structure = path.isEmpty() ? modelRoot : getStructure(path);
+
+        if (attributeName == null) return structure.generateNgDynamicForms(inputs);
+        else                       return ((DataRecord) structure).myAttributes.generateNgDynamicForms(attributeName, inputs);
     }
 
     public String exportViewTemplate() {
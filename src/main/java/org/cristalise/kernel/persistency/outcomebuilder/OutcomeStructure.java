@@ -31,31 +31,31 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import org.apache.commons.lang3.StringUtils;
+import org.cristalise.kernel.persistency.outcomebuilder.field.StringField;
 import org.cristalise.kernel.utils.Logger;
 import org.exolab.castor.types.AnyNode;
 import org.exolab.castor.xml.schema.Annotated;
 import org.exolab.castor.xml.schema.Annotation;
+import org.exolab.castor.xml.schema.AttributeDecl;
 import org.exolab.castor.xml.schema.ComplexType;
 import org.exolab.castor.xml.schema.ContentModelGroup;
 import org.exolab.castor.xml.schema.Documentation;
 import org.exolab.castor.xml.schema.ElementDecl;
-import org.exolab.castor.xml.schema.Group;
-import org.exolab.castor.xml.schema.ModelGroup;
-import org.exolab.castor.xml.schema.Order;
 import org.exolab.castor.xml.schema.Particle;
 import org.exolab.castor.xml.schema.SimpleType;
 import org.exolab.castor.xml.schema.SimpleTypesFactory;
-import org.exolab.castor.xml.schema.Wildcard;
 import org.exolab.castor.xml.schema.XMLType;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 // contains child outcome elements - creates new ones
 public abstract class OutcomeStructure {
@@ -64,18 +64,44 @@ public abstract class OutcomeStructure {
     Element     myElement  = null;
     String      help       = null;
 
+    /**
+     * Immutable model of the Schema shared by all OutcomeStructure instances built from the same Schema. Can be null.
+     */
+    SchemaModel schemaModel = null;
+
+    /**
+     * The structure containing this one, null for the root
+     */
+    OutcomeStructure parentStructure = null;
+
     ArrayList<String>                 subStructureOrder = new ArrayList<String>();
     HashMap<String, OutcomeStructure> subStructure      = new HashMap<String, OutcomeStructure>();
 
+    /**
+     * Position of each child structure in the model
+     */
+    HashMap<String, Integer> subStructurePosition = new HashMap<String, Integer>();
+
+    /**
+     * Index of the last child element created or visited for each model position, used to find the
+     * insertion point of new child elements without scanning all the children
+     */
+    TreeMap<Integer, Node> lastChildAtPosition = new TreeMap<Integer, Node>();
+
     public OutcomeStructure() {}
 
     public OutcomeStructure(ElementDecl model) {
+        this(model, null);
+    }
+
+    public OutcomeStructure(ElementDecl model, SchemaModel schemaModel) {
         this.model = model;
+        this.schemaModel = schemaModel;
         subStructure = new HashMap<String, OutcomeStructure>();
 
         Logger.msg(8, "OutcomeStructure() - Creating '" + model.getName() + "' structure as " + this.getClass().getSimpleName());
 
-        String doc = extractHelp(model);
+        String doc = getHelp(model);
         if (StringUtils.isNotBlank(doc)) help = doc;
     }
 
@@ -99,15 +125,44 @@ public abstract class OutcomeStructure {
 
     public abstract void exportViewTemplate(Writer template) throws IOException;
     public abstract Object generateNgDynamicForms(Map<String, Object> inputs);
+
+    /**
+     * Generates the NgDynamicForms of this structure for the cached {@link NgDynamicFormsTemplate}. The default
+     * implementation generates the config without inputs, structures containing fields which depend on the inputs
+     * override it to register placeholders in the template.
+     *
+     * @param template the template being built
+     * @param path the path of this structure as in the index of OutcomeBuilder, empty for the root
+     * @return the config of this structure
+     */
+    public Object generateNgDynamicFormsTemplate(NgDynamicFormsTemplate template, String path) {
+        return generateNgDynamicForms(null);
+    }
     public abstract JSONObject generateNgDynamicFormsCls();
     public abstract void addJsonInstance(Element parent, String name, Object json) throws OutcomeBuilderException;
 
     /**
-     * 
-     * @param rootDocument
-     * @param recordName
-     * @return
-     * @throws OutcomeBuilderException
+     * Streaming variant of {@link #addJsonInstance(Element, String, Object)}, which reads the value of this structure
+     * from the tokener. The default implementation reads the whole value, which is sufficient for structures with
+     * small values like Field. DataRecord and Dimension override it to process the tokens as they arrive.
+     *
+     * @param parent the parent element
+     * @param name the name of the JSON key
+     * @param json the tokener positioned before the value of the key
+     * @throws OutcomeBuilderException the value does not match this structure
+     */
+    public void addJsonInstance(Element parent, String name, JSONTokener json) throws OutcomeBuilderException {
+        addJsonInstance(parent, name, json.nextValue());
+    }
+
+    /**
+     * Creates a new child element and inserts it at the place defined by the model, i.e. after the last
+     * existing child element which precedes it in the model.
+     *
+     * @param rootDocument the Outcome document
+     * @param recordName the name of the new child element
+     * @return the new element
+     * @throws OutcomeBuilderException the name is not a child of this structure
      */
     public Element createChildElement(Document rootDocument, String recordName) throws OutcomeBuilderException {
         OutcomeStructure childModel = getChildModelElement(recordName);
@@ -115,34 +170,146 @@ public abstract class OutcomeStructure {
         if (childModel == null) throw new StructuralException("'"+model.getName()+"' does not have child '"+recordName+"'");
 
         Element newElement = childModel.initNew(rootDocument);
-        Element refElement = null;
-        boolean cont = true;
 
-        // lets find out where to insert this new element
-        for (int i = 0; i < subStructureOrder.size()-1 && cont; i++) {
-            if (recordName.equals(subStructureOrder.get(i))) {
-                cont = false;
+        insertChildElement(newElement);
+
+        return newElement;
+    }
+
+    /**
+     * Inserts a new child element created by one of the child structures at the place defined by the model
+     *
+     * @param newElement the new element, its name must be the name of a child structure
+     */
+    void insertChildElement(Element newElement) {
+        int position = subStructurePosition.get(newElement.getNodeName());
+
+        Node refNode = findInsertionPoint(position);
+
+        if (refNode == null) myElement.appendChild(newElement);
+        else                 myElement.insertBefore(newElement, refNode);
+
+        lastChildAtPosition.put(position, newElement);
+    }
+
+    /**
+     * Inserts a new element of this structure into the parent element. It is placed at the position defined by
+     * the model if the parent is the element of the parent structure, otherwise it is appended.
+     *
+     * @param parent the parent element
+     * @param newElement the new element of this structure
+     */
+    void insertIntoParent(Element parent, Element newElement) {
+        if (parentStructure != null && parentStructure.myElement == parent) parentStructure.insertChildElement(newElement);
+        else                                                                parent.appendChild(newElement);
+    }
+
+    /**
+     * Finds the node before which a new child element of the given model position shall be inserted. The search
+     * starts from the last known child element which precedes the new one in the model, so normally only a few
+     * siblings are visited. Nodes removed or moved by other code are detected and dropped from the index, and
+     * the elements visited during the search are added to the index.
+     *
+     * @param position the position of the new element in the model
+     * @return the reference node or null if the new element shall be appended
+     */
+    private Node findInsertionPoint(int position) {
+        Node node = myElement.getFirstChild();
+
+        Entry<Integer, Node> floor = lastChildAtPosition.floorEntry(position);
+
+        while (floor != null) {
+            Node lastChild = floor.getValue();
+
+            if (lastChild.getParentNode() == myElement) {
+                node = lastChild.getNextSibling();
+                break;
+            }
+
+            lastChildAtPosition.remove(floor.getKey());
+            floor = lastChildAtPosition.lowerEntry(floor.getKey());
+        }
+
+        // skip the nodes which are not Elements or not after the new element in the model
+        while (node != null) {
+            Integer nodePosition = (node instanceof Element) ? subStructurePosition.get(node.getNodeName()) : null;
+
+            if (nodePosition != null) {
+                if (nodePosition > position) break;
+
+                lastChildAtPosition.put(nodePosition, node);
+            }
+
+            node = node.getNextSibling();
+        }
+
+        return node;
+    }
+
+    /**
+     * Creates new child elements and inserts them at the place defined by the model in a single pass over the
+     * existing children: the names are sorted by their model position, the insertion point of the first one is
+     * found using the same index as {@link #createChildElement(Document, String)}, and the following ones continue
+     * the walk from there. New elements of the same name keep the order of the names.
+     *
+     * @param rootDocument the Outcome document
+     * @param recordNames the names of the new child elements
+     * @return the new elements in the same order as the names
+     * @throws OutcomeBuilderException a name is not a child of this structure or this structure has no element
+     */
+    public List<Element> createChildElements(Document rootDocument, List<String> recordNames) throws OutcomeBuilderException {
+        if (myElement == null) throw new StructuralException("'"+model.getName()+"' has no element to add children '"+recordNames+"'");
+
+        int count = recordNames.size();
+        Integer[] order = new Integer[count];
+
+        // check all names before the document is modified
+        for (int i = 0; i < count; i++) {
+            String recordName = recordNames.get(i);
+
+            if (getChildModelElement(recordName) == null) throw new StructuralException("'"+model.getName()+"' does not have child '"+recordName+"'");
+
+            order[i] = i;
+        }
+
+        // stable sort, so new elements of the same position are inserted in the order of the names
+        Arrays.sort(order, (a, b) -> Integer.compare(subStructurePosition.get(recordNames.get(a)), subStructurePosition.get(recordNames.get(b))));
+
+        Element[] newElements = new Element[count];
+        Node node = null;
 
-                for (int k = i+1; k < subStructureOrder.size() && refElement == null; k++) {
+        for (int i = 0; i < count; i++) {
+            String recordName = recordNames.get(order[i]);
+            int position = subStructurePosition.get(recordName);
 
-                    String refElementName = subStructureOrder.get(k);
-                    NodeList children = myElement.getChildNodes();
+            if (i == 0) {
+                node = findInsertionPoint(position);
+            }
+            else {
+                // continue the walk from the insertion point of the previous element
+                while (node != null) {
+                    Integer nodePosition = (node instanceof Element) ? subStructurePosition.get(node.getNodeName()) : null;
 
-                    for (int j = 0; j < children.getLength() && refElement == null; j++) {
-                        Node child = children.item(j);
-                        // ignore any Node (e.g. Text) which are not Element type
-                        if (child instanceof Element && child.getNodeName().equals(refElementName)) {
-                            refElement = (Element) child;
-                        }
+                    if (nodePosition != null) {
+                        if (nodePosition > position) break;
+
+                        lastChildAtPosition.put(nodePosition, node);
                     }
+
+                    node = node.getNextSibling();
                 }
             }
-        }
 
-        if (refElement == null) myElement.appendChild(newElement);
-        else                    myElement.insertBefore(newElement, refElement);
+            Element newElement = getChildModelElement(recordName).initNew(rootDocument);
 
-        return newElement;
+            if (node == null) myElement.appendChild(newElement);
+            else              myElement.insertBefore(newElement, node);
+
+            lastChildAtPosition.put(position, newElement);
+            newElements[order[i]] = newElement;
+        }
+
+        return Arrays.asList(newElements);
     }
 
     /**
@@ -161,24 +328,24 @@ public abstract class OutcomeStructure {
 
         // if more than one can occur - dimension
         if (model.getMaxOccurs() > 1 || model.getMaxOccurs() == Particle.UNBOUNDED) // || model.getMinOccurs() == 0
-            return new Dimension(model);
+            return new Dimension(model, schemaModel);
 
         // must have a type from now on
         if (elementType == null)
             throw new StructuralException("Element " + model.getName() + " is elementary yet has no type.");
 
         // simple types will be fields
-        if (elementType instanceof SimpleType) return new Field(model);
+        if (elementType instanceof SimpleType) return new Field(model, schemaModel);
 
         // otherwise is a complex type
         try {
             ComplexType elementComplexType = (ComplexType) elementType;
 
             // when no element children - field
-            if (elementComplexType.getParticleCount() == 0) return new Field(model);
+            if (elementComplexType.getParticleCount() == 0) return new Field(model, schemaModel);
 
             // everything else is a data record
-            return new DataRecord(model);
+            return new DataRecord(model, schemaModel);
         }
         catch (ClassCastException e) {
             throw new StructuralException("Unknown XMLType for element " + model.getName());
@@ -187,46 +354,13 @@ public abstract class OutcomeStructure {
 
     /**
      * Extracts child Element declarations from a content group and recursively from any group (not Element) of that group. calls
-     * createStructure() to find the corresponding OutcomeStructure then adds it to this structure.
+     * createStructure() to find the corresponding OutcomeStructure then adds it to this structure. The flattened list of
+     * declarations is taken from the SchemaModel if available.
      */
     public void enumerateElements(ContentModelGroup group) throws OutcomeBuilderException {
-        // process base types first if complex type
-        // HACK: castor does not include elements from basetype, so we do it manually. if they fix it, this will duplicate child elements.
-        if (group instanceof ComplexType) {
-            XMLType base = ((ComplexType) group).getBaseType();
-
-            if (base instanceof ComplexType) enumerateElements((ComplexType) base);
-        }
-
-        for (Enumeration<?> elements = group.enumerate(); elements.hasMoreElements();) {
-            Particle thisParticle = (Particle) elements.nextElement();
-            if (thisParticle instanceof Group) {
-                Group thisGroup = (Group) thisParticle;
-                if (thisGroup instanceof ModelGroup) {
-                    // HACK: Castor strangeness - model groups don't seem to resolve their own references. If fixed, this will still work
-                    ModelGroup thisModel = (ModelGroup) thisGroup;
-                    if (thisModel.hasReference()) thisGroup = thisModel.getReference();
-                }
+        List<ElementDecl> elements = (schemaModel != null) ? schemaModel.getChildElements(group) : SchemaModel.enumerateElements(group);
 
-                // xs:sequences and xs:all is supported in data structures such as these
-                Order thisOrder = thisGroup.getOrder();
-                if (thisOrder == Order.sequence || thisOrder == Order.all)
-                    enumerateElements(thisGroup);
-                else
-                    throw new StructuralException("The '" + thisGroup.getOrder() + "' group is not supported");
-            }
-            else if (thisParticle instanceof ElementDecl) {
-                ElementDecl thisElement = (ElementDecl) thisParticle;
-                addStructure(createStructure(thisElement));
-            }
-            else if (thisParticle instanceof Wildcard) {
-                //do nothing
-                Logger.msg(5, "OutcomeStructure.enumerateElements() - group has Wildcard representing xs:any");
-            }
-            else {
-                throw new StructuralException("Cannot process Particle '" + thisParticle.getClass() + "' : Not implemented");
-            }
-        }
+        for (ElementDecl thisElement : elements) addStructure(createStructure(thisElement));
     }
 
     /**
@@ -237,7 +371,10 @@ public abstract class OutcomeStructure {
 
         String elementName = newElement.getName();
 
+        newElement.parentStructure = this;
+
         subStructure.put(elementName, newElement);
+        subStructurePosition.put(elementName, subStructureOrder.size());
         subStructureOrder.add(elementName);
     }
 
@@ -254,6 +391,10 @@ public abstract class OutcomeStructure {
         return model;
     }
 
+    public SchemaModel getSchemaModel() {
+        return schemaModel;
+    }
+
     public String getHelp() {
         return help;
     }
@@ -273,6 +414,27 @@ public abstract class OutcomeStructure {
         return subStructure.get(name);
     }
 
+    /**
+     * Returns the help of the declaration, which is cached in the SchemaModel if available
+     */
+    String getHelp(Annotated decl) {
+        return (schemaModel != null) ? schemaModel.getHelp(decl) : extractHelp(decl);
+    }
+
+    /**
+     * Creates a new field of the element using the descriptor cached in the SchemaModel if available
+     */
+    StringField newField(ElementDecl decl) throws StructuralException {
+        return (schemaModel != null) ? schemaModel.getFieldModel(decl).newField() : StringField.getField(decl);
+    }
+
+    /**
+     * Creates a new field of the attribute using the descriptor cached in the SchemaModel if available
+     */
+    StringField newField(AttributeDecl decl) throws StructuralException {
+        return (schemaModel != null) ? schemaModel.getFieldModel(decl).newField() : StringField.getField(decl);
+    }
+
     public static String extractHelp(Annotated model) {
         Enumeration<?> e = model.getAnnotations();
         StringBuffer doc = new StringBuffer();
@@ -389,10 +551,58 @@ public abstract class OutcomeStructure {
         return model.getMinOccurs() == 0;
     }
 
+    /**
+     * Finds the structure of a descendant element
+     *
+     * @param names the names of the elements in the path relative to this structure
+     * @return the structure or null if it was not found
+     */
     public OutcomeStructure find(String[] names) {
         OutcomeStructure child = getChildModelElement(names[0]);
 
-        if (names.length == 1) return child;
-        else                   return child.find(Arrays.copyOfRange(names, 1, names.length-1));
+        if (child == null || names.length == 1) return child;
+        else                                    return child.find(Arrays.copyOfRange(names, 1, names.length));
+    }
+
+    /**
+     * Adds the descendant structures to the index recursively using their path relative to this structure
+     *
+     * @param path the path of this structure, empty string for the root
+     * @param index the map to add the structures to
+     */
+    public void buildPathIndex(String path, Map<String, OutcomeStructure> index) {
+        for (String name : subStructureOrder) {
+            OutcomeStructure child = subStructure.get(name);
+            String childPath = getChildPath(path, name);
+
+            index.put(childPath, child);
+            child.buildPathIndex(childPath, index);
+        }
+    }
+
+    /**
+     * Adds the structures below this one to the list in the same depth first order as {@link #buildPathIndex(String, Map)},
+     * i.e. the structure at the position of a path in {@link SchemaModel#getPathOrder(OutcomeStructure)}
+     *
+     * @param structures the list to add the structures to
+     */
+    public void collectStructures(List<OutcomeStructure> structures) {
+        for (String name : subStructureOrder) {
+            OutcomeStructure child = subStructure.get(name);
+
+            structures.add(child);
+            child.collectStructures(structures);
+        }
+    }
+
+    /**
+     * Appends the name of a child to the path of its parent as used in the index of OutcomeBuilder
+     *
+     * @param path the path of the parent, empty string for the root
+     * @param name the name of the child
+     * @return the path of the child
+     */
+    static String getChildPath(String path, String name) {
+        return path.isEmpty() ? name : path + "/" + name;
     }
 }
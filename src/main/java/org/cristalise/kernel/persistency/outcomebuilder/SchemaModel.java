@@ -0,0 +1,421 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomebuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.cristalise.kernel.common.InvalidDataException;
+import org.cristalise.kernel.persistency.cache.BoundedCache;
+import org.cristalise.kernel.persistency.cache.SchemaKey;
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.persistency.outcomebuilder.field.FieldModel;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.Logger;
+import org.exolab.castor.xml.schema.Annotated;
+import org.exolab.castor.xml.schema.AttributeDecl;
+import org.exolab.castor.xml.schema.ComplexType;
+import org.exolab.castor.xml.schema.ContentModelGroup;
+import org.exolab.castor.xml.schema.ElementDecl;
+import org.exolab.castor.xml.schema.Group;
+import org.exolab.castor.xml.schema.ModelGroup;
+import org.exolab.castor.xml.schema.Order;
+import org.exolab.castor.xml.schema.Particle;
+import org.exolab.castor.xml.schema.Wildcard;
+import org.exolab.castor.xml.schema.XMLType;
+import org.w3c.dom.Element;
+
+/**
+ * Immutable model of a Schema used by the OutcomeBuilder. It contains the index of the global elements and
+ * the flattened list of child element declarations of each complex type, i.e. the base types and the groups
+ * are already expanded. The model does not contain any state of an Outcome, so it is cached per Schema
+ * and shared by all OutcomeBuilder instances.
+ * <p>
+ * Everything else derived from the Schema is built on first request and kept in the model as well:
+ * <ul>
+ * <li>the {@link FieldModel} of each element and attribute declaration (appinfo, label, compiled facets)
+ * <li>the {@link TableLayout} of each repeating element (column headings, classes and help)
+ * <li>the help of each declaration
+ * <li>the order of the paths of the tree and the NgDynamicFormsTemplate of each root element
+ * </ul>
+ * The tree of OutcomeStructures (DataRecord, Field, Dimension) and their StringFields is not part of the model,
+ * because these objects are bound to the DOM of one Outcome. Each OutcomeBuilder builds its own tree from the
+ * descriptors of this model, so the tree only holds the DOM bindings and the values.
+ */
+public class SchemaModel {
+
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to override the default size (100) of the
+     * cache of SchemaModels. Zero or negative value disables the cache.
+     */
+    public static final String CACHE_SIZE_CONFIGKEY = "OutcomeBuilder.SchemaModelCacheSize";
+
+    private static volatile BoundedCache<String, SchemaModel> cache;
+
+    /**
+     * Value derived from a declaration of the Schema, or the error found while processing the declaration
+     */
+    private static class Compiled<T> {
+        final T      value;
+        final String error;
+
+        Compiled(T value, String error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        T get() throws StructuralException {
+            if (error != null) throw new StructuralException(error);
+
+            return value;
+        }
+    }
+
+    private final org.exolab.castor.xml.schema.Schema som;
+
+    private final Map<String, ElementDecl>                            rootElements;
+    private final Map<ContentModelGroup, Compiled<List<ElementDecl>>> childElements;
+
+    private final ConcurrentHashMap<ElementDecl, Compiled<FieldModel>>  elementFields = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<AttributeDecl, FieldModel>          attributeFields = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ElementDecl, Compiled<TableLayout>> tableLayouts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Annotated, String>                  helpTexts = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Map<String, Integer>>       pathOrders = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, NgDynamicFormsTemplate>     ngDynamicFormsTemplates = new ConcurrentHashMap<>();
+
+    public SchemaModel(org.exolab.castor.xml.schema.Schema som) throws InvalidSchemaException {
+        if (som == null) throw new InvalidSchemaException("No valid schema was supplied.");
+
+        this.som = som;
+
+        Map<String, ElementDecl> roots = new LinkedHashMap<>();
+        for (ElementDecl elementDecl : som.getElementDecls()) roots.put(elementDecl.getName(), elementDecl);
+
+        if (roots.size() == 0) throw new InvalidSchemaException("No root elements defined");
+
+        Map<ContentModelGroup, Compiled<List<ElementDecl>>> children = new IdentityHashMap<>();
+        for (ElementDecl elementDecl : roots.values()) compile(elementDecl.getType(), children);
+
+        rootElements  = Collections.unmodifiableMap(roots);
+        childElements = Collections.unmodifiableMap(children);
+    }
+
+    /**
+     * Returns the SchemaModel of the given Schema. The model is taken from the cache if available,
+     * otherwise it is created and added to the cache.
+     *
+     * @param schema the Schema
+     * @return the SchemaModel
+     * @throws InvalidSchemaException the Schema could not be processed
+     */
+    public static SchemaModel getSchemaModel(Schema schema) throws InvalidSchemaException {
+        String key = getSchemaKey(schema);
+        SchemaModel model = getCache().get(key);
+
+        if (model == null) {
+            Logger.msg(5, "SchemaModel.getSchemaModel() - creating model for schema:%s", key);
+
+            model = new SchemaModel(schema.getSom());
+            getCache().put(key, model);
+        }
+
+        return model;
+    }
+
+    /**
+     * Returns the key of the Schema used by the caches of the OutcomeBuilder, which is the same key used by the
+     * cache of the EmptyOutcomeInitiator, see {@link SchemaKey}.
+     *
+     * @param schema the Schema
+     * @return the key
+     * @throws InvalidSchemaException the digest could not be computed
+     */
+    static String getSchemaKey(Schema schema) throws InvalidSchemaException {
+        try {
+            return SchemaKey.getSchemaKey(schema);
+        }
+        catch (InvalidDataException e) {
+            throw new InvalidSchemaException(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the cache of SchemaModels, e.g. to read its counters
+     *
+     * @return the cache
+     */
+    public static BoundedCache<String, SchemaModel> getCache() {
+        if (cache == null) {
+            synchronized (SchemaModel.class) {
+                if (cache == null) {
+                    cache = new BoundedCache<>("SchemaModel", Gateway.getProperties().getInt(CACHE_SIZE_CONFIGKEY, 100));
+                }
+            }
+        }
+        return cache;
+    }
+
+    private static void compile(XMLType type, Map<ContentModelGroup, Compiled<List<ElementDecl>>> children) {
+        if (!(type instanceof ComplexType) || children.containsKey(type)) return;
+
+        ComplexType complexType = (ComplexType) type;
+        List<ElementDecl> elements;
+
+        try {
+            elements = Collections.unmodifiableList(enumerateElements(complexType));
+            children.put(complexType, new Compiled<>(elements, null));
+        }
+        catch (StructuralException e) {
+            // error is only reported if the type is used to build an OutcomeStructure
+            children.put(complexType, new Compiled<>(null, e.getMessage()));
+            return;
+        }
+
+        for (ElementDecl elementDecl : elements) compile(elementDecl.getType(), children);
+    }
+
+    /**
+     * Extracts child Element declarations from a content group and recursively from any group (not Element) of that group.
+     * Elements of the base type are listed first if the group is a complex type.
+     *
+     * @param group the content model group
+     * @return the list of element declarations
+     * @throws StructuralException the group contains unsupported particles
+     */
+    public static List<ElementDecl> enumerateElements(ContentModelGroup group) throws StructuralException {
+        List<ElementDecl> elements = new ArrayList<>();
+        enumerateElements(group, elements);
+        return elements;
+    }
+
+    private static void enumerateElements(ContentModelGroup group, List<ElementDecl> elements) throws StructuralException {
+        // process base types first if complex type
+        // HACK: castor does not include elements from basetype, so we do it manually. if they fix it, this will duplicate child elements.
+        if (group instanceof ComplexType) {
+            XMLType base = ((ComplexType) group).getBaseType();
+
+            if (base instanceof ComplexType) enumerateElements((ComplexType) base, elements);
+        }
+
+        for (Enumeration<?> particles = group.enumerate(); particles.hasMoreElements();) {
+            Particle thisParticle = (Particle) particles.nextElement();
+
+            if (thisParticle instanceof Group) {
+                Group thisGroup = (Group) thisParticle;
+                if (thisGroup instanceof ModelGroup) {
+                    // HACK: Castor strangeness - model groups don't seem to resolve their own references. If fixed, this will still work
+                    ModelGroup thisModel = (ModelGroup) thisGroup;
+                    if (thisModel.hasReference()) thisGroup = thisModel.getReference();
+                }
+
+                // xs:sequences and xs:all is supported in data structures such as these
+                Order thisOrder = thisGroup.getOrder();
+                if (thisOrder == Order.sequence || thisOrder == Order.all)
+                    enumerateElements(thisGroup, elements);
+                else
+                    throw new StructuralException("The '" + thisGroup.getOrder() + "' group is not supported");
+            }
+            else if (thisParticle instanceof ElementDecl) {
+                elements.add((ElementDecl) thisParticle);
+            }
+            else if (thisParticle instanceof Wildcard) {
+                //do nothing
+                Logger.msg(5, "SchemaModel.enumerateElements() - group has Wildcard representing xs:any");
+            }
+            else {
+                throw new StructuralException("Cannot process Particle '" + thisParticle.getClass() + "' : Not implemented");
+            }
+        }
+    }
+
+    /**
+     * Returns the flattened list of child element declarations of the content group
+     *
+     * @param group the content model group, normally a ComplexType
+     * @return the unmodifiable list of element declarations
+     * @throws StructuralException the group contains unsupported particles
+     */
+    public List<ElementDecl> getChildElements(ContentModelGroup group) throws StructuralException {
+        Compiled<List<ElementDecl>> children = childElements.get(group);
+
+        // group was not reachable from the root elements
+        if (children == null) return enumerateElements(group);
+
+        return children.get();
+    }
+
+    /**
+     * Returns the descriptor of the field of the element. The descriptor is created if it does not exist yet.
+     *
+     * @param elementDecl the declaration of the element
+     * @return the descriptor
+     * @throws StructuralException the element has no simple type
+     */
+    public FieldModel getFieldModel(ElementDecl elementDecl) throws StructuralException {
+        Compiled<FieldModel> fieldModel = elementFields.get(elementDecl);
+
+        if (fieldModel == null) {
+            try {
+                fieldModel = new Compiled<>(FieldModel.getFieldModel(elementDecl), null);
+            }
+            catch (StructuralException e) {
+                fieldModel = new Compiled<>(null, e.getMessage());
+            }
+            elementFields.putIfAbsent(elementDecl, fieldModel);
+        }
+
+        return fieldModel.get();
+    }
+
+    /**
+     * Returns the descriptor of the field of the attribute. The descriptor is created if it does not exist yet.
+     *
+     * @param attrDecl the declaration of the attribute, the reference is resolved
+     * @return the descriptor
+     */
+    public FieldModel getFieldModel(AttributeDecl attrDecl) {
+        if (attrDecl.isReference()) attrDecl = attrDecl.getReference();
+
+        FieldModel fieldModel = attributeFields.get(attrDecl);
+
+        if (fieldModel == null) {
+            fieldModel = FieldModel.getFieldModel(attrDecl);
+            attributeFields.putIfAbsent(attrDecl, fieldModel);
+        }
+
+        return fieldModel;
+    }
+
+    /**
+     * Returns the column metadata of the table of the repeating element. The layout is created if it does not exist yet.
+     *
+     * @param elementDecl the declaration of the repeating element
+     * @return the layout
+     * @throws StructuralException the element is too complex for a table, i.e. it is shown in tabs
+     */
+    TableLayout getTableLayout(ElementDecl elementDecl) throws StructuralException {
+        Compiled<TableLayout> layout = tableLayouts.get(elementDecl);
+
+        if (layout == null) {
+            try {
+                layout = new Compiled<>(new TableLayout(elementDecl), null);
+            }
+            catch (StructuralException e) {
+                layout = new Compiled<>(null, e.getMessage());
+            }
+            tableLayouts.putIfAbsent(elementDecl, layout);
+        }
+
+        return layout.get();
+    }
+
+    /**
+     * Returns the help of the declaration, see {@link OutcomeStructure#extractHelp(Annotated)}
+     *
+     * @param decl the declaration
+     * @return the help, empty String if the declaration has no documentation
+     */
+    public String getHelp(Annotated decl) {
+        String help = helpTexts.get(decl);
+
+        if (help == null) {
+            help = OutcomeStructure.extractHelp(decl);
+            helpTexts.putIfAbsent(decl, help);
+        }
+
+        return help;
+    }
+
+    /**
+     * Returns the position of the paths of the tree in depth first order, i.e. the order of the elements in the Outcome.
+     * The paths are relative to the root, e.g. 'Level1/Level2'. The order is computed using the given structure if it
+     * does not exist yet, because every tree built for the same root element has the same shape.
+     *
+     * @param modelRoot the root of the OutcomeStructures built from this model
+     * @return the unmodifiable map of the positions keyed by the path
+     */
+    public Map<String, Integer> getPathOrder(OutcomeStructure modelRoot) {
+        Map<String, Integer> order = pathOrders.get(modelRoot.getName());
+
+        if (order == null) {
+            Logger.msg(5, "SchemaModel.getPathOrder() - indexing paths of root:%s", modelRoot.getName());
+
+            LinkedHashMap<String, OutcomeStructure> index = new LinkedHashMap<>();
+            modelRoot.buildPathIndex("", index);
+
+            Map<String, Integer> newOrder = new HashMap<>();
+            for (String path : index.keySet()) newOrder.put(path, newOrder.size());
+
+            order = Collections.unmodifiableMap(newOrder);
+            pathOrders.putIfAbsent(modelRoot.getName(), order);
+        }
+
+        return order;
+    }
+
+    /**
+     * Finds the root element declaration in the schema
+     *
+     * @param selectedRoot the name of the root element, can be blank
+     * @param docElement the root element of the Outcome, can be null
+     * @return the element declaration or null if it could not be identified
+     */
+    public ElementDecl getRootElementDecl(String selectedRoot, Element docElement) {
+        if (StringUtils.isNotBlank(selectedRoot)) return rootElements.get(selectedRoot);
+        else if (rootElements.size() == 1)        return rootElements.values().iterator().next();
+        else if (docElement != null)              return rootElements.get(docElement.getTagName());
+
+        return null;
+    }
+
+    /**
+     * Returns the NgDynamicFormsTemplate of the root element of the given structure. The template is built
+     * using the given structure if it does not exist yet.
+     *
+     * @param modelRoot the root of the OutcomeStructures built from this model
+     * @return the template
+     */
+    public NgDynamicFormsTemplate getNgDynamicFormsTemplate(OutcomeStructure modelRoot) {
+        NgDynamicFormsTemplate template = ngDynamicFormsTemplates.get(modelRoot.getName());
+
+        if (template == null) {
+            Logger.msg(5, "SchemaModel.getNgDynamicFormsTemplate() - building template for root:%s", modelRoot.getName());
+
+            template = new NgDynamicFormsTemplate(modelRoot);
+            ngDynamicFormsTemplates.putIfAbsent(modelRoot.getName(), template);
+        }
+
+        return template;
+    }
+
+    public org.exolab.castor.xml.schema.Schema getSom() {
+        return som;
+    }
+}
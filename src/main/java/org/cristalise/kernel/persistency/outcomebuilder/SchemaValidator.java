@@ -0,0 +1,240 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomebuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.apache.commons.lang3.StringUtils;
+import org.cristalise.kernel.common.InvalidDataException;
+import org.cristalise.kernel.persistency.cache.BoundedCache;
+import org.cristalise.kernel.persistency.cache.ExecutionStatistics;
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.Logger;
+import org.w3c.dom.Document;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Compiled javax.xml.validation.Schema of a Schema together with a bounded pool of reusable Validators. The compiled
+ * Schema is thread-safe, the Validators are not, so each validation borrows one from the pool or creates a new one
+ * if the pool is empty. Instances are cached per Schema version and shared by all OutcomeBuilder instances.
+ * The failure of the compilation is cached as well (e.g. the xsd includes other Schemas), so the xsd is only
+ * compiled once and the callers can fall back to the validation of the Outcome without retrying.
+ */
+public class SchemaValidator {
+
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to override the default size (100) of the
+     * cache of SchemaValidators. Zero or negative value disables the cache.
+     */
+    public static final String CACHE_SIZE_CONFIGKEY = "OutcomeBuilder.ValidatorCacheSize";
+
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to override the default number (8) of the
+     * Validators kept for reuse by each SchemaValidator.
+     */
+    public static final String POOL_SIZE_CONFIGKEY = "OutcomeBuilder.ValidatorPoolSize";
+
+    private static volatile BoundedCache<String, SchemaValidator> cache;
+
+    private static final ExecutionStatistics statistics = new ExecutionStatistics("SchemaValidation");
+
+    private final String                         name;
+    private final javax.xml.validation.Schema    schema;
+    private final ArrayBlockingQueue<Validator>  pool;
+    /**
+     * The reason why the xsd could not be compiled, null if it was compiled
+     */
+    private final String                         error;
+
+    /**
+     * Collects all errors of a validation instead of stopping at the first one
+     */
+    private static class ErrorCollector implements ErrorHandler {
+        final List<String> errors = new ArrayList<>();
+
+        @Override
+        public void warning(SAXParseException e) {
+            Logger.msg(5, "SchemaValidator - warning:%s", e.getMessage());
+        }
+
+        @Override
+        public void error(SAXParseException e) {
+            errors.add("Line:" + e.getLineNumber() + " Column:" + e.getColumnNumber() + " " + e.getMessage());
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) {
+            error(e);
+        }
+    }
+
+    /**
+     * Compiles the xsd of the Schema
+     *
+     * @param schema the Schema
+     * @param poolSize the maximum number of Validators kept for reuse
+     * @throws InvalidSchemaException the xsd could not be compiled
+     */
+    public SchemaValidator(Schema schema, int poolSize) throws InvalidSchemaException {
+        name = schema.getName() + ":" + schema.getVersion();
+
+        try {
+            // SchemaFactory is not thread-safe
+            SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            this.schema = factory.newSchema(new StreamSource(new StringReader(schema.getSchemaData())));
+        }
+        catch (SAXException e) {
+            throw new InvalidSchemaException("Schema '" + name + "' could not be compiled: " + e.getMessage());
+        }
+
+        pool  = new ArrayBlockingQueue<>(Math.max(poolSize, 1));
+        error = null;
+    }
+
+    /**
+     * Creates the cache entry of a Schema which could not be compiled
+     */
+    private SchemaValidator(Schema schema, InvalidSchemaException e) {
+        name        = schema.getName() + ":" + schema.getVersion();
+        this.schema = null;
+        pool        = null;
+        error       = e.getMessage();
+    }
+
+    /**
+     * Returns the SchemaValidator of the given Schema. The validator is taken from the cache if available,
+     * otherwise it is created and added to the cache. If the xsd could not be compiled, the failure is cached
+     * and the same exception is thrown for each call without compiling the xsd again.
+     *
+     * @param schema the Schema
+     * @return the SchemaValidator
+     * @throws InvalidSchemaException the xsd could not be compiled
+     */
+    public static SchemaValidator getSchemaValidator(Schema schema) throws InvalidSchemaException {
+        String key = SchemaModel.getSchemaKey(schema);
+        SchemaValidator validator = getCache().get(key);
+
+        if (validator == null) {
+            Logger.msg(5, "SchemaValidator.getSchemaValidator() - compiling schema:%s", key);
+
+            try {
+                validator = new SchemaValidator(schema, Gateway.getProperties().getInt(POOL_SIZE_CONFIGKEY, 8));
+            }
+            catch (InvalidSchemaException e) {
+                Logger.warning("SchemaValidator.getSchemaValidator() - " + e.getMessage());
+                validator = new SchemaValidator(schema, e);
+            }
+            getCache().put(key, validator);
+        }
+
+        if (validator.error != null) throw new InvalidSchemaException(validator.error);
+
+        return validator;
+    }
+
+    /**
+     * Returns the cache of SchemaValidators, e.g. to read its counters
+     *
+     * @return the cache
+     */
+    public static BoundedCache<String, SchemaValidator> getCache() {
+        if (cache == null) {
+            synchronized (SchemaValidator.class) {
+                if (cache == null) {
+                    cache = new BoundedCache<>("SchemaValidator", Gateway.getProperties().getInt(CACHE_SIZE_CONFIGKEY, 100));
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return the statistics of the validations done by all SchemaValidators
+     */
+    public static ExecutionStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Validates the document against the compiled Schema
+     *
+     * @param document the document to validate
+     * @return the errors separated by new line, or empty string if the document is valid
+     */
+    public String validate(Document document) {
+        Validator validator = pool.poll();
+
+        if (validator == null) validator = schema.newValidator();
+
+        ErrorCollector collector = new ErrorCollector();
+        validator.setErrorHandler(collector);
+
+        long start = System.nanoTime();
+
+        try {
+            validator.validate(new DOMSource(document));
+        }
+        catch (SAXException | IOException e) {
+            // the error handler collects all errors, so this is normally not reached
+            if (!(e instanceof SAXParseException)) collector.errors.add(e.getMessage());
+        }
+        finally {
+            long nanos = System.nanoTime() - start;
+            statistics.record(nanos);
+
+            Logger.msg(5, "SchemaValidator.validate() - schema:%s validated in %d ms", name, nanos / 1000000);
+
+            validator.reset();
+            pool.offer(validator);
+        }
+
+        return StringUtils.join(collector.errors, "\n");
+    }
+
+    /**
+     * Validates the document and throws exception if it is not valid
+     *
+     * @param document the document to validate
+     * @throws InvalidDataException the document is not valid
+     */
+    public void validateAndCheck(Document document) throws InvalidDataException {
+        String errors = validate(document);
+
+        if (StringUtils.isNotBlank(errors)) throw new InvalidDataException(errors);
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,376 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomebuilder;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Column oriented storage of the values of a DimensionTableModel. The values matching the class of the column are
+ * stored in primitive arrays or in a dictionary, so they are not kept as boxed objects per cell. Values which cannot
+ * be stored that way (e.g. a String which could not be converted to number) are kept as they are in a sparse map,
+ * therefore get() always returns an object equal to the one passed to set(), apart from the numbers which are
+ * returned with the class of the column.
+ */
+abstract class TableColumn {
+
+    /**
+     * Number of rows
+     */
+    int size = 0;
+
+    /**
+     * Rows which have a value in the primitive storage
+     */
+    final Bits present = new Bits();
+
+    /**
+     * Values which could not be stored in the primitive storage, keyed by row index
+     */
+    final TreeMap<Integer, Object> others = new TreeMap<Integer, Object>();
+
+    /**
+     * Creates the column storage for the given column class
+     *
+     * @param type the class returned by {@link OutcomeStructure#getJavaClass(int)}, can be null
+     * @return the new column
+     */
+    static TableColumn create(Class<?> type) {
+        if      (Boolean.class.equals(type))    return new BooleanColumn();
+        else if (BigInteger.class.equals(type)) return new IntegerColumn();
+        else if (BigDecimal.class.equals(type)) return new DecimalColumn();
+        else                                    return new StringColumn();
+    }
+
+    Object get(int row) {
+        checkIndex(row, size);
+
+        if (present.get(row)) return getPrimitive(row);
+        else                  return others.get(row);
+    }
+
+    void set(int row, Object value) {
+        checkIndex(row, size);
+
+        others.remove(row);
+
+        if (value != null && setPrimitive(row, value)) {
+            present.set(row);
+        }
+        else {
+            present.clear(row);
+            if (value != null) others.put(row, value);
+        }
+    }
+
+    /**
+     * Inserts a new row, the rows at and after the index are shifted
+     */
+    void insert(int row, Object value) {
+        checkIndex(row, size + 1);
+
+        insertSlot(row, size);
+        present.insert(row, size);
+        shiftKeys(others, row, 1);
+        size++;
+
+        set(row, value);
+    }
+
+    /**
+     * Removes a row, the rows after the index are shifted
+     */
+    void remove(int row) {
+        checkIndex(row, size);
+
+        others.remove(row);
+
+        removeSlot(row, size);
+        present.remove(row, size);
+        shiftKeys(others, row + 1, -1);
+        size--;
+    }
+
+    /**
+     * Stores the value in the primitive storage
+     *
+     * @return false if the value cannot be stored in the primitive storage
+     */
+    abstract boolean setPrimitive(int row, Object value);
+
+    abstract Object getPrimitive(int row);
+
+    abstract void insertSlot(int row, int size);
+
+    abstract void removeSlot(int row, int size);
+
+    static void checkIndex(int row, int size) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+    }
+
+    static int newCapacity(int length, int size) {
+        return (size < length) ? length : Math.max(16, length * 2);
+    }
+
+    static void shiftKeys(TreeMap<Integer, Object> map, int from, int delta) {
+        if (map.isEmpty()) return;
+
+        NavigableMap<Integer, Object> tail = map.tailMap(from, true);
+
+        if (tail.isEmpty()) return;
+
+        Map<Integer, Object> shifted = new HashMap<Integer, Object>();
+        for (Map.Entry<Integer, Object> entry : tail.entrySet()) shifted.put(entry.getKey() + delta, entry.getValue());
+
+        tail.clear();
+        map.putAll(shifted);
+    }
+
+    /**
+     * Bit array which can insert and remove a bit in the middle, shifting the following bits one word at a time.
+     * The bits at and above the size of the column are always cleared.
+     */
+    static final class Bits {
+        long[] words = new long[0];
+
+        boolean get(int index) {
+            int word = index >>> 6;
+            return word < words.length && (words[word] & (1L << index)) != 0;
+        }
+
+        void set(int index, boolean value) {
+            if (value) set(index);
+            else       clear(index);
+        }
+
+        void set(int index) {
+            ensureCapacity(index);
+            words[index >>> 6] |= 1L << index;
+        }
+
+        void clear(int index) {
+            int word = index >>> 6;
+            if (word < words.length) words[word] &= ~(1L << index);
+        }
+
+        /**
+         * Inserts a cleared bit at the index, the bits from the index up to the size are shifted up by one
+         */
+        void insert(int index, int size) {
+            int first = index >>> 6;
+
+            // all bits at and above the index are cleared
+            if (first >= words.length) return;
+
+            ensureCapacity(size);
+
+            int last = size >>> 6;
+
+            for (int w = last; w > first; w--) words[w] = (words[w] << 1) | (words[w-1] >>> 63);
+
+            long lower = (1L << index) - 1;
+            words[first] = (words[first] & lower) | ((words[first] & ~lower) << 1);
+        }
+
+        /**
+         * Removes the bit at the index, the bits above the index up to the size are shifted down by one
+         */
+        void remove(int index, int size) {
+            int first = index >>> 6;
+
+            if (first >= words.length) return;
+
+            int last = Math.min((size - 1) >>> 6, words.length - 1);
+
+            long lower = (1L << index) - 1;
+            words[first] = (words[first] & lower) | ((words[first] >>> 1) & ~lower);
+
+            for (int w = first + 1; w <= last; w++) {
+                words[w-1] |= words[w] << 63;
+                words[w] >>>= 1;
+            }
+        }
+
+        private void ensureCapacity(int index) {
+            int required = (index >>> 6) + 1;
+            if (required > words.length) words = Arrays.copyOf(words, Math.max(required, words.length * 2));
+        }
+    }
+
+    /**
+     * Stores integers which fit into a long
+     */
+    static class IntegerColumn extends TableColumn {
+        long[] values = new long[0];
+
+        @Override
+        boolean setPrimitive(int row, Object value) {
+            if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+                values[row] = ((BigInteger) value).longValue();
+                return true;
+            }
+            else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                values[row] = ((Number) value).longValue();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        Object getPrimitive(int row) {
+            return BigInteger.valueOf(values[row]);
+        }
+
+        @Override
+        void insertSlot(int row, int size) {
+            if (size == values.length) values = Arrays.copyOf(values, newCapacity(values.length, size));
+            System.arraycopy(values, row, values, row + 1, size - row);
+        }
+
+        @Override
+        void removeSlot(int row, int size) {
+            System.arraycopy(values, row + 1, values, row, size - row - 1);
+        }
+    }
+
+    /**
+     * Stores decimals as unscaled long value and scale, so the values are exact
+     */
+    static class DecimalColumn extends TableColumn {
+        long[] unscaled = new long[0];
+        int[]  scales   = new int[0];
+
+        @Override
+        boolean setPrimitive(int row, Object value) {
+            BigDecimal decimal = null;
+
+            if      (value instanceof BigDecimal)                         decimal = (BigDecimal) value;
+            else if (value instanceof Double || value instanceof Float)   decimal = BigDecimal.valueOf(((Number) value).doubleValue());
+            else if (value instanceof Long   || value instanceof Integer) decimal = BigDecimal.valueOf(((Number) value).longValue());
+
+            if (decimal == null || decimal.unscaledValue().bitLength() >= 64) return false;
+
+            unscaled[row] = decimal.unscaledValue().longValue();
+            scales[row]   = decimal.scale();
+            return true;
+        }
+
+        @Override
+        Object getPrimitive(int row) {
+            return BigDecimal.valueOf(unscaled[row], scales[row]);
+        }
+
+        @Override
+        void insertSlot(int row, int size) {
+            if (size == unscaled.length) {
+                int capacity = newCapacity(unscaled.length, size);
+                unscaled = Arrays.copyOf(unscaled, capacity);
+                scales   = Arrays.copyOf(scales,   capacity);
+            }
+            System.arraycopy(unscaled, row, unscaled, row + 1, size - row);
+            System.arraycopy(scales,   row, scales,   row + 1, size - row);
+        }
+
+        @Override
+        void removeSlot(int row, int size) {
+            System.arraycopy(unscaled, row + 1, unscaled, row, size - row - 1);
+            System.arraycopy(scales,   row + 1, scales,   row, size - row - 1);
+        }
+    }
+
+    /**
+     * Stores booleans in a bit array
+     */
+    static class BooleanColumn extends TableColumn {
+        final Bits values = new Bits();
+
+        @Override
+        boolean setPrimitive(int row, Object value) {
+            if (!(value instanceof Boolean)) return false;
+
+            values.set(row, (Boolean) value);
+            return true;
+        }
+
+        @Override
+        Object getPrimitive(int row) {
+            return Boolean.valueOf(values.get(row));
+        }
+
+        @Override
+        void insertSlot(int row, int size) {
+            values.insert(row, size);
+        }
+
+        @Override
+        void removeSlot(int row, int size) {
+            values.remove(row, size);
+        }
+    }
+
+    /**
+     * Stores strings as codes of a dictionary, so repeated values are kept only once
+     */
+    static class StringColumn extends TableColumn {
+        int[] codes = new int[0];
+
+        final ArrayList<String>        dictionary      = new ArrayList<String>();
+        final HashMap<String, Integer> dictionaryIndex = new HashMap<String, Integer>();
+
+        @Override
+        boolean setPrimitive(int row, Object value) {
+            if (!(value instanceof String)) return false;
+
+            Integer code = dictionaryIndex.get(value);
+
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add((String) value);
+                dictionaryIndex.put((String) value, code);
+            }
+
+            codes[row] = code;
+            return true;
+        }
+
+        @Override
+        Object getPrimitive(int row) {
+            return dictionary.get(codes[row]);
+        }
+
+        @Override
+        void insertSlot(int row, int size) {
+            if (size == codes.length) codes = Arrays.copyOf(codes, newCapacity(codes.length, size));
+            System.arraycopy(codes, row, codes, row + 1, size - row);
+        }
+
+        @Override
+        void removeSlot(int row, int size) {
+            System.arraycopy(codes, row + 1, codes, row, size - row - 1);
+        }
+    }
+}
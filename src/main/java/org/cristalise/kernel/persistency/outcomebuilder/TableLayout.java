@@ -0,0 +1,204 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomebuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cristalise.kernel.utils.Logger;
+import org.exolab.castor.xml.schema.Annotated;
+import org.exolab.castor.xml.schema.AttributeDecl;
+import org.exolab.castor.xml.schema.ComplexType;
+import org.exolab.castor.xml.schema.ContentModelGroup;
+import org.exolab.castor.xml.schema.ElementDecl;
+import org.exolab.castor.xml.schema.Group;
+import org.exolab.castor.xml.schema.Order;
+import org.exolab.castor.xml.schema.Particle;
+import org.exolab.castor.xml.schema.SimpleType;
+import org.exolab.castor.xml.schema.SimpleTypesFactory;
+import org.exolab.castor.xml.schema.XMLType;
+
+/**
+ * Immutable column metadata of a DimensionTableModel derived from the element declaration: the headings, the classes,
+ * the declarations and the help of the columns. It is cached in the SchemaModel, and each DimensionTableModel only
+ * keeps the values and the elements of its rows.
+ */
+final class TableLayout {
+
+    final List<String>    columnHeadings;
+    final List<Class<?>>  columnClasses;
+    final List<Annotated> columnDecls;
+    final List<String>    colHelp;
+
+    /**
+     * Index of the columns which are child elements, keyed by the element name
+     */
+    final Map<String, Integer> elementColumns;
+
+    /**
+     * Index of the columns keyed by the heading, which may contain the fixed attributes of the element
+     */
+    final Map<String, Integer> headingColumns;
+
+    /**
+     * Collects the columns while the layout is built
+     */
+    private static class Builder {
+        final ElementDecl          model;
+        final List<String>         headings       = new ArrayList<String>();
+        final List<Class<?>>       classes        = new ArrayList<Class<?>>();
+        final List<Annotated>      decls          = new ArrayList<Annotated>();
+        final List<String>         help           = new ArrayList<String>();
+        final Map<String, Integer> elementColumns = new HashMap<String, Integer>();
+        final Map<String, Integer> headingColumns = new HashMap<String, Integer>();
+
+        Builder(ElementDecl model) {
+            this.model = model;
+        }
+    }
+
+    /**
+     * Builds the layout of the table of the element
+     *
+     * @param model the declaration of the repeating element
+     * @throws StructuralException the element is too complex for a table
+     */
+    TableLayout(ElementDecl model) throws StructuralException {
+        Builder columns = new Builder(model);
+        XMLType modelContent = model.getType();
+
+        // use text node for simple types
+        if (modelContent.isSimpleType()) {
+            SimpleType elementType = (SimpleType)modelContent;
+            SimpleType baseType = elementType.getBuiltInBaseType();
+            addColumn(columns, model.getName(), baseType, baseType.getTypeCode());
+        }
+        else if (modelContent.isComplexType()) {  // if complex type, process child elements
+            ComplexType elementType = (ComplexType)modelContent;
+
+            // find out if a CDATA type is used for this complex type
+            XMLType baseType = elementType.getBaseType();
+            while (!(baseType instanceof SimpleType) && baseType != null) {
+                baseType = baseType.getBaseType();
+            }
+
+            if (baseType != null) {
+                int typeCode = ((SimpleType)baseType).getTypeCode();
+                addColumn(columns, model.getName(), baseType, typeCode);
+            }
+
+            // process attributes
+            for (Enumeration<?> e = elementType.getAttributeDecls(); e.hasMoreElements();) {
+                AttributeDecl thisAttr = (AttributeDecl)e.nextElement();
+                // HACK: if we don't resolve the reference, the type will be null
+                if (thisAttr.isReference()) thisAttr = thisAttr.getReference();
+
+                if (thisAttr.getSimpleType() == null)
+                    throw new StructuralException("Attribute "+thisAttr.getName()+" in "+model.getName()+" has no type");
+
+                addColumn(columns, thisAttr.getName(), thisAttr, thisAttr.getSimpleType().getTypeCode());
+            }
+
+            // enumerate child elements
+            enumerateElements(columns, elementType);
+        }
+
+        columnHeadings = Collections.unmodifiableList(columns.headings);
+        columnClasses  = Collections.unmodifiableList(columns.classes);
+        columnDecls    = Collections.unmodifiableList(columns.decls);
+        colHelp        = Collections.unmodifiableList(columns.help);
+        elementColumns = Collections.unmodifiableMap(columns.elementColumns);
+        headingColumns = Collections.unmodifiableMap(columns.headingColumns);
+    }
+
+    private static void addColumn(Builder columns, String heading, Annotated decl, int typeCode) {
+        Logger.msg(8, "TableLayout.addColumn() - Column "+heading+" contains "+decl.getClass().getSimpleName());
+
+        columns.headings.add(heading);
+        columns.decls.add(decl);
+        columns.classes.add(OutcomeStructure.getJavaClass(typeCode));
+        columns.headingColumns.put(heading, columns.headings.size()-1);
+
+        if (decl instanceof ElementDecl) columns.elementColumns.put(((ElementDecl) decl).getName(), columns.decls.size()-1);
+
+        // read help
+        String helpText;
+        if (decl instanceof SimpleType) helpText = OutcomeStructure.extractHelp(columns.model);
+        else                            helpText = OutcomeStructure.extractHelp(decl);
+
+        if (helpText.length() == 0) helpText = "<i>No help is available for this cell</i>";
+
+        columns.help.add(helpText);
+    }
+
+    private static void enumerateElements(Builder columns, ContentModelGroup group) throws StructuralException {
+        for (Enumeration<?> childElements = group.enumerate(); childElements.hasMoreElements(); ) {
+            Particle thisParticle = (Particle)childElements.nextElement();
+            String extraHeader = "";
+
+            if (thisParticle instanceof Group) {
+                Group thisGroup = (Group)thisParticle;
+                Order order = thisGroup.getOrder();
+
+                if (order == Order.sequence || order == Order.all)
+                    enumerateElements(columns, thisGroup);
+                else // we only support sequences in data structures such as these
+                    throw new StructuralException("Element "+thisGroup.getName()+". Expecting sequence or all. Got "+thisGroup.getOrder());
+            }
+            else if (thisParticle instanceof ElementDecl) {
+                ElementDecl thisElement = (ElementDecl)thisParticle;
+                int typeCode = SimpleTypesFactory.INVALID_TYPE;
+                //make sure not too complex
+                if (thisElement.getType() != null) {
+                    if (thisElement.getType().isComplexType()) {
+                        ComplexType elementType = (ComplexType)thisElement.getType();
+                        if (elementType.getParticleCount() > 0 ||
+                                thisElement.getMaxOccurs() > 1)
+                            throw new StructuralException("Too deep for a table");
+                        for (Enumeration<?> attrs = elementType.getAttributeDecls(); attrs.hasMoreElements();) {
+                            AttributeDecl thisAttr = (AttributeDecl)attrs.nextElement();
+                            if (!thisAttr.isFixed())
+                                throw new StructuralException("Non-fixed attributes of child elements not supported in tables.");
+                            else
+                                extraHeader=extraHeader+" ("+thisAttr.getName()+":"+(thisAttr.getFixedValue()!=null?thisAttr.getFixedValue():thisAttr.getDefaultValue())+")";
+                        }
+                        // find type
+                        XMLType parentType = thisElement.getType();
+                        while (!(parentType instanceof SimpleType) && parentType != null) {
+                            parentType = parentType.getBaseType();
+                            if (parentType != null) typeCode = ((SimpleType)parentType).getTypeCode();
+                        }
+                    }
+                    else
+                        typeCode = ((SimpleType)thisElement.getType()).getTypeCode();
+                }
+
+                //add to list
+                addColumn(columns, thisElement.getName()+extraHeader, thisElement, typeCode);
+            }
+            else throw new StructuralException("Particle "+thisParticle.getClass()+" not implemented");
+        }
+    }
+}
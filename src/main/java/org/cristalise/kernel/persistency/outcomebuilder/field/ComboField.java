@@ -75,6 +75,12 @@ public class ComboField extends StringField {
             selected = text;
     }
 
+    @Override
+    void setFieldModel(FieldModel fieldModel) {
+        super.setFieldModel(fieldModel);
+        setDefaultValue(fieldModel.defaultValue);
+    }
+
     @Override
     public void setDecl(AttributeDecl model) throws StructuralException {
         super.setDecl(model);
@@ -92,6 +98,14 @@ public class ComboField extends StringField {
         return "SELECT";
     }
 
+    /**
+     * The options of ListOfValues are populated from the inputs, scripts or queries, so they are never cached
+     */
+    @Override
+    public boolean isNgDynamicFormsCacheable() {
+        return vals.listNode == null && super.isNgDynamicFormsCacheable();
+    }
+
     private JSONArray getNgDynamicFormsOptions() {
         JSONArray options = new JSONArray();
 
@@ -101,7 +115,7 @@ public class ComboField extends StringField {
 
             options.put(emptyOption);
 
-            for (String key: vals.orderedKeys) {
+            for (String key: vals.keySet()) {
                 if (vals.get(key) != null) {
                     JSONObject option = new JSONObject();
 
@@ -0,0 +1,431 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomebuilder.field;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.cristalise.kernel.persistency.outcomebuilder.OutcomeStructure;
+import org.cristalise.kernel.utils.Logger;
+import org.exolab.castor.xml.schema.Facet;
+import org.exolab.castor.xml.schema.SimpleType;
+import org.exolab.castor.xml.schema.SimpleTypesFactory;
+import org.exolab.castor.xml.schema.simpletypes.ListType;
+
+/**
+ * Immutable validator compiled from the facets of a SimpleType, i.e. the patterns are compiled and the limits
+ * are parsed only once. It checks the value of a single field without validating the whole document, but it
+ * is not a complete XSD validator: the range facets are only checked for numeric types, and the lexical form
+ * is only checked for numeric and boolean types. Therefore the validator is only exact, i.e. it accepts the same
+ * values as the Schema validation, if the type is a direct restriction of a string, numeric or boolean built-in
+ * type and all of its patterns could be translated to Java regular expressions (see {@link #isExact()}).
+ */
+final class FacetValidator {
+
+    /**
+     * Validator of a type without facets
+     */
+    static final FacetValidator EMPTY = new FacetValidator(true);
+
+    /**
+     * Validator of a field without a known type, it checks nothing and it is not exact
+     */
+    static final FacetValidator UNSUPPORTED = new FacetValidator(false);
+
+    private static final int PRESERVE = 0;
+    private static final int REPLACE  = 1;
+    private static final int COLLAPSE = 2;
+
+    private final String  name;
+    private final boolean exact;
+    private final int     whiteSpace;
+
+    private final List<Pattern> patterns;
+    private final Set<Object>   enumeration;
+
+    private final boolean    bool;
+    private final boolean    numeric;
+    private final boolean    integer;
+    private final boolean    floating;
+    private final BigDecimal minInclusive;
+    private final BigDecimal maxInclusive;
+    private final BigDecimal minExclusive;
+    private final BigDecimal maxExclusive;
+    private final Integer    totalDigits;
+    private final Integer    fractionDigits;
+
+    private final Long length;
+    private final Long minLength;
+    private final Long maxLength;
+
+    private FacetValidator(boolean isExact) {
+        name           = null;
+        exact          = isExact;
+        whiteSpace     = PRESERVE;
+        patterns       = new ArrayList<>();
+        enumeration    = null;
+        bool           = numeric = integer = floating = false;
+        minInclusive   = maxInclusive = minExclusive = maxExclusive = null;
+        totalDigits    = fractionDigits = null;
+        length         = minLength = maxLength = null;
+    }
+
+    /**
+     * @param type the type of the field
+     */
+    FacetValidator(SimpleType type) {
+        name = type.getName();
+
+        SimpleType builtInType = type.isBuiltInType() ? type : type.getBuiltInBaseType();
+        Class<?> javaClass = builtInType == null ? null : OutcomeStructure.getJavaClass(builtInType.getTypeCode());
+
+        // lists are checked as a single string
+        boolean list = type instanceof ListType;
+        int typeCode = builtInType == null ? -1 : builtInType.getTypeCode();
+
+        bool     = !list && Boolean.class.equals(javaClass);
+        numeric  = !list && javaClass != null && Number.class.isAssignableFrom(javaClass);
+        integer  = numeric && BigInteger.class.equals(javaClass);
+        floating = numeric && (typeCode == SimpleTypesFactory.FLOAT_TYPE || typeCode == SimpleTypesFactory.DOUBLE_TYPE);
+
+        whiteSpace = getWhiteSpace(type, typeCode);
+
+        // facets of several restriction steps are not merged, and only these built-in types are checked completely
+        boolean isExact = !list
+                && (type.isBuiltInType() || type.getBaseType() == builtInType)
+                && (typeCode == SimpleTypesFactory.STRING_TYPE  || typeCode == SimpleTypesFactory.NORMALIZEDSTRING_TYPE
+                 || typeCode == SimpleTypesFactory.TOKEN_TYPE   || typeCode == SimpleTypesFactory.BOOLEAN_TYPE
+                 || typeCode == SimpleTypesFactory.DECIMAL_TYPE || typeCode == SimpleTypesFactory.INTEGER_TYPE
+                 || floating);
+
+        patterns = new ArrayList<>();
+
+        for (Enumeration<Facet> e = type.getFacets(Facet.PATTERN); e.hasMoreElements();) {
+            String regex = e.nextElement().getValue();
+            String javaRegex = toJavaRegex(regex);
+            try {
+                if (javaRegex == null) throw new PatternSyntaxException("XSD only syntax", regex, -1);
+
+                patterns.add(Pattern.compile(javaRegex));
+            }
+            catch (PatternSyntaxException ex) {
+                Logger.warning("FacetValidator() - type:"+name+" pattern is not supported, the whole Outcome is validated:"+regex);
+                isExact = false;
+            }
+        }
+
+        // the enumeration of booleans compares the lexical values
+        if (bool && type.hasFacet(Facet.ENUMERATION)) isExact = false;
+
+        exact = isExact;
+
+        if (type.hasFacet(Facet.ENUMERATION)) {
+            enumeration = new HashSet<>();
+
+            for (Enumeration<Facet> e = type.getFacets(Facet.ENUMERATION); e.hasMoreElements();) {
+                enumeration.add(getEnumerationKey(e.nextElement().getValue()));
+            }
+        }
+        else {
+            enumeration = null;
+        }
+
+        minInclusive   = numeric ? getDecimal(type, Facet.MIN_INCLUSIVE) : null;
+        maxInclusive   = numeric ? getDecimal(type, Facet.MAX_INCLUSIVE) : null;
+        minExclusive   = numeric ? getDecimal(type, Facet.MIN_EXCLUSIVE) : null;
+        maxExclusive   = numeric ? getDecimal(type, Facet.MAX_EXCLUSIVE) : null;
+        totalDigits    = numeric && type.hasFacet(Facet.TOTALDIGITS)    ? type.getFacet(Facet.TOTALDIGITS).toInt()    : null;
+        fractionDigits = numeric && type.hasFacet(Facet.FRACTIONDIGITS) ? type.getFacet(Facet.FRACTIONDIGITS).toInt() : null;
+
+        // length of lists and binary types are not counted in characters
+        boolean stringLength = !list && javaClass != null;
+
+        length    = stringLength ? type.getLength()    : null;
+        minLength = stringLength ? type.getMinLength() : null;
+        maxLength = stringLength ? type.getMaxLength() : null;
+    }
+
+    /**
+     * Compiles the validator of the type, or returns {@link #EMPTY} if the type has no facets to check
+     *
+     * @param type the type of the field, can be null
+     * @return the validator
+     */
+    static FacetValidator compile(SimpleType type) {
+        if (type == null) return UNSUPPORTED;
+
+        FacetValidator validator = new FacetValidator(type);
+
+        return validator.isEmpty() ? EMPTY : validator;
+    }
+
+    /**
+     * Returns true if {@link #validate(String)} accepts exactly the values accepted by the Schema validation.
+     * If it is false, the value shall be checked by validating the whole Outcome.
+     *
+     * @return true if the validator is exact
+     */
+    boolean isExact() {
+        return exact;
+    }
+
+    private boolean isEmpty() {
+        return exact && whiteSpace == PRESERVE && !bool && !numeric && patterns.isEmpty() && enumeration == null
+                && minInclusive == null && maxInclusive == null && minExclusive == null && maxExclusive == null
+                && totalDigits == null && fractionDigits == null
+                && length == null && minLength == null && maxLength == null;
+    }
+
+    private static int getWhiteSpace(SimpleType type, int typeCode) {
+        String value;
+
+        if (type.hasFacet(Facet.WHITESPACE))                         value = type.getFacet(Facet.WHITESPACE).getValue();
+        else if (typeCode == SimpleTypesFactory.STRING_TYPE)           value = "preserve";
+        else if (typeCode == SimpleTypesFactory.NORMALIZEDSTRING_TYPE) value = "replace";
+        else                                                           value = "collapse";
+
+        if      ("preserve".equals(value)) return PRESERVE;
+        else if ("replace".equals(value))  return REPLACE;
+        else                               return COLLAPSE;
+    }
+
+    /**
+     * Translates an XSD regular expression to a Java one. XSD expressions are always matched against the whole
+     * value and '^' and '$' are ordinary characters, while the '.' and the multi-character escapes (\d, \w, \s)
+     * have their own definitions.
+     *
+     * @param regex the XSD regular expression
+     * @return the Java regular expression, or null if the XSD only syntax (character class subtraction, name
+     *         and block escapes) is used which is not translated
+     */
+    static String toJavaRegex(String regex) {
+        StringBuilder java = new StringBuilder(regex.length() + 16);
+
+        boolean inClass = false;
+        boolean negated = false;
+
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+
+            switch (c) {
+                case '\\':
+                    if (++i == regex.length()) return null;
+
+                    char escaped = regex.charAt(i);
+
+                    switch (escaped) {
+                        case 'd': java.append("\\p{Nd}"); break;
+                        case 'D': java.append("\\P{Nd}"); break;
+                        case 's': java.append(inClass ? "\\x20\\t\\n\\r" : "[\\x20\\t\\n\\r]"); break;
+                        case 'W': java.append(inClass ? "\\p{P}\\p{Z}\\p{C}" : "[\\p{P}\\p{Z}\\p{C}]"); break;
+                        case 'S':
+                        case 'w':
+                            // the complement is nested in the class, which is not reliable in negated classes
+                            if (negated) return null;
+                            java.append(escaped == 'S' ? "[^\\x20\\t\\n\\r]" : "[^\\p{P}\\p{Z}\\p{C}]");
+                            break;
+                        case 'p':
+                        case 'P':
+                            int end = regex.indexOf('}', i);
+                            if (end < 0 || regex.startsWith("{Is", i + 1)) return null;
+
+                            java.append('\\').append(regex, i, end + 1);
+                            i = end;
+                            break;
+                        case 'n': case 'r': case 't': case '\\': case '|': case '.': case '-': case '^': case '?':
+                        case '*': case '+': case '{': case '}': case '(': case ')': case '[': case ']': case '$':
+                            java.append('\\').append(escaped);
+                            break;
+                        default:
+                            // \i, \c and their complements, or an invalid escape
+                            return null;
+                    }
+                    break;
+                case '[':
+                    // nested class is only allowed in the subtraction
+                    if (inClass) return null;
+
+                    inClass = true;
+                    negated = regex.startsWith("^", i + 1);
+                    java.append(negated ? "[^" : "[");
+                    if (negated) i++;
+                    break;
+                case ']':
+                    inClass = negated = false;
+                    java.append(c);
+                    break;
+                case '-':
+                    if (inClass && regex.startsWith("[", i + 1)) return null;
+                    java.append(c);
+                    break;
+                case '.':
+                    java.append(inClass ? "." : "[^\\n\\r]");
+                    break;
+                case '^':
+                case '$':
+                case '&':
+                    java.append('\\').append(c);
+                    break;
+                default:
+                    java.append(c);
+                    break;
+            }
+        }
+
+        return inClass ? null : java.toString();
+    }
+
+    private static String normalize(String value, int whiteSpace) {
+        if (whiteSpace == PRESERVE) return value;
+
+        String replaced = StringUtils.replaceChars(value, "\t\n\r", "   ");
+
+        if (whiteSpace == REPLACE) return replaced;
+
+        // only the space is collapsed, the other whitespace characters of Java are kept
+        StringBuilder collapsed = new StringBuilder(replaced.length());
+
+        for (String token : StringUtils.split(replaced, ' ')) {
+            if (collapsed.length() > 0) collapsed.append(' ');
+            collapsed.append(token);
+        }
+        return collapsed.toString();
+    }
+
+    private BigDecimal getDecimal(SimpleType type, String facetName) {
+        if (!type.hasFacet(facetName)) return null;
+
+        String value = type.getFacet(facetName).getValue();
+        try {
+            return new BigDecimal(value.trim());
+        }
+        catch (NumberFormatException e) {
+            Logger.warning("FacetValidator() - type:"+name+" facet:"+facetName+" is not a number:"+value);
+            return null;
+        }
+    }
+
+    private Object getEnumerationKey(String value) {
+        if (numeric) {
+            try {
+                return new BigDecimal(value.trim()).stripTrailingZeros();
+            }
+            catch (NumberFormatException e) {
+                // INF, NaN of float and double are compared as strings
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Checks the value against the facets
+     *
+     * @param value the value of the field
+     * @return the description of the first violated facet, or null if the value is valid
+     */
+    String validate(String value) {
+        if (this == EMPTY || this == UNSUPPORTED) return null;
+
+        if (value == null) value = "";
+
+        value = normalize(value, whiteSpace);
+
+        if (!patterns.isEmpty()) {
+            boolean matches = false;
+
+            // patterns of the same type are alternatives
+            for (int i = 0; i < patterns.size() && !matches; i++) matches = patterns.get(i).matcher(value).matches();
+
+            if (!matches) return "value '" + value + "' does not match the pattern of type '" + name + "'";
+        }
+
+        if (enumeration != null && !enumeration.contains(getEnumerationKey(value))) {
+            return "value '" + value + "' is not in the enumeration of type '" + name + "'";
+        }
+
+        if (length != null || minLength != null || maxLength != null) {
+            long count = value.codePointCount(0, value.length());
+
+            if (length    != null && count != length)    return "length of value '" + value + "' is not " + length;
+            if (minLength != null && count <  minLength) return "length of value '" + value + "' is less than " + minLength;
+            if (maxLength != null && count >  maxLength) return "length of value '" + value + "' is more than " + maxLength;
+        }
+
+        if (bool) {
+            String trimmed = value.trim();
+
+            if (!(trimmed.equals("true") || trimmed.equals("false") || trimmed.equals("1") || trimmed.equals("0"))) {
+                return "value '" + value + "' is not a boolean";
+            }
+        }
+
+        if (numeric) return validateNumber(value.trim());
+
+        return null;
+    }
+
+    private String validateNumber(String value) {
+        if (floating && (value.equals("INF") || value.equals("-INF") || value.equals("NaN"))) return null;
+
+        // exponent is only allowed for float and double, fraction is not allowed for integers
+        if ((!floating && StringUtils.containsAny(value, 'e', 'E')) || (integer && value.indexOf('.') >= 0)) {
+            return "value '" + value + "' is not " + (integer ? "an integer" : "a decimal");
+        }
+
+        // BigDecimal also accepts the digits of other scripts
+        if (!StringUtils.containsOnly(value, "0123456789+-.eE")) return "value '" + value + "' is not a number";
+
+        BigDecimal number;
+        try {
+            number = new BigDecimal(value);
+        }
+        catch (NumberFormatException e) {
+            return "value '" + value + "' is not a number";
+        }
+
+        if (minInclusive != null && number.compareTo(minInclusive) <  0) return "value '" + value + "' is less than "    + minInclusive;
+        if (maxInclusive != null && number.compareTo(maxInclusive) >  0) return "value '" + value + "' is more than "    + maxInclusive;
+        if (minExclusive != null && number.compareTo(minExclusive) <= 0) return "value '" + value + "' is not more than " + minExclusive;
+        if (maxExclusive != null && number.compareTo(maxExclusive) >= 0) return "value '" + value + "' is not less than " + maxExclusive;
+
+        if (totalDigits != null || fractionDigits != null) {
+            BigDecimal stripped = number.stripTrailingZeros();
+            int scale = Math.max(stripped.scale(), 0);
+
+            if (totalDigits    != null && stripped.precision() - Math.min(stripped.scale(), 0) > totalDigits) {
+                return "value '" + value + "' has more than " + totalDigits + " digits";
+            }
+            if (fractionDigits != null && scale > fractionDigits) {
+                return "value '" + value + "' has more than " + fractionDigits + " fraction digits";
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomebuilder.field;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Scanner;
+
+import org.apache.commons.lang3.StringUtils;
+import org.exolab.castor.types.AnyNode;
+import org.exolab.castor.xml.schema.Annotated;
+import org.exolab.castor.xml.schema.Annotation;
+import org.exolab.castor.xml.schema.AppInfo;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.XML;
+
+/**
+ * Immutable descriptor of the appinfo of a field declaration. It is created once together with the StringField,
+ * so the annotations of the model are searched and the dynamicForms values are parsed only once instead of every
+ * time the NgDynamicForms config is generated.
+ */
+final class FieldAppInfo {
+
+    /**
+     * Descriptor of a declaration without appinfo
+     */
+    static final FieldAppInfo EMPTY = new FieldAppInfo();
+
+    /**
+     * Parsed child element of the dynamicForms appinfo node
+     */
+    static final class DynamicFormsEntry {
+        final String name;
+        /** the trimmed text of the element */
+        final String text;
+
+        /** Boolean, BigDecimal, BigInteger or String, or JSONObject for 'additional' */
+        private final Object value;
+
+        private DynamicFormsEntry(AnyNode node) {
+            name = node.getLocalName();
+
+            if (name.equals("additional")) {
+                text  = null;
+                value = XML.toJSONObject(node.toString()).getJSONObject("additional");
+            }
+            else {
+                text  = node.getStringValue().trim();
+                value = parseValue(text);
+            }
+        }
+
+        /**
+         * @return the parsed value, JSONObject is copied because it is mutable
+         */
+        Object getValue() {
+            return value instanceof JSONObject ? copy(value) : value;
+        }
+    }
+
+    private final AnyNode                 listOfValues;
+    private final List<DynamicFormsEntry> dynamicForms;
+    private final String                  label;
+
+    private FieldAppInfo() {
+        listOfValues = null;
+        dynamicForms = Collections.emptyList();
+        label        = null;
+    }
+
+    /**
+     * @param model the declaration of the field
+     * @param name the name of the field used as a label unless dynamicForms specifies one
+     */
+    FieldAppInfo(Annotated model, String name) {
+        listOfValues = getAppInfoNode(model, "listOfValues");
+
+        List<DynamicFormsEntry> entries = new ArrayList<>();
+        AnyNode dynamicFormsNode = getAppInfoNode(model, "dynamicForms");
+
+        if (dynamicFormsNode != null) {
+            for (AnyNode child = dynamicFormsNode.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == AnyNode.ELEMENT) entries.add(new DynamicFormsEntry(child));
+            }
+        }
+
+        dynamicForms = Collections.unmodifiableList(entries);
+
+        String labelText = name;
+
+        for (DynamicFormsEntry entry : dynamicForms) {
+            if (entry.name.equals("label")) labelText = entry.text;
+        }
+
+        label = labelText == null ? null : splitCamelCase(labelText);
+    }
+
+    /**
+     * @param text the text to split, e.g. 'PatientDetails'
+     * @return the words of the text separated by space, e.g. 'Patient Details'
+     */
+    static String splitCamelCase(String text) {
+        return StringUtils.join(StringUtils.splitByCharacterTypeCamelCase(text), " ");
+    }
+
+    /**
+     * Finds the named element in the AppInfo node
+     * 
+     * @param model the schema model to search
+     * @param name the name of the element in the AppInfo node
+     * @return the AnyNode with the given name otherwise null
+     */
+    private static AnyNode getAppInfoNode(Annotated model, String name) {
+        Enumeration<Annotation> e = model.getAnnotations();
+        while (e.hasMoreElements()) {
+            Annotation note = e.nextElement();
+
+            for (Enumeration<AppInfo> f = note.getAppInfo(); f.hasMoreElements();) {
+                AppInfo thisAppInfo = f.nextElement();
+
+                for (Enumeration<?> g = thisAppInfo.getObjects(); g.hasMoreElements();) {
+                    AnyNode appInfoNode = (AnyNode) g.nextElement();
+
+                    if (appInfoNode.getNodeType() == AnyNode.ELEMENT && name.equals(appInfoNode.getLocalName())) {
+                        return appInfoNode;
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Converts the text of a dynamicForms element to boolean or number if possible
+     *
+     * @param value the trimmed text
+     * @return Boolean, BigDecimal, BigInteger or the original String
+     */
+    static Object parseValue(String value) {
+        try (Scanner scanner = new Scanner(value)) {
+            if      (scanner.hasNextBoolean())    return scanner.nextBoolean();
+            else if (scanner.hasNextBigDecimal()) return scanner.nextBigDecimal();
+            else if (scanner.hasNextBigInteger()) return scanner.nextBigInteger();
+            else                                  return value;
+        }
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            JSONObject copy   = new JSONObject();
+
+            for (String key : object.keySet()) copy.put(key, copy(object.get(key)));
+
+            return copy;
+        }
+        else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            JSONArray copy  = new JSONArray();
+
+            for (int i = 0; i < array.length(); i++) copy.put(copy(array.get(i)));
+
+            return copy;
+        }
+
+        return value;
+    }
+
+    /**
+     * @return the listOfValues node or null
+     */
+    AnyNode getListOfValues() {
+        return listOfValues;
+    }
+
+    /**
+     * @return the elements of the dynamicForms node in document order
+     */
+    List<DynamicFormsEntry> getDynamicForms() {
+        return dynamicForms;
+    }
+
+    /**
+     * @return the label of the field split at the camel case boundaries
+     */
+    String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomebuilder.field;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+
+import org.cristalise.kernel.persistency.outcomebuilder.OutcomeStructure;
+import org.cristalise.kernel.persistency.outcomebuilder.StructuralException;
+import org.exolab.castor.xml.schema.Annotated;
+import org.exolab.castor.xml.schema.AttributeDecl;
+import org.exolab.castor.xml.schema.ElementDecl;
+import org.exolab.castor.xml.schema.Facet;
+import org.exolab.castor.xml.schema.SimpleType;
+import org.exolab.castor.xml.schema.XMLType;
+import org.exolab.castor.xml.schema.simpletypes.ListType;
+
+/**
+ * Immutable descriptor of a field derived from its element or attribute declaration: the type, the appinfo, the label
+ * and the validator compiled from the facets. It does not contain any state of an Outcome, so the SchemaModel caches
+ * one instance per declaration, and the StringFields bound to the DOM are created by {@link #newField()}.
+ */
+public final class FieldModel {
+
+    /**
+     * The subclass of StringField used for the type of the declaration
+     */
+    private enum Kind { ARRAY, COMBO, BOOLEAN, INTEGER, DECIMAL, DATE, TIME, DATETIME, LONGSTRING, STRING }
+
+    final Annotated      decl;
+    final String         name;
+    final boolean        isAttribute;
+    final String         defaultValue;
+    final SimpleType     contentType;
+    final FieldAppInfo   appInfo;
+    final FacetValidator validator;
+    final boolean        exactValidation;
+    final String         label;
+
+    /**
+     * The simple type of the declaration as returned by {@link StringField#getFieldType(Annotated)}
+     */
+    private final SimpleType fieldType;
+    private final Kind       kind;
+
+    private FieldModel(Annotated decl, String name, boolean isAttribute, String defaultValue, SimpleType contentType) {
+        this.decl         = decl;
+        this.name         = name;
+        this.isAttribute  = isAttribute;
+        this.defaultValue = defaultValue;
+        this.contentType  = contentType;
+
+        fieldType       = StringField.getFieldType(decl);
+        appInfo         = new FieldAppInfo(decl, name);
+        kind            = getKind(fieldType, appInfo);
+        validator       = FacetValidator.compile(fieldType);
+        exactValidation = isExactlyValidated(decl, validator);
+
+        // the label was split at the CamelCase boundaries when the appinfo was read
+        label = appInfo.getLabel() != null ? appInfo.getLabel() : FieldAppInfo.splitCamelCase(name);
+    }
+
+    /**
+     * Creates the descriptor of the attribute, the reference is resolved
+     *
+     * @param model the declaration of the attribute
+     * @return the new descriptor
+     */
+    public static FieldModel getFieldModel(AttributeDecl model) {
+        if (model.isReference()) model = model.getReference();
+
+        return new FieldModel(model, model.getName(), true, model.getDefaultValue(), model.getSimpleType());
+    }
+
+    /**
+     * Creates the descriptor of the element, which must have a simple type or a simple content
+     *
+     * @param model the declaration of the element
+     * @return the new descriptor
+     * @throws StructuralException the element has no simple type
+     */
+    public static FieldModel getFieldModel(ElementDecl model) throws StructuralException {
+        try {
+            XMLType type = model.getType();
+
+            // derive base type
+            SimpleType contentType = (SimpleType) (type.isSimpleType() ? type : type.getBaseType());
+
+            if (contentType == null) throw new StructuralException("No declared base type of element");
+
+            return new FieldModel(model, model.getName(), false, model.getDefaultValue(), contentType);
+        }
+        catch (Exception ex) {
+            throw new StructuralException("No type defined in model");
+        }
+    }
+
+    private static Kind getKind(SimpleType type, FieldAppInfo appInfo) {
+        // handle lists special
+        if (type instanceof ListType) return Kind.ARRAY;
+
+        // is a combobox
+        if (type.hasFacet(Facet.ENUMERATION) || appInfo.getListOfValues() != null) return Kind.COMBO;
+
+        // find info on length before we go to the base type
+        long length = -1;
+        if      (type.getLength()    != null) length = type.getLength().longValue();
+        else if (type.getMaxLength() != null) length = type.getMaxLength().longValue();
+        else if (type.getMinLength() != null) length = type.getMinLength().longValue();
+
+        // find base type if derived
+        if (!type.isBuiltInType()) type = type.getBuiltInBaseType();
+
+        // derive the class from type
+        Class<?> contentClass = OutcomeStructure.getJavaClass(type.getTypeCode());
+
+        if      (contentClass.equals(Boolean.class))        return Kind.BOOLEAN;
+        else if (contentClass.equals(BigInteger.class))     return Kind.INTEGER;
+        else if (contentClass.equals(BigDecimal.class))     return Kind.DECIMAL;
+        else if (contentClass.equals(LocalDate.class))      return Kind.DATE;
+        else if (contentClass.equals(OffsetTime.class))     return Kind.TIME;
+        else if (contentClass.equals(OffsetDateTime.class)) return Kind.DATETIME;
+        else if (length > 60)                               return Kind.LONGSTRING;
+        else                                                return Kind.STRING;
+    }
+
+    /**
+     * The validator does not check the fixed value, nor the facets of a complex type restricting a simple content
+     */
+    private static boolean isExactlyValidated(Annotated model, FacetValidator validator) {
+        if (!validator.isExact()) return false;
+
+        if (model instanceof AttributeDecl) return ((AttributeDecl)model).getFixedValue() == null;
+
+        ElementDecl element = (ElementDecl)model;
+
+        if (element.getFixedValue() != null) return false;
+
+        for (XMLType type = element.getType(); !(type instanceof SimpleType); type = type.getBaseType()) {
+            if ("restriction".equals(type.getDerivationMethod())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates a new field of this declaration, which can be bound to a node of an Outcome
+     *
+     * @return the new field
+     */
+    public StringField newField() {
+        StringField newField;
+
+        switch (kind) {
+            case ARRAY:      newField = new ArrayField(fieldType.getBuiltInBaseType());      break;
+            case COMBO:      newField = new ComboField(fieldType, appInfo.getListOfValues()); break;
+            case BOOLEAN:    newField = new BooleanField();    break;
+            case INTEGER:    newField = new IntegerField();    break;
+            case DECIMAL:    newField = new DecimalField();    break;
+            case DATE:       newField = new DateField();       break;
+            case TIME:       newField = new TimeField();       break;
+            case DATETIME:   newField = new DateTimeField();   break;
+            case LONGSTRING: newField = new LongStringField(); break;
+            default:         newField = new StringField();     break;
+        }
+
+        newField.setFieldModel(this);
+        return newField;
+    }
+
+    public Annotated getDecl() {
+        return decl;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
@@ -20,11 +20,16 @@
  */
 package org.cristalise.kernel.persistency.outcomebuilder.field;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
 import org.cristalise.kernel.common.InvalidDataException;
@@ -40,16 +45,41 @@ import org.exolab.castor.xml.schema.Documentation;
 import org.exolab.castor.xml.schema.Facet;
 import org.exolab.castor.xml.schema.SimpleType;
 
-public class ListOfValues extends HashMap<String, Object> {
+/**
+ * Insertion ordered list of label/value pairs. Besides the key (label) to value lookup of the map, it keeps
+ * the index of the values, so {@link #findKey(String)} and {@link #containsValue(Object)} do not iterate the
+ * entries. Every modifying method of Map (e.g. putIfAbsent(), merge(), compute()) goes through put() and remove(),
+ * which maintain the index. Modifications done through the views (e.g. keySet().remove(), Entry.setValue())
+ * are not supported.
+ */
+public class ListOfValues extends LinkedHashMap<String, Object> {
     
     public enum AppInfoListTags {scriptRef, propertyNames, queryRef, inputName, values};
 
     private static final long serialVersionUID = -2718359690741674876L;
 
-    SimpleType        contentType;
-    AnyNode           listNode;
-    String            defaultKey  = null;
-    ArrayList<String> orderedKeys = new ArrayList<String>();
+    SimpleType contentType;
+    AnyNode    listNode;
+    String     defaultKey  = null;
+
+    /**
+     * The first key added with a value and the number of keys having that value
+     */
+    private static class ValueKeys implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        String firstKey;
+        int    count = 1;
+
+        ValueKeys(String key) {
+            firstKey = key;
+        }
+    }
+
+    /**
+     * Index of the values
+     */
+    private final HashMap<Object, ValueKeys> valueIndex = new HashMap<>();
 
     boolean editable = false;
 
@@ -64,13 +94,152 @@ public class ListOfValues extends HashMap<String, Object> {
     public String put(String key, Object value, boolean isDefaultKey) {
         if (isDefaultKey) defaultKey = key;
 
-        if (!orderedKeys.contains(key)) orderedKeys.add(key);
+        return (String) put(key, value);
+    }
+
+    /**
+     * Adds or replaces the value of the key. A replaced key keeps its original position.
+     */
+    @Override
+    public Object put(String key, Object value) {
+        Object oldValue = super.put(key, value);
+
+        if (oldValue != null) unindexValue(key, oldValue);
+        if (value    != null) indexValue(key, value);
 
-        return (String) super.put(key, value);
+        return oldValue;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> m) {
+        for (Map.Entry<? extends String, ? extends Object> entry : m.entrySet()) put(entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public Object remove(Object key) {
+        Object oldValue = super.remove(key);
+
+        if (oldValue != null) unindexValue((String) key, oldValue);
+
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        valueIndex.clear();
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (!containsKey(key) || !Objects.equals(get(key), value)) return false;
+
+        remove(key);
+        return true;
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        Object oldValue = get(key);
+
+        return oldValue == null ? put(key, value) : oldValue;
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        if (!containsKey(key) || !Objects.equals(get(key), oldValue)) return false;
+
+        put(key, newValue);
+        return true;
+    }
+
+    @Override
+    public Object replace(String key, Object value) {
+        return containsKey(key) ? put(key, value) : null;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ? extends Object> function) {
+        // the keys are copied, because updating the index could iterate the entries
+        for (String key : new ArrayList<>(keySet())) put(key, function.apply(key, get(key)));
+    }
+
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ? extends Object> mappingFunction) {
+        Object value = get(key);
+
+        if (value == null) {
+            value = mappingFunction.apply(key);
+            if (value != null) put(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+        Object oldValue = get(key);
+
+        return oldValue == null ? null : setOrRemove(key, remappingFunction.apply(key, oldValue));
+    }
+
+    @Override
+    public Object compute(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+        return setOrRemove(key, remappingFunction.apply(key, get(key)));
+    }
+
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction) {
+        Object oldValue = get(key);
+
+        return setOrRemove(key, oldValue == null ? value : remappingFunction.apply(oldValue, value));
+    }
+
+    /**
+     * Puts the new value computed for the key, or removes the key if the new value is null
+     */
+    private Object setOrRemove(String key, Object newValue) {
+        if (newValue == null) remove(key);
+        else                  put(key, newValue);
+
+        return newValue;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return valueIndex.containsKey(value);
+    }
+
+    private void indexValue(String key, Object value) {
+        ValueKeys keys = valueIndex.get(value);
+
+        if (keys == null) valueIndex.put(value, new ValueKeys(key));
+        else              keys.count++;
+    }
+
+    /**
+     * Removes the key of the value from the index. The entries are only iterated if the removed key was the first
+     * key of a value shared by other keys as well.
+     */
+    private void unindexValue(String key, Object value) {
+        ValueKeys keys = valueIndex.get(value);
+
+        if (keys == null) return;
+
+        if (--keys.count == 0) {
+            valueIndex.remove(value);
+        }
+        else if (key.equals(keys.firstKey)) {
+            for (Map.Entry<String, Object> entry : entrySet()) {
+                if (value.equals(entry.getValue())) {
+                    keys.firstKey = entry.getKey();
+                    return;
+                }
+            }
+        }
     }
 
     public String[] getKeyArray() {
-        return orderedKeys.toArray(new String[orderedKeys.size()]);
+        return keySet().toArray(new String[size()]);
     }
 
     public String getDefaultKey() {
@@ -81,11 +250,16 @@ public class ListOfValues extends HashMap<String, Object> {
         defaultKey = findKey(newDefaultVal);
     }
 
+    /**
+     * Returns the first key added with the given value
+     *
+     * @param value the value
+     * @return the key or null if no key has the value
+     */
     public String findKey(String value) {
-        for (String key : keySet()) {
-            if (get(key).equals(value)) return key;
-        }
-        return null;
+        ValueKeys keys = value == null ? null : valueIndex.get(value);
+
+        return keys == null ? null : keys.firstKey;
     }
 
     public Object getDefaultValue() {
@@ -128,7 +302,7 @@ public class ListOfValues extends HashMap<String, Object> {
             case inputName:     populateLOVFromInput(param, inputs); break;
             case propertyNames: populateLOVFromLookup(param, inputs); break;
             case queryRef:      populateLOVFromQuery(param, inputs); break; 
-            case scriptRef:     populateLOVFromScript(param, inputs); break;
+            case scriptRef:     populateLOVFromScript(param, LovScriptCache.isCacheable(lovNode), inputs); break;
             case values:        populateLOVFromValues(param); break;
 
             default:
@@ -245,8 +419,12 @@ public class ListOfValues extends HashMap<String, Object> {
         assert false;
     }
 
+    /**
+     * Populates the list from the result of the Script. The inputs are passed to the Script as parameters, and
+     * the result is taken from the {@link LovScriptCache} if the Script is cacheable.
+     */
     @SuppressWarnings("unchecked")
-    private void populateLOVFromScript(AnyNode scriptRefNode, Map<String, Object> inputs) {
+    private void populateLOVFromScript(AnyNode scriptRefNode, boolean cacheable, Map<String, Object> inputs) {
         if (scriptRefNode.getNodeType() != AnyNode.TEXT) {
             Logger.warning("ListOfValues.populateLOVFromScript() - AnyNode is not a TEXT");
             return;
@@ -259,13 +437,18 @@ public class ListOfValues extends HashMap<String, Object> {
                 Logger.error("populateLOVFromScript; Invalid LOVScript name: " + scriptRefNode.getStringValue());
                 throw new InvalidDataException("Invalid LOVScript name");
             }
-            Script script = LocalObjectLoader.getScript(scriptRefTokens[0], Integer.valueOf(scriptRefTokens[1]));
+            String  scriptName    = scriptRefTokens[0];
+            Integer scriptVersion = Integer.valueOf(scriptRefTokens[1]);
+
+            CastorHashMap params = new CastorHashMap();
+            if (inputs != null) params.putAll(inputs);
 
-            //TODO: set input parameters in the CastorHashMap
-            Map<? extends String, ? extends Object> result = (Map<? extends String, ? extends Object>) 
-                        script.evaluate(null, new CastorHashMap(), null, null);
+            Map<String, Object> result = LovScriptCache.getResult(scriptName, scriptVersion, params, cacheable, () -> {
+                Script script = LocalObjectLoader.getScript(scriptName, scriptVersion);
+                return (Map<String, Object>) script.evaluate(null, params, null, null);
+            });
 
-            extractValues((Map<String, Object>) result, false);
+            if (result != null) extractValues(result, false);
         }
         catch (NumberFormatException | ObjectNotFoundException | InvalidDataException | ScriptingEngineException e) {
             Logger.error(e);
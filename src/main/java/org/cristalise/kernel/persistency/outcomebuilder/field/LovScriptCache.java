@@ -0,0 +1,199 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomebuilder.field;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.cristalise.kernel.common.InvalidDataException;
+import org.cristalise.kernel.common.ObjectNotFoundException;
+import org.cristalise.kernel.persistency.cache.BoundedCache;
+import org.cristalise.kernel.persistency.cache.ExecutionStatistics;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.scripting.ScriptingEngineException;
+import org.cristalise.kernel.utils.Logger;
+import org.exolab.castor.types.AnyNode;
+
+/**
+ * Cache of the results of the Scripts populating ListOfValues, and the statistics of the executions of these Scripts.
+ * Only the results of the Scripts marked as cacheable in the appinfo are cached, e.g.
+ * <pre>{@code <scriptRef cacheable='true'>LovScript:0</scriptRef>}</pre>
+ * The results are cached by the name and version of the Script and by its parameters, i.e. the inputs
+ * of the ListOfValues.
+ */
+public class LovScriptCache {
+
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to override the default size (100) of the
+     * cache of Script results. Zero or negative value disables the cache.
+     */
+    public static final String CACHE_SIZE_CONFIGKEY = "ListOfValues.ScriptCacheSize";
+
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to override the default time in seconds (300)
+     * after a cached Script result expires. Zero or negative value means the results never expire.
+     */
+    public static final String CACHE_TTL_CONFIGKEY = "ListOfValues.ScriptCacheTTL";
+
+    private static volatile BoundedCache<Key, Map<String, Object>> cache;
+
+    private static final ExecutionStatistics statistics = new ExecutionStatistics("LovScript");
+
+    /**
+     * Execution of a Script returning the values of a ListOfValues
+     */
+    public interface ScriptExecution {
+        Map<String, Object> execute() throws ObjectNotFoundException, InvalidDataException, ScriptingEngineException;
+    }
+
+    /**
+     * Key of a Script result: the name and version of the Script and an immutable copy of its parameters
+     */
+    public static final class Key {
+        private final String              name;
+        private final int                 version;
+        private final Map<String, Object> params;
+
+        public Key(String name, int version, Map<String, Object> params) {
+            this.name    = name;
+            this.version = version;
+            this.params  = params == null ? Collections.<String, Object>emptyMap() : Collections.unmodifiableMap(new HashMap<>(params));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+
+            Key other = (Key) obj;
+            return version == other.version && Objects.equals(name, other.name) && params.equals(other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, version, params);
+        }
+
+        @Override
+        public String toString() {
+            return name + ":" + version + ":" + params;
+        }
+    }
+
+    private LovScriptCache() {}
+
+    /**
+     * Returns the cache of Script results, e.g. to read its counters
+     *
+     * @return the cache
+     */
+    public static BoundedCache<Key, Map<String, Object>> getCache() {
+        if (cache == null) {
+            synchronized (LovScriptCache.class) {
+                if (cache == null) {
+                    int  size = Gateway.getProperties().getInt(CACHE_SIZE_CONFIGKEY, 100);
+                    long ttl  = Gateway.getProperties().getInt(CACHE_TTL_CONFIGKEY,  300) * 1000L;
+
+                    cache = new BoundedCache<>("LovScriptResult", size, ttl);
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Drops the cache, so it is created again with the current configuration when it is used next time
+     */
+    public static void resetCache() {
+        synchronized (LovScriptCache.class) {
+            cache = null;
+        }
+    }
+
+    /**
+     * Checks the 'cacheable' attribute of the appinfo node of the Script
+     *
+     * @param lovNode the appinfo node, e.g. scriptRef
+     * @return true if the results of the Script can be cached
+     */
+    public static boolean isCacheable(AnyNode lovNode) {
+        for (AnyNode attr = lovNode.getFirstAttribute(); attr != null; attr = attr.getNextSibling()) {
+            if ("cacheable".equals(attr.getLocalName())) return Boolean.parseBoolean(attr.getStringValue().trim());
+        }
+        return false;
+    }
+
+    /**
+     * Returns the result of the Script. The result of a cacheable Script is taken from the cache if available,
+     * otherwise the Script is executed and its result is added to the cache. A Script which is not cacheable
+     * is executed on every call and its result is never added to the cache. The result is unmodifiable,
+     * because the cached instance is shared by all callers.
+     *
+     * @param name the name of the Script
+     * @param version the version of the Script
+     * @param params the input parameters of the Script
+     * @param cacheable whether the result of the Script can be cached
+     * @param execution executes the Script
+     * @return the result of the Script
+     * @throws ObjectNotFoundException the Script was not found
+     * @throws InvalidDataException the Script could not be loaded
+     * @throws ScriptingEngineException the Script failed
+     */
+    public static Map<String, Object> getResult(String name, int version, Map<String, Object> params, boolean cacheable, ScriptExecution execution)
+            throws ObjectNotFoundException, InvalidDataException, ScriptingEngineException {
+        Key key = new Key(name, version, params);
+        Map<String, Object> result = cacheable ? getCache().get(key) : null;
+
+        if (result == null) {
+            long start = System.nanoTime();
+            result = execution.execute();
+            recordExecution(key, System.nanoTime() - start);
+
+            if (result != null) {
+                result = Collections.unmodifiableMap(result);
+                if (cacheable) getCache().put(key, result);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Records the duration of a Script execution
+     *
+     * @param key the key of the Script result
+     * @param nanos the duration of the execution in nanoseconds
+     */
+    static void recordExecution(Key key, long nanos) {
+        statistics.record(nanos);
+
+        Logger.msg(5, "LovScriptCache.recordExecution() - script:%s executed in %d ms", key, nanos / 1000000);
+    }
+
+    /**
+     * @return the statistics of the Script executions
+     */
+    public static ExecutionStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -20,32 +20,20 @@
  */
 package org.cristalise.kernel.persistency.outcomebuilder.field;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.time.LocalDate;
-import java.time.OffsetDateTime;
-import java.time.OffsetTime;
-import java.util.Enumeration;
 import java.util.Map;
-import java.util.Scanner;
 
-import org.apache.commons.lang3.StringUtils;
 import org.cristalise.kernel.persistency.outcomebuilder.InvalidOutcomeException;
-import org.cristalise.kernel.persistency.outcomebuilder.OutcomeStructure;
 import org.cristalise.kernel.persistency.outcomebuilder.StructuralException;
-import org.exolab.castor.types.AnyNode;
+import org.cristalise.kernel.persistency.outcomebuilder.field.FieldAppInfo.DynamicFormsEntry;
+import org.cristalise.kernel.utils.Logger;
 import org.exolab.castor.xml.schema.Annotated;
-import org.exolab.castor.xml.schema.Annotation;
-import org.exolab.castor.xml.schema.AppInfo;
 import org.exolab.castor.xml.schema.AttributeDecl;
 import org.exolab.castor.xml.schema.ElementDecl;
 import org.exolab.castor.xml.schema.Facet;
 import org.exolab.castor.xml.schema.SimpleType;
 import org.exolab.castor.xml.schema.Structure;
 import org.exolab.castor.xml.schema.XMLType;
-import org.exolab.castor.xml.schema.simpletypes.ListType;
 import org.json.JSONObject;
-import org.json.XML;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
@@ -63,6 +51,11 @@ public class StringField {
     SimpleType contentType;
     String     text;
     String     defaultValue;
+
+    FieldAppInfo   appInfo   = FieldAppInfo.EMPTY;
+    FacetValidator validator = FacetValidator.EMPTY;
+    boolean        exactValidation = true;
+    String         label;
     
     public StringField() {}
 
@@ -86,90 +79,30 @@ public class StringField {
         return null;
     }
     
-    /**
-     * Finds the named element in the AppInfo node
-     * 
-     * @param model the schema model to search
-     * @param name the name of the element in the AppInfo node
-     * @return the AnyNode with the given name otherwise null
-     */
-    private static AnyNode getAppInfoNode(Annotated  model, String name) {
-        Enumeration<Annotation> e = model.getAnnotations();
-        while (e.hasMoreElements()) {
-            Annotation note = e.nextElement();
-
-            for (Enumeration<AppInfo> f = note.getAppInfo(); f.hasMoreElements();) {
-                AppInfo thisAppInfo = f.nextElement();
-
-                for (Enumeration<?> g = thisAppInfo.getObjects(); g.hasMoreElements();) {
-                    AnyNode appInfoNode = (AnyNode) g.nextElement();
-
-                    if (appInfoNode.getNodeType() == AnyNode.ELEMENT && name.equals(appInfoNode.getLocalName())) {
-                        return appInfoNode;
-                    }
-                }
-            }
-        }
-
-        return null;
-    }
-
-    /**
-     * 
-     * @param model
-     * @return
-     */
-    private static StringField getFieldForType(Annotated  model) {
-        SimpleType type = getFieldType(model);
-
-        // handle lists special
-        if (type instanceof ListType) return new ArrayField(type.getBuiltInBaseType());
-
-        // is a combobox
-        AnyNode appInfoNode = getAppInfoNode(model, "listOfValues");
-        if (type.hasFacet(Facet.ENUMERATION) || appInfoNode != null) return new ComboField(type, appInfoNode);
-
-        // find info on length before we go to the base type
-        long length = -1;
-        if      (type.getLength()    != null) length = type.getLength().longValue();
-        else if (type.getMaxLength() != null) length = type.getMaxLength().longValue();
-        else if (type.getMinLength() != null) length = type.getMinLength().longValue();
-
-        // find base type if derived
-        if (!type.isBuiltInType()) type = type.getBuiltInBaseType();
-
-        // derive the class from type
-        Class<?> contentClass = OutcomeStructure.getJavaClass(type.getTypeCode());
-
-        if      (contentClass.equals(Boolean.class))        return new BooleanField();
-        else if (contentClass.equals(BigInteger.class))     return new IntegerField();
-        else if (contentClass.equals(BigDecimal.class))     return new DecimalField();
-        else if (contentClass.equals(LocalDate.class))      return new DateField();
-        else if (contentClass.equals(OffsetTime.class))     return new TimeField();
-        else if (contentClass.equals(OffsetDateTime.class)) return new DateTimeField();
-        else if (length > 60)                               return new LongStringField();
-        else                                                return new StringField();
-    }
-
     public static StringField getField(AttributeDecl model) throws StructuralException {
-        if (model.isReference()) model = model.getReference();
-
-        StringField newField = getFieldForType(model);
-        newField.setDecl(model);
-
-        return newField;
+        return FieldModel.getFieldModel(model).newField();
     }
 
     public static StringField getField(ElementDecl model) throws StructuralException {
-        try {
-            StringField newField = getFieldForType(model);
+        return FieldModel.getFieldModel(model).newField();
+    }
 
-            newField.setDecl(model);
-            return newField;
-        }
-        catch (Exception ex) {
-            throw new StructuralException("No type defined in model");
-        }
+    /**
+     * Attaches the descriptor of the declaration, i.e. the appinfo, the label and the validator compiled from the
+     * facets, which are shared by all fields created for the same declaration
+     *
+     * @param fieldModel the descriptor of the declaration
+     */
+    void setFieldModel(FieldModel fieldModel) {
+        this.model           = fieldModel.decl;
+        this.name            = fieldModel.name;
+        this.defaultValue    = fieldModel.defaultValue;
+        this.contentType     = fieldModel.contentType;
+        this.isAttribute     = fieldModel.isAttribute;
+        this.appInfo         = fieldModel.appInfo;
+        this.validator       = fieldModel.validator;
+        this.exactValidation = fieldModel.exactValidation;
+        this.label           = fieldModel.label;
     }
 
     public void setDecl(AttributeDecl attrModel) throws StructuralException {
@@ -213,6 +146,48 @@ public class StringField {
         if (data == null) throw new InvalidOutcomeException("TextNode for '"+name+ "' does not exists");
         setText(newData);
         updateNode();
+
+        String error = validate();
+        if (error != null) Logger.warning("StringField.setData() - field:"+name+" "+error);
+    }
+
+    /**
+     * Checks the actual value against the facets of the type (pattern, enumeration, length and range facets),
+     * i.e. without validating the whole document. 
+     * 
+     * @return the description of the violated facet, or null if the value is valid
+     */
+    public String validate() {
+        String error = validate(getText());
+        isValid = error == null;
+        return error;
+    }
+
+    /**
+     * Checks the given value against the facets of the type of this field
+     * 
+     * @param value the value to check, e.g. read from the Outcome
+     * @return the description of the violated facet, or null if the value is valid
+     */
+    public String validate(String value) {
+        return validator.validate(value);
+    }
+
+    /**
+     * Returns true if {@link #validate(String)} accepts exactly the values accepted by the Schema validation,
+     * otherwise the value can only be checked by validating the whole Outcome.
+     * 
+     * @return true if the value of the field can be validated on its own
+     */
+    public boolean isExactlyValidated() {
+        return exactValidation;
+    }
+
+    /**
+     * @return the result of the last {@link #validate()}
+     */
+    public boolean isValid() {
+        return isValid;
     }
 
     /**
@@ -314,25 +289,15 @@ public class StringField {
         return fieldCls;
     }
 
-    private void setAppInfoDynamicFormsJsonValue(AnyNode node, JSONObject json) {
-        String name  = node.getLocalName();
+    private void setAppInfoDynamicFormsJsonValue(DynamicFormsEntry entry, JSONObject json) {
+        if (entry.name.equals("value")) {
+            String value = getValue(entry.text);
 
-        if (name.equals("additional")) {
-            json.put("additional", XML.toJSONObject(node.toString()).getJSONObject("additional"));
+            // only parse the value again if the field has replaced the template (e.g. 'now' of DateField)
+            json.put(entry.name, value.equals(entry.text) ? entry.getValue() : FieldAppInfo.parseValue(value));
         }
         else {
-            String value = node.getStringValue().trim();
-
-            if (name.equals("value")) value = getValue(value);
-
-            Scanner scanner = new Scanner(value);
-
-            if      (scanner.hasNextBoolean())    json.put(name, scanner.nextBoolean());
-            else if (scanner.hasNextBigDecimal()) json.put(name, scanner.nextBigDecimal());
-            else if (scanner.hasNextBigInteger()) json.put(name, scanner.nextBigInteger());
-            else                                  json.put(name, value);
-
-            scanner.close();
+            json.put(entry.name, entry.getValue());
         }
     }
     
@@ -354,18 +319,21 @@ public class StringField {
     }
 
     private void readAppInfoDynamicForms(JSONObject json) {
-        AnyNode appInfoNode = getAppInfoNode(model, "dynamicForms");
-        if (appInfoNode != null) {
-            AnyNode child = appInfoNode.getFirstChild(); //stupid API, there is no getChildren
-
-            if (child != null) {
-                if (child.getNodeType() == AnyNode.ELEMENT) setAppInfoDynamicFormsJsonValue(child, json);
+        for (DynamicFormsEntry entry : appInfo.getDynamicForms()) setAppInfoDynamicFormsJsonValue(entry, json);
+    }
 
-                for (child = child.getNextSibling(); child != null; child = child.getNextSibling()) {
-                    if (child.getNodeType() == AnyNode.ELEMENT) setAppInfoDynamicFormsJsonValue(child, json);
-                }
-            }
+    /**
+     * Checks if the NgDynamicForms config of this field can be cached, i.e. it does not depend on the inputs
+     * nor on the time of the generation like the 'now' value of DateField
+     *
+     * @return true if the config can be cached
+     */
+    public boolean isNgDynamicFormsCacheable() {
+        for (DynamicFormsEntry entry : appInfo.getDynamicForms()) {
+            if (entry.name.equals("value") && !entry.text.equals(getValue(entry.text))) return false;
         }
+
+        return true;
     }
 
     public JSONObject getCommonFieldsNgDynamicForms() {
@@ -393,10 +361,9 @@ public class StringField {
         //This can overwrite values set earlier, for example 'type' can be changed from INPUT to RATING
         readAppInfoDynamicForms(field);
 
-        // appinfo/dynamicForms could have updated label, so do the CamelCase splitting now
-        String label = StringUtils.join(StringUtils.splitByCharacterTypeCamelCase((String)field.get("label")), " ");
-        label.replaceAll(" *", " ");
- 
+        // the label was split at the CamelCase boundaries when the appinfo was read
+        String label = this.label != null ? this.label : FieldAppInfo.splitCamelCase(name);
+
         boolean required = (Boolean)field.get("required");
 
         field.put("label",       label + (required ? " *": ""));
@@ -0,0 +1,245 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomeinit;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.xmlbeans.SchemaType;
+import org.apache.xmlbeans.SchemaTypeSystem;
+import org.cristalise.kernel.common.InvalidDataException;
+import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.utils.Logger;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Holds a compiled SchemaTypeSystem together with the index of its global elements and the
+ * sample xml generated for these elements. Instances can be shared between threads and they take no lock once the
+ * samples are generated: the SchemaTypeSystem and the sample xml are immutable, and the content of the sample DOM is
+ * recorded once and replayed into a new Document for each caller, because DOM implementations are not thread-safe
+ * even for reading, so a shared template Document could only be cloned under a lock. Nothing is bound to the
+ * calling thread, so the samples are reused by platform and virtual threads alike.
+ */
+public class CompiledSchema {
+
+    /**
+     * The sample generated for a root element, and the value of SimpleType.DefaultValues property used to generate it.
+     * The xml and the recorded DOM content are generated independently when they are first requested.
+     */
+    private static class Sample {
+        final String            defaultValues;
+        volatile String         xml;
+        volatile RecordedSample dom;
+
+        Sample(String defaultValues) {
+            this.defaultValues = defaultValues;
+        }
+    }
+
+    private final SchemaTypeSystem        typeSystem;
+    private final Map<String, SchemaType> rootElements;
+
+    private final SampleXmlUtil.Generator generator;
+
+    private final ConcurrentHashMap<String, Sample> samples = new ConcurrentHashMap<>();
+
+    public CompiledSchema(SchemaTypeSystem sts) throws InvalidDataException {
+        this(sts, SampleXmlUtil.Generator.XMLCURSOR);
+    }
+
+    /**
+     * @param sts the compiled SchemaTypeSystem
+     * @param generator the generator used to create the sample xml
+     * @throws InvalidDataException Schema has no global elements
+     */
+    public CompiledSchema(SchemaTypeSystem sts, SampleXmlUtil.Generator generator) throws InvalidDataException {
+        SchemaType[] globalElems = sts.documentTypes();
+
+        if (globalElems == null) throw new InvalidDataException("Schema has no global elements.");
+
+        Map<String, SchemaType> roots = new LinkedHashMap<>();
+
+        for (SchemaType elem : globalElems) roots.put(elem.getDocumentElementName().getLocalPart(), elem);
+
+        typeSystem     = sts;
+        rootElements   = Collections.unmodifiableMap(roots);
+        this.generator = generator;
+    }
+
+    public SchemaTypeSystem getTypeSystem() {
+        return typeSystem;
+    }
+
+    /**
+     * Return the root element
+     *
+     * @param rootName the name of the global element, can be null if the Schema has a single global element
+     * @return SchemaType of the root element
+     * @throws InvalidDataException root element could not be identified
+     */
+    public SchemaType getRootElement(String rootName) throws InvalidDataException {
+        if (rootName == null) {
+            Logger.msg(5, "CompiledSchema.getRootElement() - rootName is null, taking the root from Schema");
+
+            if (rootElements.size() != 1) throw ambiguousRoot();
+
+            return rootElements.values().iterator().next();
+        }
+        else {
+            Logger.msg(5, "CompiledSchema.getRootElement() - rootName:"+rootName);
+
+            SchemaType elem = rootElements.get(rootName);
+
+            if (elem == null) throw rootNotFound(rootName);
+
+            return elem;
+        }
+    }
+
+    /**
+     * Return the root element by scanning the global elements of the SchemaTypeSystem, i.e. without indexing them
+     * like the instances of this class do. Use it when the SchemaTypeSystem is only used once.
+     *
+     * @param rootName the name of the global element, can be null if the Schema has a single global element
+     * @param sts the compiled SchemaTypeSystem
+     * @return SchemaType of the root element
+     * @throws InvalidDataException root element could not be identified
+     */
+    public static SchemaType getRootElement(String rootName, SchemaTypeSystem sts) throws InvalidDataException {
+        SchemaType[] globalElems = sts.documentTypes();
+
+        if (globalElems == null) throw new InvalidDataException("Schema has no global elements.");
+
+        if (rootName == null) {
+            if (globalElems.length != 1) throw ambiguousRoot();
+
+            return globalElems[0];
+        }
+
+        for (SchemaType elem : globalElems) {
+            if (rootName.equals(elem.getDocumentElementName().getLocalPart())) return elem;
+        }
+
+        throw rootNotFound(rootName);
+    }
+
+    private static InvalidDataException ambiguousRoot() {
+        return new InvalidDataException("Ambiguious root: Schema has more than one global elements");
+    }
+
+    private static InvalidDataException rootNotFound(String rootName) {
+        Logger.error("Could not find a global element with name '" + rootName + "'");
+        return new InvalidDataException("Could not find a global element with name '" + rootName + "'");
+    }
+
+    /**
+     * Returns the sample of the given root element. A new sample is created if the SimpleType.DefaultValues
+     * property has changed since.
+     * 
+     * @param rootElement the root element returned by {@link #getRootElement(String)}
+     * @return the sample
+     */
+    private Sample getSample(SchemaType rootElement) {
+        String rootName      = rootElement.getDocumentElementName().getLocalPart();
+        String defaultValues = SampleXmlUtil.getSimpleTypeDefaultValues();
+        Sample sample        = samples.get(rootName);
+
+        if (sample == null || !sample.defaultValues.equals(defaultValues)) {
+            Sample newSample = new Sample(defaultValues);
+
+            // keep the sample of a concurrent thread if it was created with the same property value
+            sample = samples.merge(rootName, newSample, (old, v) -> old.defaultValues.equals(defaultValues) ? old : v);
+        }
+
+        return sample;
+    }
+
+    /**
+     * Returns the sample xml generated for the given root element. The xml is generated only once, unless the
+     * SimpleType.DefaultValues property has changed since.
+     * 
+     * @param rootElement the root element returned by {@link #getRootElement(String)}
+     * @return the sample xml
+     */
+    public String getSampleXml(SchemaType rootElement) {
+        Sample sample = getSample(rootElement);
+
+        if (sample.xml == null) {
+            Logger.msg(5, "CompiledSchema.getSampleXml() - generating xml for root:%s", rootElement.getDocumentElementName());
+            sample.xml = SampleXmlUtil.createSampleForType(rootElement, generator);
+        }
+
+        return sample.xml;
+    }
+
+    /**
+     * Returns a new DOM of the sample generated for the given root element. The sample is generated only once
+     * and directly from the SchemaType, unless the SimpleType.DefaultValues property has changed since, then its
+     * recorded content is replayed into a new Document for each call.
+     * 
+     * @param rootElement the root element returned by {@link #getRootElement(String)}
+     * @return the new Document which can be modified by the caller
+     * @throws InvalidDataException the Document could not be created
+     */
+    public Document getSampleDocument(SchemaType rootElement) throws InvalidDataException {
+        Sample         sample   = getSample(rootElement);
+        RecordedSample recorded = sample.dom;
+        Document       doc      = newDocument();
+
+        if (recorded == null) {
+            Logger.msg(5, "CompiledSchema.getSampleDocument() - generating DOM for root:%s", rootElement.getDocumentElementName());
+
+            // concurrent threads could record the same sample, but all of them have the same content
+            sample.dom = SampleXmlUtil.recordSampleDocument(rootElement, doc);
+        }
+        else {
+            recorded.replay(new DomSampleSink(doc));
+        }
+
+        return doc;
+    }
+
+    /**
+     * Builds the DOM of the sample directly from the SchemaType, i.e. without creating and parsing the xml string
+     * 
+     * @param rootElement the root element returned by {@link #getRootElement(String)}
+     * @return the new Document
+     * @throws InvalidDataException the empty Document could not be created
+     */
+    public static Document createSampleDocument(SchemaType rootElement) throws InvalidDataException {
+        return SampleXmlUtil.createSampleDocument(rootElement, newDocument());
+    }
+
+    private static Document newDocument() throws InvalidDataException {
+        try {
+            return Outcome.parse((InputSource) null);
+        }
+        catch (SAXException | IOException e) {
+            Logger.error(e);
+            throw new InvalidDataException(e.getMessage());
+        }
+    }
+}
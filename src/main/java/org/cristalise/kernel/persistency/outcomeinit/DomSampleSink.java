@@ -0,0 +1,97 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomeinit;
+
+import javax.xml.namespace.QName;
+
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Builds the sample xml directly as W3C DOM nodes, so no serialization and parsing is needed to create an Outcome.
+ * Ignorable whitespace is not added to the DOM.
+ */
+class DomSampleSink implements SampleXmlSink {
+
+    private final Document doc;
+    private Node           current;
+    private int            prefixCount = 0;
+
+    /**
+     * @param doc the Document to add the sample to
+     */
+    DomSampleSink(Document doc) {
+        this.doc     = doc;
+        this.current = doc;
+    }
+
+    @Override
+    public void startElement(QName name) {
+        Element newElement = doc.createElementNS(StringUtils.defaultIfEmpty(name.getNamespaceURI(), null), name.getLocalPart());
+
+        current.appendChild(newElement);
+        current = newElement;
+    }
+
+    @Override
+    public void attribute(QName name, String value) {
+        Element element = (Element) current;
+        String  ns      = name.getNamespaceURI();
+
+        if (StringUtils.isEmpty(ns)) {
+            element.setAttributeNS(null, name.getLocalPart(), value);
+        }
+        else {
+            String prefix = element.lookupPrefix(ns);
+
+            if (prefix == null) {
+                prefix = "ns" + (++prefixCount);
+                element.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:" + prefix, ns);
+            }
+            element.setAttributeNS(ns, prefix + ":" + name.getLocalPart(), value);
+        }
+    }
+
+    @Override
+    public void characters(String text) {
+        // same as XmlCursor.insertChars(), empty text does not create content
+        if (StringUtils.isEmpty(text)) return;
+
+        current.appendChild(doc.createTextNode(text));
+    }
+
+    @Override
+    public void comment(String text) {
+        current.appendChild(doc.createComment(text));
+    }
+
+    @Override
+    public void endElement() {
+        current = current.getParentNode();
+    }
+
+    @Override
+    public String prefixForNamespace(String namespaceURI) {
+        return current.lookupPrefix(namespaceURI);
+    }
+}
@@ -21,7 +21,18 @@
 package org.cristalise.kernel.persistency.outcomeinit;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.xmlbeans.SchemaType;
 import org.apache.xmlbeans.SchemaTypeSystem;
@@ -32,13 +43,22 @@ import org.apache.xmlbeans.impl.xb.xsdschema.SchemaDocument;
 import org.cristalise.kernel.common.InvalidDataException;
 import org.cristalise.kernel.common.ObjectNotFoundException;
 import org.cristalise.kernel.entity.agent.Job;
+import org.cristalise.kernel.persistency.cache.BoundedCache;
+import org.cristalise.kernel.persistency.cache.SchemaKey;
 import org.cristalise.kernel.persistency.outcome.Outcome;
 import org.cristalise.kernel.persistency.outcome.OutcomeInitiator;
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.utils.Logger;
+import org.w3c.dom.Document;
 
 /**
  * OutcomeInitiator implementation creating an 'empty' Outcome from XML a Schema.
  * It is based on Apache XMLBeans.
+ * <p>
+ * Instances are thread-safe, so a single instance can serve all the Jobs of a server. The compiled Schemas are
+ * shared through a lock-free cache, each Schema is compiled only once even if many threads request it at the same
+ * time, and every call works on its own copy of the sample Document.
  */
 public class EmptyOutcomeInitiator implements OutcomeInitiator {
 
@@ -48,6 +68,69 @@ public class EmptyOutcomeInitiator implements OutcomeInitiator {
      */
     public static final String ROOTNAME_PROPNAME = "SchemaRootElementName";
 
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to override the default size (100) of the
+     * cache of compiled SchemaTypeSystems. Zero or negative value disables the cache.
+     */
+    public static final String SCHEMA_CACHE_SIZE_CONFIGKEY = "EmptyOutcomeInitiator.SchemaCacheSize";
+
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to select the generator of the sample xml.
+     * Possible values are XMLCURSOR (default) and STAX, see {@link SampleXmlUtil.Generator}.
+     */
+    public static final String SAMPLE_GENERATOR_CONFIGKEY = "EmptyOutcomeInitiator.SampleGenerator";
+
+    private final BoundedCache<String, CompiledSchema> schemaCache;
+    private final SampleXmlUtil.Generator              sampleGenerator;
+
+    /**
+     * The compilations in progress, so concurrent requests of the same Schema wait for a single compilation
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<CompiledSchema>> compilations = new ConcurrentHashMap<>();
+
+    private volatile Executor executor;
+
+    public EmptyOutcomeInitiator() {
+        schemaCache = new BoundedCache<>("SchemaTypeSystem", Gateway.getProperties().getInt(SCHEMA_CACHE_SIZE_CONFIGKEY, 100));
+
+        sampleGenerator = readSampleGenerator();
+    }
+
+    private static SampleXmlUtil.Generator readSampleGenerator() {
+        String generator = Gateway.getProperties().getString(SAMPLE_GENERATOR_CONFIGKEY, SampleXmlUtil.Generator.XMLCURSOR.name());
+
+        try {
+            return SampleXmlUtil.Generator.valueOf(generator.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e) {
+            Logger.warning("EmptyOutcomeInitiator - invalid " + SAMPLE_GENERATOR_CONFIGKEY + ":'" + generator + "', using XMLCURSOR");
+            return SampleXmlUtil.Generator.XMLCURSOR;
+        }
+    }
+
+    public SampleXmlUtil.Generator getSampleGenerator() {
+        return sampleGenerator;
+    }
+
+    /**
+     * Returns the Executor of the asynchronous methods
+     *
+     * @return the Executor set by {@link #setExecutor(Executor)} or the default of {@link OutcomeInitiatorExecutor}
+     */
+    public Executor getExecutor() {
+        Executor e = executor;
+        return e != null ? e : OutcomeInitiatorExecutor.getDefaultExecutor();
+    }
+
+    /**
+     * Sets the Executor of the asynchronous methods of this instance
+     *
+     * @param executor the Executor, null means the default of {@link OutcomeInitiatorExecutor}
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
     /**
      * Created the option required by XML Beans, 
      * 
@@ -72,39 +155,84 @@ public class EmptyOutcomeInitiator implements OutcomeInitiator {
      * @throws InvalidDataException
      */
     protected static SchemaType getRootElement(String rootName, SchemaTypeSystem sts) throws InvalidDataException {
-        SchemaType[] globalElems = sts.documentTypes();
-        
-        if (globalElems == null) throw new InvalidDataException("Schema has no global elements.");
+        return CompiledSchema.getRootElement(rootName, sts);
+    }
 
-        if(rootName == null) {
-            Logger.msg(5, "EmptyOutcomeInitiator.getRootElement() - rootName is null, taking the root from Schema");
+    /**
+     * Returns the compiled SchemaTypeSystem of the Schema. It is taken from the cache if available,
+     * otherwise the XSD is compiled and the result is added to the cache. Concurrent requests of the same Schema
+     * wait for the thread compiling it, and all of them receive its result or its error.
+     * 
+     * @param schema the Schema
+     * @return the compiled Schema
+     * @throws InvalidDataException Schema could not be compiled
+     */
+    protected CompiledSchema getCompiledSchema(Schema schema) throws InvalidDataException {
+        String key = SchemaKey.getSchemaKey(schema);
+        CompiledSchema compiled = schemaCache.get(key);
 
-            if (globalElems.length != 1) throw new InvalidDataException("Ambiguious root: Schema has more than one global elements");
+        if (compiled != null) return compiled;
 
-            return globalElems[0];
-        }
-        else {
-            Logger.msg(5, "EmptyOutcomeInitiator.getRootElement() - rootName:"+rootName);
+        CompletableFuture<CompiledSchema> newCompilation = new CompletableFuture<>();
+        CompletableFuture<CompiledSchema> compilation    = compilations.putIfAbsent(key, newCompilation);
 
-            SchemaType elem = null;
-            boolean found = false;
+        if (compilation != null) return waitForCompilation(compilation);
 
-            for (int i = 0; i < globalElems.length && !found; i++) {
-                if (rootName.equals(globalElems[i].getDocumentElementName().getLocalPart())) {
-                    elem = globalElems[i];
-                    found = true;
-                }
-            }
+        try {
+            // the previous compilation could have finished since the lookup
+            compiled = schemaCache.peek(key);
+
+            if (compiled == null) {
+                Logger.msg(5, "EmptyOutcomeInitiator.getCompiledSchema() - compiling schema:%s", key);
 
-            if (!found) {
-                Logger.error("Could not find a global element with name '" + rootName + "'");
-                throw new InvalidDataException("Could not find a global element with name '" + rootName + "'");
+                compiled = new CompiledSchema(getSchemaTypeSystem(schema.getSchemaData()), sampleGenerator);
+                schemaCache.put(key, compiled);
             }
 
-            return elem;
+            newCompilation.complete(compiled);
+            return compiled;
+        }
+        catch (InvalidDataException | RuntimeException | Error e) {
+            newCompilation.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            // the result is in the cache before the compilation is removed, so no thread compiles the Schema again
+            compilations.remove(key, newCompilation);
+        }
+    }
+
+    /**
+     * Waits for the compilation done by another thread and rethrows its error
+     */
+    private static CompiledSchema waitForCompilation(CompletableFuture<CompiledSchema> compilation) throws InvalidDataException {
+        try {
+            return compilation.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvalidDataException("Interrupted while waiting for the compilation of the Schema");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof InvalidDataException) throw (InvalidDataException) cause;
+            if (cause instanceof RuntimeException)     throw (RuntimeException) cause;
+            if (cause instanceof Error)                throw (Error) cause;
+
+            throw new InvalidDataException(cause.getMessage());
         }
     }
-    
+
+    /**
+     * Returns the cache of the compiled SchemaTypeSystems, e.g. to read its counters
+     * 
+     * @return the cache
+     */
+    public BoundedCache<String, CompiledSchema> getSchemaCache() {
+        return schemaCache;
+    }
+
     /**
      * 
      * @param xsd the input Schema
@@ -156,7 +284,34 @@ public class EmptyOutcomeInitiator implements OutcomeInitiator {
      * @throws InvalidDataException
      */
     protected String getXMLString(String rootName, String xsd) throws InvalidDataException {
-        return SampleXmlUtil.createSampleForType( getRootElement(rootName, getSchemaTypeSystem(xsd)) );
+        return SampleXmlUtil.createSampleForType( getRootElement(rootName, getSchemaTypeSystem(xsd)), sampleGenerator );
+    }
+
+    /**
+     * Returns the sample xml of the Schema. The xml is generated only once for each Schema and root element.
+     * 
+     * @param rootName the name of the root element, can be null
+     * @param schema the Schema
+     * @return the generated sample xml
+     * @throws InvalidDataException
+     */
+    protected String getXMLString(String rootName, Schema schema) throws InvalidDataException {
+        CompiledSchema compiled = getCompiledSchema(schema);
+        return compiled.getSampleXml( compiled.getRootElement(rootName) );
+    }
+
+    /**
+     * Returns a copy of the DOM of the sample of the Schema. The DOM is built directly from the Schema, i.e.
+     * without xml serialization and parsing, only once for each Schema and root element.
+     * 
+     * @param rootName the name of the root element, can be null
+     * @param schema the Schema
+     * @return the new Document
+     * @throws InvalidDataException
+     */
+    protected Document getXMLDocument(String rootName, Schema schema) throws InvalidDataException {
+        CompiledSchema compiled = getCompiledSchema(schema);
+        return compiled.getSampleDocument( compiled.getRootElement(rootName) );
     }
 
     /**
@@ -165,7 +320,7 @@ public class EmptyOutcomeInitiator implements OutcomeInitiator {
     @Override
     public String initOutcome(Job job) throws InvalidDataException {
         try {
-            return getXMLString( job.getActPropString(ROOTNAME_PROPNAME), job.getSchema().getSchemaData() );
+            return getXMLString( job.getActPropString(ROOTNAME_PROPNAME), job.getSchema() );
         }
         catch (ObjectNotFoundException e) {
             Logger.error(e);
@@ -179,12 +334,195 @@ public class EmptyOutcomeInitiator implements OutcomeInitiator {
     @Override
     public Outcome initOutcomeInstance(Job job) throws InvalidDataException {
         try {
-            String xml = getXMLString( job.getActPropString(ROOTNAME_PROPNAME), job.getSchema().getSchemaData() );
-            return new Outcome(-1, xml, job.getSchema());
+            Document dom = getXMLDocument( job.getActPropString(ROOTNAME_PROPNAME), job.getSchema() );
+            return completeOutcome(new Outcome(-1, dom, job.getSchema()), job);
         }
         catch (ObjectNotFoundException e) {
             Logger.error(e);
             throw new InvalidDataException(e.getMessage());
         }
     }
+
+    /**
+     * Updates the empty Outcome created from the sample of the Schema with the data of the Job. It is called by
+     * {@link #initOutcomeInstance(Job)} and {@link #initOutcomeInstances(Collection)}, this implementation does nothing.
+     *
+     * @param outcome the empty Outcome, which is not shared with other Jobs
+     * @param job the Job
+     * @return the completed Outcome
+     * @throws InvalidDataException the Outcome could not be updated
+     */
+    protected Outcome completeOutcome(Outcome outcome, Job job) throws InvalidDataException {
+        return outcome;
+    }
+
+    /**
+     * Initiates the Outcomes of many Jobs. The Jobs are grouped by their Schema and root element, which are
+     * resolved only once for each group, then the Outcomes are created and completed in parallel using the
+     * Executor of this instance. The calling thread executes the initiations rejected by a saturated Executor,
+     * and after submitting all of them it also executes the ones which were not started by the Executor yet.
+     * It only waits for the initiations already running on other threads, so the method completes even if it is
+     * called from a thread of the same saturated Executor. The failure of a Job does not affect the others,
+     * its exception is returned in its result.
+     *
+     * @param jobs the Jobs
+     * @return the results in the order of the Jobs
+     */
+    public List<InitiationResult> initOutcomeInstances(Collection<Job> jobs) {
+        List<Job>          jobList = new ArrayList<>(jobs);
+        InitiationResult[] results = new InitiationResult[jobList.size()];
+
+        // computing the key of the Schema hashes the XSD, so do it only once for each Schema instance
+        Map<Schema, String>        schemaKeys = new IdentityHashMap<>();
+        Map<String, List<Integer>> groups     = new LinkedHashMap<>();
+
+        for (int i = 0; i < jobList.size(); i++) {
+            Job job = jobList.get(i);
+
+            try {
+                Schema schema = job.getSchema();
+                String key = schemaKeys.get(schema);
+
+                if (key == null) {
+                    key = SchemaKey.getSchemaKey(schema);
+                    schemaKeys.put(schema, key);
+                }
+
+                groups.computeIfAbsent(key + "/" + job.getActPropString(ROOTNAME_PROPNAME), k -> new ArrayList<>()).add(i);
+            }
+            catch (Exception e) {
+                Logger.error(e);
+                results[i] = InitiationResult.failure(job, e);
+            }
+        }
+
+        Executor exec = getExecutor();
+        List<BatchTask> tasks = new ArrayList<>();
+
+        for (List<Integer> group : groups.values()) {
+            Job first = jobList.get(group.get(0));
+
+            Schema         schema;
+            CompiledSchema compiled;
+            SchemaType     rootElement;
+
+            try {
+                schema      = first.getSchema();
+                compiled    = getCompiledSchema(schema);
+                rootElement = compiled.getRootElement(first.getActPropString(ROOTNAME_PROPNAME));
+            }
+            catch (Exception e) {
+                Logger.error(e);
+                for (int i : group) results[i] = InitiationResult.failure(jobList.get(i), e);
+                continue;
+            }
+
+            Logger.msg(5, "EmptyOutcomeInitiator.initOutcomeInstances() - schema:%s jobs:%d", schema.getName(), group.size());
+
+            for (int i : group) {
+                Job job = jobList.get(i);
+                BatchTask task = new BatchTask(() -> results[i] = initOutcomeInstance(job, schema, compiled, rootElement));
+                tasks.add(task);
+
+                try {
+                    exec.execute(task);
+                }
+                catch (RejectedExecutionException e) {
+                    task.run();
+                }
+            }
+        }
+
+        // the tasks still waiting in the queue of the Executor are not waited for, e.g. behind the calling thread
+        for (BatchTask task : tasks) task.run();
+
+        // the tasks do not throw exceptions
+        for (BatchTask task : tasks) task.done.join();
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Initiation of a Job of a batch, which is executed once, either by the Executor or by the calling thread,
+     * whichever claims it first
+     */
+    private static class BatchTask implements Runnable {
+        final AtomicBoolean           claimed = new AtomicBoolean();
+        final CompletableFuture<Void> done    = new CompletableFuture<>();
+        final Runnable                initiation;
+
+        BatchTask(Runnable initiation) {
+            this.initiation = initiation;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) return;
+
+            try {
+                initiation.run();
+            }
+            finally {
+                done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Initiates the Outcome of a Job of a batch using the already resolved Schema and root element
+     */
+    private InitiationResult initOutcomeInstance(Job job, Schema schema, CompiledSchema compiled, SchemaType rootElement) {
+        try {
+            Outcome outcome = new Outcome(-1, compiled.getSampleDocument(rootElement), schema);
+            return InitiationResult.success(job, completeOutcome(outcome, job));
+        }
+        catch (Exception e) {
+            Logger.error(e);
+            return InitiationResult.failure(job, e);
+        }
+    }
+
+    /**
+     * Executes {@link #initOutcomeInstance(Job)} using the Executor of this instance
+     *
+     * @param job the Job
+     * @return the future Outcome
+     * @see #initOutcomeInstanceAsync(Job, Executor)
+     */
+    public CompletableFuture<Outcome> initOutcomeInstanceAsync(Job job) {
+        return initOutcomeInstanceAsync(job, getExecutor());
+    }
+
+    /**
+     * Executes {@link #initOutcomeInstance(Job)} using the given Executor, so the calling thread is not blocked.
+     * The future completes exceptionally with the InvalidDataException of the initiation, or with the
+     * RejectedExecutionException if the Executor is saturated. The initiation is skipped if the future was
+     * already completed when its execution starts, e.g. the caller cancelled it after a deadline.
+     *
+     * @param job the Job
+     * @param exec the Executor
+     * @return the future Outcome
+     */
+    public CompletableFuture<Outcome> initOutcomeInstanceAsync(Job job, Executor exec) {
+        CompletableFuture<Outcome> future = new CompletableFuture<>();
+
+        try {
+            exec.execute(() -> {
+                if (future.isDone()) return;
+
+                try {
+                    future.complete(initOutcomeInstance(job));
+                }
+                catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            Logger.warning("EmptyOutcomeInitiator.initOutcomeInstanceAsync() - " + e.getMessage());
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
 }
@@ -0,0 +1,77 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomeinit;
+
+import org.cristalise.kernel.entity.agent.Job;
+import org.cristalise.kernel.persistency.outcome.Outcome;
+
+/**
+ * The result of the initiation of the Outcome of a single Job in a batch, see
+ * {@link EmptyOutcomeInitiator#initOutcomeInstances(java.util.Collection)}. It contains either the Outcome
+ * or the exception thrown while it was initiated.
+ */
+public class InitiationResult {
+
+    private final Job       job;
+    private final Outcome   outcome;
+    private final Exception error;
+
+    private InitiationResult(Job job, Outcome outcome, Exception error) {
+        this.job     = job;
+        this.outcome = outcome;
+        this.error   = error;
+    }
+
+    public static InitiationResult success(Job job, Outcome outcome) {
+        return new InitiationResult(job, outcome, null);
+    }
+
+    public static InitiationResult failure(Job job, Exception error) {
+        return new InitiationResult(job, null, error);
+    }
+
+    public Job getJob() {
+        return job;
+    }
+
+    /**
+     * @return the initiated Outcome or null if the initiation failed
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return the exception thrown by the initiation or null if it was successful
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "InitiationResult[job:" + job + (isSuccessful() ? " successful]" : " error:" + error.getMessage() + "]");
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomeinit;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.Logger;
+
+/**
+ * Creates the Executor used by the asynchronous methods of the OutcomeInitiators, e.g.
+ * {@link EmptyOutcomeInitiator#initOutcomeInstanceAsync(org.cristalise.kernel.entity.agent.Job)}.
+ * The default Executor is created on first request and it is shared by all instances.
+ */
+public class OutcomeInitiatorExecutor {
+
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to select the type of the default Executor.
+     * Possible values are PLATFORM (default) and VIRTUAL, see {@link Type}.
+     */
+    public static final String TYPE_CONFIGKEY = "OutcomeInitiatorExecutor.Type";
+
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to override the default number of threads
+     * (number of available processors) of the PLATFORM Executor
+     */
+    public static final String POOL_SIZE_CONFIGKEY = "OutcomeInitiatorExecutor.PoolSize";
+
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to override the default number (1000) of
+     * initiations waiting for a thread of the PLATFORM Executor. Further requests are rejected.
+     */
+    public static final String QUEUE_SIZE_CONFIGKEY = "OutcomeInitiatorExecutor.QueueSize";
+
+    public enum Type {
+        /**
+         * Bounded pool of daemon platform threads with a bounded queue
+         */
+        PLATFORM,
+        /**
+         * A new virtual thread for each initiation. It requires JDK 21 or later, otherwise PLATFORM is used.
+         * The caches of the initiators are not bound to threads, so virtual threads reuse them like the platform
+         * threads do. The initiation itself is CPU bound, therefore this type does not give more throughput than
+         * PLATFORM; it only avoids the bounded queue, i.e. requests are never rejected.
+         */
+        VIRTUAL
+    }
+
+    private static volatile Executor defaultExecutor;
+
+    private OutcomeInitiatorExecutor() {}
+
+    /**
+     * Returns the Executor shared by all OutcomeInitiators, which is configured by the CRISTAL Properties
+     *
+     * @return the default Executor
+     */
+    public static Executor getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            synchronized (OutcomeInitiatorExecutor.class) {
+                if (defaultExecutor == null) {
+                    defaultExecutor = create(
+                            readType(),
+                            Gateway.getProperties().getInt(POOL_SIZE_CONFIGKEY, Runtime.getRuntime().availableProcessors()),
+                            Gateway.getProperties().getInt(QUEUE_SIZE_CONFIGKEY, 1000));
+                }
+            }
+        }
+        return defaultExecutor;
+    }
+
+    private static Type readType() {
+        String type = Gateway.getProperties().getString(TYPE_CONFIGKEY, Type.PLATFORM.name());
+
+        try {
+            return Type.valueOf(type.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e) {
+            Logger.warning("OutcomeInitiatorExecutor - invalid " + TYPE_CONFIGKEY + ":'" + type + "', using PLATFORM");
+            return Type.PLATFORM;
+        }
+    }
+
+    /**
+     * Creates a new Executor
+     *
+     * @param type the type of the Executor
+     * @param poolSize the number of threads of the PLATFORM Executor
+     * @param queueSize the number of initiations waiting for a thread of the PLATFORM Executor
+     * @return the new Executor
+     */
+    public static Executor create(Type type, int poolSize, int queueSize) {
+        if (type == Type.VIRTUAL) {
+            Executor virtual = createVirtualThreadExecutor();
+
+            if (virtual != null) return virtual;
+
+            Logger.warning("OutcomeInitiatorExecutor - virtual threads are not supported by this JVM, using PLATFORM");
+        }
+
+        return createPlatformExecutor(poolSize, queueSize);
+    }
+
+    /**
+     * Creates a pool of daemon threads, which are stopped when they are idle for a minute
+     *
+     * @param poolSize the number of threads
+     * @param queueSize the number of tasks waiting for a thread
+     * @return the new Executor
+     */
+    public static ThreadPoolExecutor createPlatformExecutor(int poolSize, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+
+        ThreadFactory factory = runnable -> {
+            Thread t = new Thread(runnable, "OutcomeInitiator-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                Math.max(1, poolSize), Math.max(1, poolSize), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(1, queueSize)), factory, new ThreadPoolExecutor.AbortPolicy());
+
+        pool.allowCoreThreadTimeOut(true);
+
+        return pool;
+    }
+
+    /**
+     * Calls Executors.newVirtualThreadPerTaskExecutor() by reflection, because the module is compiled for Java 8
+     *
+     * @return the new Executor or null if the JVM does not support virtual threads
+     */
+    private static Executor createVirtualThreadExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            Logger.msg(5, "OutcomeInitiatorExecutor.createVirtualThreadExecutor() - %s", e.toString());
+            return null;
+        }
+    }
+}
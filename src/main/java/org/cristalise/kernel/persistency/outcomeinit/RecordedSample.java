@@ -0,0 +1,130 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomeinit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+/**
+ * The content of a sample xml recorded once, so it can be replayed to any number of sinks without generating the
+ * sample again. Instances are immutable, therefore many threads can replay the same sample at the same time without
+ * taking any lock.
+ */
+final class RecordedSample {
+
+    private enum EventType { START_ELEMENT, ATTRIBUTE, CHARACTERS, COMMENT, END_ELEMENT }
+
+    private static final class Event {
+        final EventType type;
+        final QName     name;
+        final String    text;
+
+        Event(EventType type, QName name, String text) {
+            this.type = type;
+            this.name = name;
+            this.text = text;
+        }
+    }
+
+    private final List<Event> events;
+
+    private RecordedSample(List<Event> events) {
+        this.events = Collections.unmodifiableList(new ArrayList<>(events));
+    }
+
+    /**
+     * Sends the recorded content to the sink in the same order as it was generated
+     *
+     * @param sink the sink receiving the content
+     */
+    void replay(SampleXmlSink sink) {
+        for (Event e : events) {
+            switch (e.type) {
+                case START_ELEMENT: sink.startElement(e.name);         break;
+                case ATTRIBUTE:     sink.attribute(e.name, e.text);    break;
+                case CHARACTERS:    sink.characters(e.text);           break;
+                case COMMENT:       sink.comment(e.text);              break;
+                case END_ELEMENT:   sink.endElement();                 break;
+            }
+        }
+    }
+
+    /**
+     * Records the content sent to the delegate sink, which also resolves the prefixes of the namespaces
+     */
+    static final class Recorder implements SampleXmlSink {
+
+        private final SampleXmlSink delegate;
+        private final List<Event>   events = new ArrayList<>();
+
+        /**
+         * @param delegate the sink receiving the content while it is recorded
+         */
+        Recorder(SampleXmlSink delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void startElement(QName name) {
+            events.add(new Event(EventType.START_ELEMENT, name, null));
+            delegate.startElement(name);
+        }
+
+        @Override
+        public void attribute(QName name, String value) {
+            events.add(new Event(EventType.ATTRIBUTE, name, value));
+            delegate.attribute(name, value);
+        }
+
+        @Override
+        public void characters(String text) {
+            events.add(new Event(EventType.CHARACTERS, null, text));
+            delegate.characters(text);
+        }
+
+        @Override
+        public void comment(String text) {
+            events.add(new Event(EventType.COMMENT, null, text));
+            delegate.comment(text);
+        }
+
+        @Override
+        public void endElement() {
+            events.add(new Event(EventType.END_ELEMENT, null, null));
+            delegate.endElement();
+        }
+
+        @Override
+        public String prefixForNamespace(String namespaceURI) {
+            return delegate.prefixForNamespace(namespaceURI);
+        }
+
+        /**
+         * @return the content recorded so far
+         */
+        RecordedSample getSample() {
+            return new RecordedSample(events);
+        }
+    }
+}
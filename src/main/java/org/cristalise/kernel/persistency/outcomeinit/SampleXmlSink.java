@@ -0,0 +1,48 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomeinit;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Receives the content of the sample xml generated by {@link SampleXmlUtil} in document order.
+ * Attributes are always reported right after the start of their element.
+ */
+interface SampleXmlSink {
+
+    public void startElement(QName name);
+
+    public void attribute(QName name, String value);
+
+    public void characters(String text);
+
+    public void comment(String text);
+
+    public void endElement();
+
+    /**
+     * Returns the prefix bound to the namespace in the scope of the current element
+     *
+     * @param namespaceURI the namespace
+     * @return the prefix or null if the namespace is not bound
+     */
+    public String prefixForNamespace(String namespaceURI);
+}
@@ -31,11 +31,17 @@ package org.cristalise.kernel.persistency.outcomeinit;
  *  Add the pattern facet; this is tricky, considering the relationship with length
  */
 
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.*;
 
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.xmlbeans.*;
@@ -44,32 +50,101 @@ import org.apache.xmlbeans.impl.util.HexBin;
 import org.apache.xmlbeans.soap.SOAPArrayType;
 import org.apache.xmlbeans.soap.SchemaWSDLArrayType;
 import org.cristalise.kernel.process.Gateway;
+import org.w3c.dom.Document;
 
+/**
+ * Generates sample xml for a SchemaType. Instances keep the state of a single generation (_typeStack, _picker,
+ * _nElements), therefore the static methods create a new instance for each call and never share it, i.e. the
+ * static methods are thread-safe. The generation is deterministic, because _picker always uses the same seed.
+ */
 public class SampleXmlUtil
 {
     private boolean _soapEnc;
     private static final int MAX_ELEMENTS = 1000;
     private int _nElements;
-    private static final String SIMPLE_TYPE_DEFAULT_VALUES = "SimpleType.DefaultValues";
+    public static final String SIMPLE_TYPE_DEFAULT_VALUES = "SimpleType.DefaultValues";
     private static final String DEFAULT_VALUE_SEPARATOR = ",";
     private static final String MAP_VALUE_SEPARATOR = ":";
     private Map<String, String> simpleTypeDefaults = new HashMap<>();
     private SampleXmlUtil(boolean soapEnc)
     {
         _soapEnc = soapEnc;
-        String propertyValues = Gateway.getProperties().getString(SIMPLE_TYPE_DEFAULT_VALUES, "");
-        simpleTypeDefaults = loadMapValues(propertyValues);
+        simpleTypeDefaults = loadMapValues(getSimpleTypeDefaultValues());
+    }
+
+    /**
+     * Returns the actual value of the SimpleType.DefaultValues property used to generate the sample xml
+     */
+    public static String getSimpleTypeDefaultValues()
+    {
+        return Gateway.getProperties().getString(SIMPLE_TYPE_DEFAULT_VALUES, "");
+    }
+
+    /**
+     * Generators available to create the sample xml
+     */
+    public enum Generator
+    {
+        /**
+         * Builds an XmlObject using XmlCursor and serializes it with XmlBeans (original implementation)
+         */
+        XMLCURSOR,
+        /**
+         * Writes the xml directly to an XMLStreamWriter without building an intermediate XmlBeans store
+         */
+        STAX
+    }
+
+    /**
+     * Adds the sample xml to the given Document as W3C DOM nodes, without the String serialization of the
+     * XmlBeans store and without parsing. The Document shall be empty.
+     */
+    public static Document createSampleDocument(SchemaType sType, Document doc)
+    {
+        new SampleXmlUtil(false).createSampleForType(sType, new DomSampleSink(doc));
+        return doc;
+    }
+
+    /**
+     * Adds the sample xml to the given empty Document like {@link #createSampleDocument(SchemaType, Document)},
+     * and records it, so the same sample can be added to other Documents without generating it again.
+     */
+    static RecordedSample recordSampleDocument(SchemaType sType, Document doc)
+    {
+        RecordedSample.Recorder recorder = new RecordedSample.Recorder(new DomSampleSink(doc));
+        new SampleXmlUtil(false).createSampleForType(sType, recorder);
+        return recorder.getSample();
     }
 
     public static String createSampleForType(SchemaType sType)
     {
+        return createSampleForType(sType, Generator.XMLCURSOR);
+    }
+
+    public static String createSampleForType(SchemaType sType, Generator generator)
+    {
+        if (generator == Generator.STAX)
+        {
+            StringWriter writer = new StringWriter();
+            try
+            {
+                createSampleForType(sType, writer);
+            }
+            catch (XMLStreamException e)
+            {
+                throw new XmlRuntimeException(e);
+            }
+            return writer.toString();
+        }
+
         XmlObject object = XmlObject.Factory.newInstance();
         XmlCursor cursor = object.newCursor();
         // Skip the document node
         cursor.toNextToken();
         // Using the type and the cursor, call the utility method to get a
         // sample XML payload for that Schema element
-        new SampleXmlUtil(false).createSampleForType(sType, cursor);
+        new SampleXmlUtil(false).createSampleForType(sType, new XmlCursorSampleSink(cursor));
+        cursor.dispose();
         // Cursor now contains the sample payload
         // Pretty print the result.  Note that the cursor is positioned at the
         // end of the doc so we use the original xml object that the cursor was
@@ -82,6 +157,51 @@ public class SampleXmlUtil
         return result;
     }
 
+    /**
+     * Writes the pretty printed sample xml to the Writer without the xml declaration
+     */
+    public static void createSampleForType(SchemaType sType, Writer writer) throws XMLStreamException
+    {
+        XMLStreamWriter xsw = XMLOutputFactory.newInstance().createXMLStreamWriter(writer);
+        createSampleForType(sType, xsw, true);
+        xsw.flush();
+    }
+
+    /**
+     * Writes the pretty printed sample xml to the OutputStream using UTF-8 encoding
+     */
+    public static void createSampleForType(SchemaType sType, OutputStream out) throws XMLStreamException
+    {
+        XMLStreamWriter xsw = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        xsw.writeStartDocument("UTF-8", "1.0");
+        xsw.writeCharacters("\n");
+        createSampleForType(sType, xsw, true);
+        xsw.writeEndDocument();
+        xsw.flush();
+    }
+
+    /**
+     * Writes the sample xml to the XMLStreamWriter. The writer is not closed and start/end document
+     * is not written, so the sample can be embedded in a larger document.
+     */
+    public static void createSampleForType(SchemaType sType, XMLStreamWriter writer) throws XMLStreamException
+    {
+        createSampleForType(sType, writer, false);
+    }
+
+    private static void createSampleForType(SchemaType sType, XMLStreamWriter writer, boolean indent) throws XMLStreamException
+    {
+        try
+        {
+            new SampleXmlUtil(false).createSampleForType(sType, new StaxSampleSink(writer, indent));
+        }
+        catch (XmlRuntimeException e)
+        {
+            if (e.getCause() instanceof XMLStreamException) throw (XMLStreamException) e.getCause();
+            throw e;
+        }
+    }
+
     Random _picker = new Random(1);
 
     /**
@@ -91,7 +211,7 @@ public class SampleXmlUtil
      * After:
      * <theElement><lots of stuff/>^</theElement>
      */
-    private void createSampleForType(SchemaType stype, XmlCursor xmlc)
+    private void createSampleForType(SchemaType stype, SampleXmlSink sink)
     {
         if (_typeStack.contains( stype ))
             return;
@@ -102,13 +222,13 @@ public class SampleXmlUtil
         {
             if (stype.isSimpleType() || stype.isURType())
             {
-                processSimpleType(stype, xmlc);
+                processSimpleType(stype, sink);
                 return;
             }
 
             // complex Type
             // <theElement>^</theElement>
-            processAttributes(stype, xmlc);
+            processAttributes(stype, sink);
 
             // <theElement attri1="string">^</theElement>
             switch (stype.getContentType())
@@ -119,21 +239,21 @@ public class SampleXmlUtil
                     break;
                 case SchemaType.SIMPLE_CONTENT :
                 {
-                    processSimpleType(stype, xmlc);
+                    processSimpleType(stype, sink);
                 }
                 break;
                 case SchemaType.MIXED_CONTENT :
-                    xmlc.insertChars(pick(WORDS) + " ");
+                    sink.characters(pick(WORDS) + " ");
                     if (stype.getContentModel() != null)
                     {
-                        processParticle(stype.getContentModel(), xmlc, true);
+                        processParticle(stype.getContentModel(), sink, true);
                     }
-                    xmlc.insertChars(pick(WORDS));
+                    sink.characters(pick(WORDS));
                     break;
                 case SchemaType.ELEMENT_CONTENT :
                     if (stype.getContentModel() != null)
                     {
-                        processParticle(stype.getContentModel(), xmlc, false);
+                        processParticle(stype.getContentModel(), sink, false);
                     }
                     break;
             }
@@ -144,10 +264,10 @@ public class SampleXmlUtil
         }
     }
 
-    private void processSimpleType(SchemaType stype, XmlCursor xmlc)
+    private void processSimpleType(SchemaType stype, SampleXmlSink sink)
     {
         String sample = sampleDataForSimpleType(stype);
-        xmlc.insertChars(sample);
+        sink.characters(sample);
     }
 
     private String sampleDataForSimpleType(SchemaType sType)
@@ -918,28 +1038,28 @@ public class SampleXmlUtil
      * After this call:
      * <<outer><foo/><bar/>som text<etc/>^</outer>
      */
-    private void processParticle(SchemaParticle sp, XmlCursor xmlc, boolean mixed)
+    private void processParticle(SchemaParticle sp, SampleXmlSink sink, boolean mixed)
     {
-        int loop = determineMinMaxForSample(sp, xmlc);
+        int loop = determineMinMaxForSample(sp, sink);
 
         while (loop-- > 0)
         {
             switch (sp.getParticleType())
             {
                 case (SchemaParticle.ELEMENT) :
-                    processElement(sp, xmlc, mixed);
+                    processElement(sp, sink, mixed);
                     break;
                 case (SchemaParticle.SEQUENCE) :
-                    processSequence(sp, xmlc, mixed);
+                    processSequence(sp, sink, mixed);
                     break;
                 case (SchemaParticle.CHOICE) :
-                    processChoice(sp, xmlc, mixed);
+                    processChoice(sp, sink, mixed);
                     break;
                 case (SchemaParticle.ALL) :
-                    processAll(sp, xmlc, mixed);
+                    processAll(sp, sink, mixed);
                     break;
                 case (SchemaParticle.WILDCARD) :
-                    processWildCard(sp, xmlc, mixed);
+                    processWildCard(sp, sink, mixed);
                     break;
                 default :
                     // throw new Exception("No Match on Schema Particle Type: " + String.valueOf(sp.getParticleType()));
@@ -947,7 +1067,7 @@ public class SampleXmlUtil
         }
     }
 
-    private int determineMinMaxForSample(SchemaParticle sp, XmlCursor xmlc)
+    private int determineMinMaxForSample(SchemaParticle sp, SampleXmlSink sink)
     {
         int minOccurs = sp.getIntMinOccurs();
         int maxOccurs = sp.getIntMaxOccurs();
@@ -966,19 +1086,19 @@ public class SampleXmlUtil
 
         if (sp.getMaxOccurs() == null)
         {
-            // xmlc.insertComment("The next " + getItemNameOrType(sp, xmlc) + " may be repeated " + minOccurs + " or more times");
+            // sink.comment("The next " + getItemNameOrType(sp, sink) + " may be repeated " + minOccurs + " or more times");
             if (minOccurs == 0)
-                xmlc.insertComment("Zero or more repetitions:");
+                sink.comment("Zero or more repetitions:");
             else
-                xmlc.insertComment(minOccurs + " or more repetitions:");
+                sink.comment(minOccurs + " or more repetitions:");
         }
         else if (sp.getIntMaxOccurs() > 1)
         {
-            xmlc.insertComment(minOccurs + " to " + String.valueOf(sp.getMaxOccurs()) + " repetitions:");
+            sink.comment(minOccurs + " to " + String.valueOf(sp.getMaxOccurs()) + " repetitions:");
         }
         else
         {
-            xmlc.insertComment("Optional:");
+            sink.comment("Optional:");
         }
         return result;
     }
@@ -986,7 +1106,7 @@ public class SampleXmlUtil
     /*
      Return a name for the element or the particle type to use in the comment for minoccurs, max occurs
     */
-    private String getItemNameOrType(SchemaParticle sp, XmlCursor xmlc)
+    private String getItemNameOrType(SchemaParticle sp, SampleXmlSink sink)
     {
         String elementOrTypeName = null;
         if (sp.getParticleType() == SchemaParticle.ELEMENT)
@@ -1000,47 +1120,26 @@ public class SampleXmlUtil
         return elementOrTypeName;
     }
 
-    private void processElement(SchemaParticle sp, XmlCursor xmlc, boolean mixed)
+    private void processElement(SchemaParticle sp, SampleXmlSink sink, boolean mixed)
     {
         // cast as schema local element
         SchemaLocalElement element = (SchemaLocalElement) sp;
-        /// ^  -> <elemenname></elem>^
+        /// ^  -> <elem>^
         if (_soapEnc)
-            xmlc.insertElement(element.getName().getLocalPart()); // soap encoded? drop namespaces.
+            sink.startElement(new QName(element.getName().getLocalPart())); // soap encoded? drop namespaces.
         else
-            xmlc.insertElement(element.getName().getLocalPart(), element.getName().getNamespaceURI());
+            sink.startElement(element.getName());
         _nElements++;
-        /// -> <elem>^</elem>
-        xmlc.toPrevToken();
-        // -> <elem>stuff^</elem>
+        // -> <elem>stuff^
 
-        createSampleForType(element.getType(), xmlc);
+        createSampleForType(element.getType(), sink);
         // -> <elem>stuff</elem>^
-        xmlc.toNextToken();
-
-    }
-
-    private void moveToken(int numToMove, XmlCursor xmlc)
-    {
-        for (int i = 0; i < Math.abs(numToMove); i++)
-        {
-            if (numToMove < 0)
-            {
-                xmlc.toPrevToken();
-            }
-            else
-            {
-                xmlc.toNextToken();
-            }
-        }
+        sink.endElement();
     }
 
-    private static final String formatQName(XmlCursor xmlc, QName qName)
+    private static final String formatQName(SampleXmlSink sink, QName qName)
     {
-        XmlCursor parent = xmlc.newCursor();
-        parent.toParent();
-        String prefix = parent.prefixForNamespace(qName.getNamespaceURI());
-        parent.dispose();
+        String prefix = sink.prefixForNamespace(qName.getNamespaceURI());
         String name;
         if (prefix == null || prefix.length() == 0)
             name = qName.getLocalPart();
@@ -1056,14 +1155,14 @@ public class SampleXmlUtil
     private static final QName ENC_OFFSET = new QName("http://schemas.xmlsoap.org/soap/encoding/", "offset");
 
     private static final Set SKIPPED_SOAP_ATTRS = new HashSet(Arrays.asList(new QName[] { HREF, ID, ENC_OFFSET}));
-    private void processAttributes(SchemaType stype, XmlCursor xmlc)
+    private void processAttributes(SchemaType stype, SampleXmlSink sink)
     {
         if (_soapEnc)
         {
             QName typeName = stype.getName();
             if (typeName != null)
             {
-                xmlc.insertAttributeWithValue(XSI_TYPE, formatQName(xmlc, typeName));
+                sink.attribute(XSI_TYPE, formatQName(sink, typeName));
             }
         }
 
@@ -1079,55 +1178,55 @@ public class SampleXmlUtil
                 {
                     SOAPArrayType arrayType = ((SchemaWSDLArrayType)stype.getAttributeModel().getAttribute(attr.getName())).getWSDLArrayType();
                     if (arrayType != null)
-                        xmlc.insertAttributeWithValue(attr.getName(), formatQName(xmlc, arrayType.getQName()) + arrayType.soap11DimensionString());
+                        sink.attribute(attr.getName(), formatQName(sink, arrayType.getQName()) + arrayType.soap11DimensionString());
                     continue;
                 }
             }
             String defaultValue = attr.getDefaultText();
-            xmlc.insertAttributeWithValue(attr.getName(), defaultValue == null ?
+            sink.attribute(attr.getName(), defaultValue == null ?
                     sampleDataForSimpleType(attr.getType()) : defaultValue);
         }
     }
 
-    private void processSequence(SchemaParticle sp, XmlCursor xmlc, boolean mixed)
+    private void processSequence(SchemaParticle sp, SampleXmlSink sink, boolean mixed)
     {
         SchemaParticle[] spc = sp.getParticleChildren();
         for (int i=0; i < spc.length; i++)
         {
             /// <parent>maybestuff^</parent>
-            processParticle(spc[i], xmlc, mixed);
+            processParticle(spc[i], sink, mixed);
             //<parent>maybestuff...morestuff^</parent>
             if (mixed && i < spc.length-1)
-                xmlc.insertChars(pick(WORDS));
+                sink.characters(pick(WORDS));
         }
     }
 
-    private void processChoice(SchemaParticle sp, XmlCursor xmlc, boolean mixed)
+    private void processChoice(SchemaParticle sp, SampleXmlSink sink, boolean mixed)
     {
         SchemaParticle[] spc = sp.getParticleChildren();
-        xmlc.insertComment("You have a CHOICE of the next " + String.valueOf(spc.length) + " items at this level");
+        sink.comment("You have a CHOICE of the next " + String.valueOf(spc.length) + " items at this level");
         for (int i=0; i < spc.length; i++)
         {
-            processParticle(spc[i], xmlc, mixed);
+            processParticle(spc[i], sink, mixed);
         }
     }
 
-    private void processAll(SchemaParticle sp, XmlCursor xmlc, boolean mixed)
+    private void processAll(SchemaParticle sp, SampleXmlSink sink, boolean mixed)
     {
         SchemaParticle[] spc = sp.getParticleChildren();
-        // xmlc.insertComment("You may enter the following " + String.valueOf(spc.length) + " items in any order");
+        // sink.comment("You may enter the following " + String.valueOf(spc.length) + " items in any order");
         for (int i=0; i < spc.length; i++)
         {
-            processParticle(spc[i], xmlc, mixed);
+            processParticle(spc[i], sink, mixed);
             if (mixed && i < spc.length-1)
-                xmlc.insertChars(pick(WORDS));
+                sink.characters(pick(WORDS));
         }
     }
 
-    private void processWildCard(SchemaParticle sp, XmlCursor xmlc, boolean mixed)
+    private void processWildCard(SchemaParticle sp, SampleXmlSink sink, boolean mixed)
     {
-        xmlc.insertComment("You may enter ANY elements at this point");
-        //xmlc.insertElement("AnyElement");
+        sink.comment("You may enter ANY elements at this point");
+        //sink.insertElement("AnyElement");
     }
 
     /**
@@ -0,0 +1,210 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomeinit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.xmlbeans.XmlRuntimeException;
+
+/**
+ * Writes the sample xml to an XMLStreamWriter. The start of an element is kept pending until its first child or
+ * its end, so elements without content are written as empty elements. Pretty printing follows the layout
+ * of XmlBeans: elements and comments start on a new line, text content is kept inline. XMLStreamExceptions are
+ * wrapped in XmlRuntimeException because the generator of {@link SampleXmlUtil} does not declare exceptions.
+ */
+class StaxSampleSink implements SampleXmlSink {
+
+    private static final String INDENT = "  ";
+
+    private final XMLStreamWriter writer;
+    private final boolean         indent;
+
+    private QName        pendingName       = null;
+    private List<QName>  pendingAttrNames  = new ArrayList<>();
+    private List<String> pendingAttrValues = new ArrayList<>();
+
+    /**
+     * Default namespace of the open elements
+     */
+    private Deque<String>  defaultNamespaces = new ArrayDeque<>();
+    /**
+     * Flags of the open elements showing if they have element or comment children
+     */
+    private Deque<Boolean> hasChildren       = new ArrayDeque<>();
+
+    private boolean started     = false;
+    private int     prefixCount = 0;
+
+    /**
+     * @param writer the writer to use
+     * @param indent pretty print the xml or not
+     */
+    StaxSampleSink(XMLStreamWriter writer, boolean indent) {
+        this.writer = writer;
+        this.indent = indent;
+
+        defaultNamespaces.push("");
+    }
+
+    @Override
+    public void startElement(QName name) {
+        try {
+            flushPending(false);
+            newLine();
+        }
+        catch (XMLStreamException e) {
+            throw new XmlRuntimeException(e);
+        }
+        pendingName = name;
+    }
+
+    @Override
+    public void attribute(QName name, String value) {
+        if (pendingName == null) throw new IllegalStateException("Attribute '" + name + "' must follow the start of an element");
+
+        pendingAttrNames.add(name);
+        pendingAttrValues.add(value);
+    }
+
+    @Override
+    public void characters(String text) {
+        // same as XmlCursor.insertChars(), empty text does not create content
+        if (StringUtils.isEmpty(text)) return;
+
+        try {
+            flushPending(false);
+            writer.writeCharacters(text);
+        }
+        catch (XMLStreamException e) {
+            throw new XmlRuntimeException(e);
+        }
+    }
+
+    @Override
+    public void comment(String text) {
+        try {
+            flushPending(false);
+            newLine();
+            writer.writeComment(text);
+        }
+        catch (XMLStreamException e) {
+            throw new XmlRuntimeException(e);
+        }
+    }
+
+    @Override
+    public void endElement() {
+        try {
+            if (pendingName != null) {
+                flushPending(true);
+            }
+            else {
+                boolean children = hasChildren.pop();
+                defaultNamespaces.pop();
+
+                if (children) newLine();
+
+                writer.writeEndElement();
+            }
+        }
+        catch (XMLStreamException e) {
+            throw new XmlRuntimeException(e);
+        }
+    }
+
+    @Override
+    public String prefixForNamespace(String namespaceURI) {
+        try {
+            return writer.getPrefix(namespaceURI);
+        }
+        catch (XMLStreamException e) {
+            throw new XmlRuntimeException(e);
+        }
+    }
+
+    /**
+     * Starts a new line indented by the number of open elements, and marks the parent element as having children
+     */
+    private void newLine() throws XMLStreamException {
+        if (!hasChildren.isEmpty()) {
+            hasChildren.pop();
+            hasChildren.push(true);
+        }
+
+        if (!indent) return;
+
+        if (started) writer.writeCharacters("\n" + StringUtils.repeat(INDENT, hasChildren.size()));
+
+        started = true;
+    }
+
+    /**
+     * Writes the pending start element with its namespace declarations and attributes
+     *
+     * @param empty write empty element or not
+     */
+    private void flushPending(boolean empty) throws XMLStreamException {
+        if (pendingName == null) return;
+
+        String ns = pendingName.getNamespaceURI();
+
+        if (empty) writer.writeEmptyElement("", pendingName.getLocalPart(), ns);
+        else       writer.writeStartElement("", pendingName.getLocalPart(), ns);
+
+        if (!ns.equals(defaultNamespaces.peek())) writer.writeDefaultNamespace(ns);
+
+        for (int i = 0; i < pendingAttrNames.size(); i++) {
+            QName  attrName = pendingAttrNames.get(i);
+            String attrNs   = attrName.getNamespaceURI();
+
+            if (StringUtils.isEmpty(attrNs)) {
+                writer.writeAttribute(attrName.getLocalPart(), pendingAttrValues.get(i));
+            }
+            else {
+                String prefix = writer.getPrefix(attrNs);
+
+                if (StringUtils.isEmpty(prefix)) {
+                    prefix = "ns" + (++prefixCount);
+                    writer.writeNamespace(prefix, attrNs);
+                    writer.setPrefix(prefix, attrNs);
+                }
+                writer.writeAttribute(prefix, attrNs, attrName.getLocalPart(), pendingAttrValues.get(i));
+            }
+        }
+
+        if (!empty) {
+            defaultNamespaces.push(ns);
+            hasChildren.push(false);
+        }
+
+        pendingName = null;
+        pendingAttrNames.clear();
+        pendingAttrValues.clear();
+    }
+}
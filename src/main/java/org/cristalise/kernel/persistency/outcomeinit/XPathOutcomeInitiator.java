@@ -20,23 +20,45 @@
  */
 package org.cristalise.kernel.persistency.outcomeinit;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.lang3.StringUtils;
 import org.cristalise.kernel.common.InvalidDataException;
 import org.cristalise.kernel.entity.agent.Job;
+import org.cristalise.kernel.persistency.cache.BoundedCache;
 import org.cristalise.kernel.persistency.outcome.Outcome;
 import org.cristalise.kernel.persistency.outcome.OutcomeInitiator;
 import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.utils.Logger;
+import org.mvel2.templates.CompiledTemplate;
+import org.mvel2.templates.TemplateCompiler;
 import org.mvel2.templates.TemplateRuntime;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * OutcomeInitiator implementation using on Activity Properties. It is based on the convention that the name
  * of the Activity Property is a XPath expression. All Activity properties in the Job shall be resolved already,
  * i.e. all the DataHelpers were executed while the Job was created.
+ * <p>
+ * Instances are thread-safe and they are normally shared. The compiled MVEL templates are immutable, while the
+ * compiled XPath expressions, which are not thread-safe, are pooled: each evaluation borrows an expression and
+ * returns it afterwards. Nothing is bound to the calling thread, so the compiled expressions are reused by
+ * platform and virtual threads alike.
  */
 public class XPathOutcomeInitiator extends EmptyOutcomeInitiator {
 
@@ -46,6 +68,78 @@ public class XPathOutcomeInitiator extends EmptyOutcomeInitiator {
      */
     public static final String PROP_NAME_PREFIX_CONFIGKEY = "XPathOutcomeInitiator.PropertyNamePrefix";
 
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to override the default size (1000) of the
+     * cache of compiled XPath expressions shared by all instances. Zero or negative value disables the cache.
+     */
+    public static final String XPATH_CACHE_SIZE_CONFIGKEY = "XPathOutcomeInitiator.XPathCacheSize";
+
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to override the default number (8) of the
+     * compiled instances of each XPath expression kept for reuse.
+     */
+    public static final String XPATH_POOL_SIZE_CONFIGKEY = "XPathOutcomeInitiator.XPathPoolSize";
+
+    /**
+     * XPathFactory is not thread-safe, so it is locked while a new XPath is created
+     */
+    private static final XPathFactory xpathFactory = XPathFactory.newInstance();
+
+    private static final LongAdder xpathCompileCount = new LongAdder();
+
+    /**
+     * Bounded pool of the compiled instances of an XPath expression. Each evaluation borrows an instance, or
+     * compiles a new one if all of them are in use, and returns it afterwards. The pool takes no lock, the number
+     * of idle instances is bounded by a counter which is reserved before an instance is given back.
+     */
+    public static final class XPathPool {
+        private final String                                 xpath;
+        private final int                                    poolSize;
+        private final ConcurrentLinkedQueue<XPathExpression> idle      = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger                          idleCount = new AtomicInteger();
+
+        XPathPool(String xpath, XPathExpression expr, int poolSize) {
+            this.xpath    = xpath;
+            this.poolSize = Math.max(poolSize, 1);
+            giveBack(expr);
+        }
+
+        XPathExpression borrow() throws XPathExpressionException {
+            XPathExpression expr = idle.poll();
+
+            if (expr == null) return compile(xpath);
+
+            idleCount.decrementAndGet();
+            return expr;
+        }
+
+        void giveBack(XPathExpression expr) {
+            // the instance is dropped if the pool is full
+            if (idleCount.incrementAndGet() <= poolSize) idle.offer(expr);
+            else                                         idleCount.decrementAndGet();
+        }
+
+        public String getXPath() {
+            return xpath;
+        }
+
+        /**
+         * @return the number of compiled instances available for reuse
+         */
+        public int getIdleCount() {
+            return idleCount.get();
+        }
+    }
+
+    /**
+     * Defines the name of the CRISTAL Property (value={@value}) to override the default size (1000) of the
+     * cache of compiled MVEL templates shared by all instances. Zero or negative value disables the cache.
+     */
+    public static final String TEMPLATE_CACHE_SIZE_CONFIGKEY = "XPathOutcomeInitiator.TemplateCacheSize";
+
+    private static volatile BoundedCache<String, XPathPool> xpathCache;
+    private static volatile BoundedCache<String, CompiledTemplate> templateCache;
+
     private final String propNamePrefix;
 
     public XPathOutcomeInitiator() {
@@ -66,13 +160,10 @@ public class XPathOutcomeInitiator extends EmptyOutcomeInitiator {
     }
 
     /**
-     *
+     * Updates the empty Outcome created by EmptyOutcomeInitiator using the Activity Properties of the Job
      */
     @Override
-    public Outcome initOutcomeInstance(Job job) throws InvalidDataException {
-        //calls implementation of EmptyOutcomeInitiator
-        Outcome xpathOutcome = super.initOutcomeInstance(job);
-
+    protected Outcome completeOutcome(Outcome xpathOutcome, Job job) throws InvalidDataException {
         Map<String, Object> matchedProps = job.matchActPropNames(propNamePrefix);
 
         for(Map.Entry<String, Object> entry: matchedProps.entrySet()) {
@@ -83,18 +174,18 @@ public class XPathOutcomeInitiator extends EmptyOutcomeInitiator {
                 if ("/".equals(propNamePrefix)) xpath = entry.getKey();
                 else                            xpath = entry.getKey().substring(propNamePrefix.length());
 
-                Logger.msg(5, "XPathOutcomeInitiator.initOutcomeInstance() - Using Property xpath:"+xpath+" value:"+value);
+                Logger.msg(5, "XPathOutcomeInitiator.completeOutcome() - Using Property xpath:"+xpath+" value:"+value);
 
                 if(StringUtils.isEmpty(value)) throw new InvalidDataException("Value is NULL/EMPTY for Property name:'"+xpath+"'");
 
                 value = evaluate(value, job);
 
                 if(value.startsWith("<") && value.endsWith(">")) {
-                    Logger.msg(5, "XPathOutcomeInitiator.initOutcomeInstance() - Updating XML fregment with xpath:"+xpath);
-                    xpathOutcome.appendXmlFragment(xpath, value);
+                    Logger.msg(5, "XPathOutcomeInitiator.completeOutcome() - Updating XML fregment with xpath:"+xpath);
+                    appendXmlFragment(xpathOutcome, xpath, value);
                 }
                 else {
-                    xpathOutcome.setFieldByXPath(xpath, value);
+                    setFieldByXPath(xpathOutcome, xpath, value);
                 }
             }
             catch (XPathExpressionException e) {
@@ -110,7 +201,8 @@ public class XPathOutcomeInitiator extends EmptyOutcomeInitiator {
     /**
      * Evaluates the content of the provided value using an expression language.
      * 
-     * The default implementation is using MVEL expression language. 
+     * The default implementation is using MVEL expression language. Values without the '@' character cannot
+     * contain MVEL template markers, so they are returned without evaluation. Compiled templates are cached.
      * 
      * You could re-implement this method at upper classes to use your expression language.
      * 
@@ -119,7 +211,202 @@ public class XPathOutcomeInitiator extends EmptyOutcomeInitiator {
      * @return
      */
 	protected String evaluate(String value, Job job) {
-		value = (String) TemplateRuntime.eval(value, job.getActProps());
-		return value;
+		return evaluate(value, job.getActProps());
 	}
+
+    /**
+     * Evaluates the MVEL template using the given variables
+     * 
+     * @param value the template or the literal value
+     * @param vars the variables available in the template
+     * @return the result of the evaluation
+     */
+    protected String evaluate(String value, Map<String, Object> vars) {
+        if (isLiteral(value)) return value;
+
+        return (String) TemplateRuntime.execute(compileTemplate(value), vars);
+    }
+
+    /**
+     * Checks if the value can contain MVEL template markers (e.g. @{...}, @if{...})
+     * 
+     * @param value the value to check
+     * @return true if the value shall not be evaluated
+     */
+    public static boolean isLiteral(String value) {
+        return value.indexOf('@') == -1;
+    }
+
+    /**
+     * Returns the cache of compiled MVEL templates shared by all XPathOutcomeInitiator instances,
+     * e.g. to read its hit rate
+     *
+     * @return the cache
+     */
+    public static BoundedCache<String, CompiledTemplate> getTemplateCache() {
+        if (templateCache == null) {
+            synchronized (XPathOutcomeInitiator.class) {
+                if (templateCache == null) {
+                    templateCache = new BoundedCache<>("CompiledTemplate", Gateway.getProperties().getInt(TEMPLATE_CACHE_SIZE_CONFIGKEY, 1000));
+                }
+            }
+        }
+        return templateCache;
+    }
+
+    /**
+     * Returns the compiled MVEL template from the cache, or compiles and caches it
+     *
+     * @param template the text of the template
+     * @return the compiled template
+     */
+    public static CompiledTemplate compileTemplate(String template) {
+        CompiledTemplate compiled = getTemplateCache().get(template);
+
+        if (compiled == null) {
+            compiled = TemplateCompiler.compileTemplate(template);
+            getTemplateCache().put(template, compiled);
+        }
+
+        return compiled;
+    }
+
+    /**
+     * Returns the cache of compiled XPath expressions shared by all XPathOutcomeInitiator instances,
+     * e.g. to read its hit rate. A hit means that the pool of the expression was found, but a new instance is
+     * still compiled when all pooled instances are in use, see {@link #getXPathCompileCount()}.
+     *
+     * @return the cache
+     */
+    public static BoundedCache<String, XPathPool> getXPathCache() {
+        if (xpathCache == null) {
+            synchronized (XPathOutcomeInitiator.class) {
+                if (xpathCache == null) {
+                    xpathCache = new BoundedCache<>("XPathExpression", Gateway.getProperties().getInt(XPATH_CACHE_SIZE_CONFIGKEY, 1000));
+                }
+            }
+        }
+        return xpathCache;
+    }
+
+    /**
+     * Returns the number of XPath compilations done by all XPathOutcomeInitiator instances, i.e. the cache misses
+     * and the borrows finding all pooled instances in use
+     *
+     * @return the number of compilations
+     */
+    public static long getXPathCompileCount() {
+        return xpathCompileCount.sum();
+    }
+
+    private static XPathExpression compile(String xpath) throws XPathExpressionException {
+        XPath newXPath;
+
+        synchronized (xpathFactory) {
+            newXPath = xpathFactory.newXPath();
+        }
+
+        xpathCompileCount.increment();
+
+        return newXPath.compile(xpath);
+    }
+
+    /**
+     * Returns the pool of the compiled XPath expression from the cache, or compiles the expression and caches its pool
+     *
+     * @param xpath the XPath string
+     * @return the pool of the compiled expression
+     * @throws XPathExpressionException the xpath could not be compiled
+     */
+    public static XPathPool getXPathPool(String xpath) throws XPathExpressionException {
+        XPathPool pool = getXPathCache().get(xpath);
+
+        if (pool == null) {
+            pool = new XPathPool(xpath, compile(xpath), Gateway.getProperties().getInt(XPATH_POOL_SIZE_CONFIGKEY, 8));
+            getXPathCache().put(xpath, pool);
+        }
+
+        return pool;
+    }
+
+    /**
+     * Evaluates the compiled XPath on the given document
+     *
+     * @param dom the document
+     * @param xpath the XPath string
+     * @return the Node found or null
+     * @throws XPathExpressionException the xpath could not be compiled or evaluated
+     */
+    protected Node getNodeByXPath(Document dom, String xpath) throws XPathExpressionException {
+        XPathPool       pool = getXPathPool(xpath);
+        XPathExpression expr = pool.borrow();
+
+        try {
+            return (Node) expr.evaluate(dom, XPathConstants.NODE);
+        }
+        finally {
+            pool.giveBack(expr);
+        }
+    }
+
+    /**
+     * Same as {@link Outcome#setFieldByXPath(String, String)} but it uses the compiled XPath expression
+     *
+     * @param outcome the Outcome to update
+     * @param xpath the XPath of the element, attribute or text node
+     * @param value the new value
+     * @throws XPathExpressionException the xpath could not be compiled or evaluated
+     * @throws InvalidDataException the node was not found or it could not be updated
+     */
+    protected void setFieldByXPath(Outcome outcome, String xpath, String value) throws XPathExpressionException, InvalidDataException {
+        if (StringUtils.isBlank(xpath)) throw new InvalidDataException("Xpath is null or empty string");
+        if (value == null) value = "";
+
+        Node field = getNodeByXPath(outcome.getDOM(), xpath);
+
+        if (field == null) {
+            Logger.error("XPathOutcomeInitiator.setFieldByXPath() - Xpath '" + xpath + "' is invalid");
+            throw new InvalidDataException("Xpath '" + xpath + "' is invalid");
+        }
+        else if (field.getNodeType() == Node.ELEMENT_NODE) {
+            NodeList children = field.getChildNodes();
+
+            if (children.getLength() == 0)
+                field.appendChild(outcome.getDOM().createTextNode(value));
+            else if (children.getLength() == 1 && children.item(0).getNodeType() == Node.TEXT_NODE)
+                children.item(0).setNodeValue(value);
+            else
+                throw new InvalidDataException("Node '" + field.getNodeName() + "' can not be updated, because it is not a leaf");
+        }
+        else if (field.getNodeType() == Node.ATTRIBUTE_NODE || field.getNodeType() == Node.TEXT_NODE) {
+            field.setNodeValue(value);
+        }
+        else {
+            throw new InvalidDataException("Don't know what to do with node '" + field.getNodeName() + "'");
+        }
+    }
+
+    /**
+     * Same as {@link Outcome#appendXmlFragment(String, String)} but it uses the compiled XPath expression
+     *
+     * @param outcome the Outcome to update
+     * @param xpath the XPath of the parent element
+     * @param xmlFragment the xml to append
+     * @throws XPathExpressionException the xpath could not be compiled or evaluated
+     * @throws InvalidDataException the parent was not found or the fragment could not be parsed
+     */
+    protected void appendXmlFragment(Outcome outcome, String xpath, String xmlFragment) throws XPathExpressionException, InvalidDataException {
+        Node parentNode = getNodeByXPath(outcome.getDOM(), xpath);
+
+        if (parentNode == null) throw new InvalidDataException("Xpath '" + xpath + "' is invalid");
+
+        try {
+            Node newNode = Outcome.parse(new InputSource(new StringReader(xmlFragment))).getDocumentElement();
+            parentNode.appendChild(outcome.getDOM().importNode(newNode, true));
+        }
+        catch (SAXException | IOException e) {
+            Logger.error(e);
+            throw new InvalidDataException(e.getMessage());
+        }
+    }
 }
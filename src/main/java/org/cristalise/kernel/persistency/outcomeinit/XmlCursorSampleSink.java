@@ -0,0 +1,77 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomeinit;
+
+import javax.xml.namespace.QName;
+
+import org.apache.xmlbeans.XmlCursor;
+
+/**
+ * Inserts the sample xml using an XmlCursor, as it was done by the original SampleXmlUtil of XMLBeans
+ */
+class XmlCursorSampleSink implements SampleXmlSink {
+
+    private final XmlCursor xmlc;
+
+    /**
+     * @param xmlc the cursor positioned where the sample shall be inserted
+     */
+    XmlCursorSampleSink(XmlCursor xmlc) {
+        this.xmlc = xmlc;
+    }
+
+    @Override
+    public void startElement(QName name) {
+        // ^  -> <elem></elem>^ -> <elem>^</elem>
+        xmlc.insertElement(name.getLocalPart(), name.getNamespaceURI());
+        xmlc.toPrevToken();
+    }
+
+    @Override
+    public void attribute(QName name, String value) {
+        xmlc.insertAttributeWithValue(name, value);
+    }
+
+    @Override
+    public void characters(String text) {
+        xmlc.insertChars(text);
+    }
+
+    @Override
+    public void comment(String text) {
+        xmlc.insertComment(text);
+    }
+
+    @Override
+    public void endElement() {
+        // <elem>stuff^</elem> -> <elem>stuff</elem>^
+        xmlc.toNextToken();
+    }
+
+    @Override
+    public String prefixForNamespace(String namespaceURI) {
+        XmlCursor parent = xmlc.newCursor();
+        parent.toParent();
+        String prefix = parent.prefixForNamespace(namespaceURI);
+        parent.dispose();
+        return prefix;
+    }
+}
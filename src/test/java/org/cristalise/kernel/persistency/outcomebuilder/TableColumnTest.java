@@ -0,0 +1,191 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.outcomebuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * TableColumn is package-private, so this test lives in the package of the production code
+ */
+public class TableColumnTest {
+
+    private static TableColumn column(Class<?> type, Object... values) {
+        TableColumn column = TableColumn.create(type);
+        for (int i = 0; i < values.length; i++) column.insert(i, values[i]);
+        return column;
+    }
+
+    private static List<Object> values(TableColumn column) {
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < column.size; i++) values.add(column.get(i));
+        return values;
+    }
+
+    @Test
+    public void integerColumn_InsertRemoveSetInTheMiddle() {
+        TableColumn column = column(BigInteger.class, BigInteger.valueOf(1), BigInteger.valueOf(2), BigInteger.valueOf(4));
+
+        column.insert(2, BigInteger.valueOf(3));
+        assertEquals(Arrays.asList(BigInteger.valueOf(1), BigInteger.valueOf(2), BigInteger.valueOf(3), BigInteger.valueOf(4)), values(column));
+
+        column.remove(1);
+        assertEquals(Arrays.asList(BigInteger.valueOf(1), BigInteger.valueOf(3), BigInteger.valueOf(4)), values(column));
+
+        column.set(1, 33L);
+        assertEquals(Arrays.asList(BigInteger.valueOf(1), BigInteger.valueOf(33), BigInteger.valueOf(4)), values(column));
+    }
+
+    @Test
+    public void decimalColumn_InsertRemoveSetInTheMiddle() {
+        TableColumn column = column(BigDecimal.class, new BigDecimal("1.10"), new BigDecimal("3.3"));
+
+        column.insert(1, new BigDecimal("2.200"));
+        assertEquals(Arrays.asList(new BigDecimal("1.10"), new BigDecimal("2.200"), new BigDecimal("3.3")), values(column));
+
+        column.set(1, 2.5d);
+        assertEquals(new BigDecimal("2.5"), column.get(1));
+
+        column.remove(0);
+        assertEquals(Arrays.asList(new BigDecimal("2.5"), new BigDecimal("3.3")), values(column));
+    }
+
+    @Test
+    public void booleanColumn_InsertRemoveSetInTheMiddle() {
+        TableColumn column = column(Boolean.class, true, false, true);
+
+        column.insert(1, true);
+        assertEquals(Arrays.asList(true, true, false, true), values(column));
+
+        column.remove(2);
+        assertEquals(Arrays.asList(true, true, true), values(column));
+
+        column.set(1, false);
+        assertEquals(Arrays.asList(true, false, true), values(column));
+    }
+
+    @Test
+    public void stringColumn_InsertRemoveSetInTheMiddle() {
+        TableColumn column = column(String.class, "a", "c", "a");
+
+        column.insert(1, "b");
+        assertEquals(Arrays.asList("a", "b", "c", "a"), values(column));
+
+        column.remove(2);
+        assertEquals(Arrays.asList("a", "b", "a"), values(column));
+
+        column.set(0, "b");
+        assertEquals(Arrays.asList("b", "b", "a"), values(column));
+        assertEquals(3, ((TableColumn.StringColumn) column).dictionary.size());
+    }
+
+    @Test
+    public void valuesNotFittingThePrimitiveStorage() {
+        BigInteger huge       = BigInteger.ONE.shiftLeft(70);
+        BigDecimal hugeScaled = new BigDecimal(huge, 3);
+
+        TableColumn integers = column(BigInteger.class, BigInteger.ONE, "notANumber", huge, BigInteger.TEN);
+        TableColumn decimals = column(BigDecimal.class, BigDecimal.ONE, hugeScaled, "1,5", BigDecimal.TEN);
+        TableColumn booleans = column(Boolean.class, true, "yes", false);
+        TableColumn strings  = column(String.class, "a", 12, "b");
+
+        assertEquals(Arrays.asList(BigInteger.ONE, "notANumber", huge, BigInteger.TEN), values(integers));
+        assertEquals(Arrays.asList(BigDecimal.ONE, hugeScaled, "1,5", BigDecimal.TEN), values(decimals));
+        assertEquals(Arrays.asList(true, "yes", false), values(booleans));
+        assertEquals(Arrays.asList("a", 12, "b"), values(strings));
+
+        // the sparse values are shifted with the rows
+        integers.remove(0);
+        integers.insert(1, BigInteger.ZERO);
+        assertEquals(Arrays.asList("notANumber", BigInteger.ZERO, huge, BigInteger.TEN), values(integers));
+
+        // a primitive value replaces a sparse one and vice versa
+        integers.set(0, 5L);
+        integers.set(3, "ten");
+        assertEquals(Arrays.asList(BigInteger.valueOf(5), BigInteger.ZERO, huge, "ten"), values(integers));
+        assertEquals(2, integers.others.size());
+    }
+
+    @Test
+    public void nullValues() {
+        for (Class<?> type : new Class<?>[] {BigInteger.class, BigDecimal.class, Boolean.class, String.class}) {
+            Object value = (type == Boolean.class) ? Boolean.TRUE : (type == String.class) ? "v" :
+                           (type == BigInteger.class) ? (Object) BigInteger.ONE : BigDecimal.ONE;
+
+            TableColumn column = column(type, value, null, value);
+
+            assertNull(type.getSimpleName(), column.get(1));
+            assertEquals(type.getSimpleName(), Arrays.asList(value, null, value), values(column));
+
+            column.set(0, null);
+            assertNull(type.getSimpleName(), column.get(0));
+            assertFalse(type.getSimpleName(), column.present.get(0));
+
+            column.set(1, value);
+            column.remove(0);
+            assertEquals(type.getSimpleName(), Arrays.asList(value, value), values(column));
+            assertTrue(column.others.isEmpty());
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getOutOfBounds() {
+        column(String.class, "a").get(1);
+    }
+
+    @Test
+    public void bitsAreShiftedAcrossWords() {
+        TableColumn column = TableColumn.create(Boolean.class);
+        List<Object> expected = new ArrayList<>();
+
+        for (int i = 0; i < 200; i++) {
+            Boolean value = (i % 3 == 0);
+            column.insert(0, value);
+            expected.add(0, value);
+        }
+
+        for (int index : new int[] {63, 64, 127, 128, 0, 150}) {
+            column.insert(index, null);
+            expected.add(index, null);
+            assertEquals(expected, values(column));
+        }
+
+        for (int index : new int[] {64, 63, 0, 128, 127}) {
+            column.remove(index);
+            expected.remove(index);
+            assertEquals(expected, values(column));
+        }
+
+        column.remove(column.size - 1);
+        expected.remove(expected.size() - 1);
+        assertEquals(expected, values(column));
+    }
+}
@@ -20,6 +20,8 @@
  */
 package org.cristalise.kernel.test.persistency.outcomebuilder;
 
+import static org.junit.Assert.assertEquals;
+
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
@@ -27,6 +29,7 @@ import java.util.Map;
 
 import org.cristalise.kernel.persistency.outcome.Schema;
 import org.cristalise.kernel.persistency.outcomebuilder.OutcomeBuilder;
+import org.cristalise.kernel.persistency.outcomebuilder.SchemaModel;
 import org.cristalise.kernel.test.persistency.XMLUtils;
 import org.cristalise.kernel.utils.Logger;
 import org.junit.Before;
@@ -137,4 +140,17 @@ public class BuildEmptyOutcomeTest extends XMLUtils {
         ob = new OutcomeBuilder("Storage", schema);
         Logger.msg(ob.getXml());
     }
+
+    @Test
+    public void schemaModelIsShared() throws Exception {
+        Schema schema = new Schema("StateMachine", 0, getXSD(dir, "StateMachine"));
+
+        OutcomeBuilder first = new OutcomeBuilder(schema);
+        long hits = SchemaModel.getCache().getHitCount();
+        OutcomeBuilder second = new OutcomeBuilder(schema);
+
+        assertEquals(hits + 1, SchemaModel.getCache().getHitCount());
+        assert compareXML(first.getXml(), second.getXml());
+        assert compareXML(getXML(dir, "StateMachine"), second.getXml());
+    }
 }
@@ -20,10 +20,15 @@
  */
 package org.cristalise.kernel.test.persistency.outcomebuilder;
 
+import static org.junit.Assert.assertEquals;
+
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
 
@@ -35,6 +40,8 @@ import org.cristalise.kernel.utils.Logger;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 public class BuildOutcomeTest extends XMLUtils {
 
@@ -116,6 +123,99 @@ public class BuildOutcomeTest extends XMLUtils {
         assert XMLUtils.compareXML(getXML(dir, "siteCharacteristicsData_ups"), ob.getXml());
     }
 
+    @Test
+    public void buildNestedRecord_AddFieldAndRecordAtDepth() throws Exception {
+        OutcomeBuilder ob = new OutcomeBuilder(new Schema("NestedRecord", 0, getXSD(dir, "NestedRecord")));
+
+        ob.addfield("/NestedRecord/Level1/Level2/Counter", "5");
+
+        Map<String, String> record = new LinkedHashMap<String, String>();
+        record.put("Value",   "deep");
+        record.put("Comment", "inserted before Counter");
+
+        ob.addRecord("/NestedRecord/Level1/Level2/Level3", record);
+
+        Logger.msg(ob.getXml());
+
+        assert XMLUtils.compareXML(getXML(dir, "NestedRecordUpdated"), ob.getXml());
+    }
+
+    @Test
+    public void buildNestedRecord_AddRecords() throws Exception {
+        OutcomeBuilder ob = new OutcomeBuilder(new Schema("NestedRecord", 0, getXSD(dir, "NestedRecord")));
+
+        ob.addfield("/NestedRecord/Level1/Level2/Counter", "5");
+
+        Map<String, String> level3 = new LinkedHashMap<String, String>();
+        level3.put("Value",   "deep");
+        level3.put("Comment", "inserted before Counter");
+
+        Map<String, Map<String, String>> records = new LinkedHashMap<>();
+        records.put("/NestedRecord/Level1/Level2/Level3", level3);
+        records.put("/NestedRecord", new HashMap<String, String>());
+
+        ob.addRecords(records);
+
+        Logger.msg(ob.getXml());
+
+        assert XMLUtils.compareXML(getXML(dir, "NestedRecordUpdated"), ob.getXml());
+    }
+
+    @Test
+    public void buildWideRecord_AddRecordsBetweenExistingFields() throws Exception {
+        StringBuilder xsd = new StringBuilder("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>")
+                .append("<xs:element name='Wide'><xs:complexType><xs:sequence>");
+
+        for (int i = 0; i < 6; i++) xsd.append("<xs:element name='Field").append(i).append("' type='xs:string' minOccurs='0'/>");
+
+        xsd.append("</xs:sequence></xs:complexType></xs:element></xs:schema>");
+
+        OutcomeBuilder ob = new OutcomeBuilder(new Schema("Wide", 0, xsd.toString()));
+
+        ob.addfield("/Wide/Field2", "two");
+        ob.addfield("/Wide/Field4", "four");
+
+        Map<String, Map<String, String>> records = new LinkedHashMap<>();
+        for (int i : new int[] {5, 0, 3, 1}) records.put("/Wide/Field" + i, new HashMap<String, String>());
+
+        ob.addRecords(records);
+
+        Logger.msg(ob.getXml());
+
+        NodeList children = ob.getOutcome().getDOM().getDocumentElement().getChildNodes();
+        List<String> names = new ArrayList<>();
+
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element) names.add(children.item(i).getNodeName());
+        }
+
+        assertEquals(Arrays.asList("Field0", "Field1", "Field2", "Field3", "Field4", "Field5"), names);
+    }
+
+    @Test
+    public void buildEmptySiteCharacteristicsData_AddRecords() throws Exception {
+        OutcomeBuilder ob = new OutcomeBuilder(new Schema("SiteCharacteristicsData", 0, getXSD(dir, "SiteCharacteristicsData")));
+
+        Map<String, String> upsRecord = new HashMap<String, String>();
+        upsRecord.put("Manufacturer", "acme");
+        upsRecord.put("Phases",       "final");
+        upsRecord.put("Power",        "super");
+        upsRecord.put("Remarks",      "irrelevant");
+        upsRecord.put("TimeAutonomy", "daily");
+        upsRecord.put("UsedFor",      "creation");
+
+        Map<String, Map<String, String>> records = new LinkedHashMap<>();
+        records.put("/SiteCharacteristicsData/UPS", upsRecord);
+
+        ob.addRecords(records);
+
+        ob.addfield("/SiteCharacteristicsData/BuildingType", "semi-detached");
+        ob.addfield("/SiteCharacteristicsData/AHOwner",      "mine");
+        ob.addfield("BuildingTypeRemarks",                   "awsome");
+
+        assert XMLUtils.compareXML(getXML(dir, "siteCharacteristicsData_ups"), ob.getXml());
+    }
+
     @Test @Ignore
     public void buildSiteCharacteristicsData_FromCSV() throws Exception {
         OutcomeBuilder ob = new OutcomeBuilder(new Schema("SiteCharacteristicsData", 0, getXSD(dir, "SiteCharacteristicsData")));
@@ -20,7 +20,17 @@
  */
 package org.cristalise.kernel.test.persistency.outcomebuilder;
 
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.persistency.outcomebuilder.InvalidOutcomeException;
 import org.cristalise.kernel.persistency.outcomebuilder.OutcomeBuilder;
 import org.cristalise.kernel.test.persistency.XMLUtils;
 import org.cristalise.kernel.utils.Logger;
@@ -28,6 +38,8 @@ import org.json.JSONObject;
 import org.json.XML;
 import org.junit.Before;
 import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 public class BuildStructureFromJsonTest extends XMLUtils {
 
@@ -52,6 +64,18 @@ public class BuildStructureFromJsonTest extends XMLUtils {
         assert compareXML(expected, builder.getXml());
     }
 
+    private void checkJsonStream2XmlOutcome(String type, String postfix) throws Exception {
+        String expected = getXML(dir, type+postfix);
+
+        OutcomeBuilder builder = new OutcomeBuilder(new Schema(type, 0, getXSD(dir, type)), true);
+        builder.addJsonInstance(new StringReader(getJSON(dir, type+postfix)));
+
+        Logger.msg(2, "Expected xml:%s", expected);
+        Logger.msg(2, "Actual xml:%s", builder.getXml());
+
+        assert compareXML(expected, builder.getXml());
+    }
+
     private void checkXml2Json2XmlOutcome(String type, String postFix) throws Exception {
         OutcomeBuilder builder = new OutcomeBuilder(new Schema(type, 0, getXSD(dir, type)), true);
         String expected = getXML(dir, type+postFix);
@@ -127,4 +151,63 @@ public class BuildStructureFromJsonTest extends XMLUtils {
         checkJson2XmlOutcome("Table", "");
         checkJson2XmlOutcome("Table", "Updated");
     }
+
+    @Test
+    public void table_fixedAttributeColumn() throws Exception {
+        checkJson2XmlOutcome("TableWithUnit", "");
+        checkJsonStream2XmlOutcome("TableWithUnit", "");
+    }
+
+    @Test
+    public void employee_Streaming() throws Exception {
+        checkJsonStream2XmlOutcome("Employee", "");
+    }
+
+    @Test
+    public void employee_Streaming_keysOutOfSchemaOrder() throws Exception {
+        OutcomeBuilder builder = new OutcomeBuilder(new Schema("Employee", 0, getXSD(dir, "Employee")), true);
+
+        // optional elements come first and in reverse order, mandatory ones exist already
+        String json = "{\"Employee\": {\"DateOfHire\": \"2018-03-31\", \"TaxID\": \"APEH123\", \"JobTitle\": \"CTOish\", "
+                    + "\"FullName\": \"Zsolt Kovacs\", \"Name\": \"kovax\", \"Title\": \"Mr\"}}";
+
+        builder.addJsonInstance(new StringReader(json));
+
+        // getXml(true) validates the Outcome, i.e. it fails if the elements are not in the order of the Schema
+        String actual = builder.getXml(true);
+
+        Logger.msg(2, "Actual xml:%s", actual);
+
+        NodeList children = builder.getOutcome().getDOM().getDocumentElement().getChildNodes();
+        List<String> names = new ArrayList<>();
+
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element) names.add(children.item(i).getNodeName());
+        }
+
+        assertEquals(Arrays.asList("Title", "Name", "FullName", "JobTitle", "TaxID", "DateOfHire"), names);
+        assert compareXML(getXML(dir, "Employee"), actual);
+    }
+
+    @Test
+    public void table_Streaming() throws Exception {
+        checkJsonStream2XmlOutcome("Table", "");
+        checkJsonStream2XmlOutcome("Table", "Updated");
+    }
+
+    @Test
+    public void patientDetails_Streaming() throws Exception {
+        OutcomeBuilder builder = new OutcomeBuilder(new Schema("PatientDetails", 0, getXSD(dir, "PatientDetails")), true);
+        String expected = getXML(dir, "PatientDetailsUpdated");
+
+        builder.addJsonInstance(new ByteArrayInputStream(XML.toJSONObject(expected).toString().getBytes(StandardCharsets.UTF_8)));
+
+        assert compareXML(expected, builder.getXml());
+    }
+
+    @Test(expected = InvalidOutcomeException.class)
+    public void multipleRoots_Streaming() throws Exception {
+        OutcomeBuilder builder = new OutcomeBuilder(new Schema("Employee", 0, getXSD(dir, "Employee")), true);
+        builder.addJsonInstance(new StringReader("{\"Employee\": {}, \"Employee2\": {}}"));
+    }
 }
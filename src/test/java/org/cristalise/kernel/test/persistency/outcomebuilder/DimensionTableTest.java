@@ -0,0 +1,117 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency.outcomebuilder;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.persistency.outcomebuilder.CardinalException;
+import org.cristalise.kernel.persistency.outcomebuilder.OutcomeBuilder;
+import org.cristalise.kernel.test.persistency.XMLUtils;
+import org.cristalise.kernel.utils.Logger;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Checks how the cells of the rows of a table are bound to their elements and updated
+ */
+public class DimensionTableTest extends XMLUtils {
+
+    static final String XSD = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+            + "<xs:element name='Table'><xs:complexType><xs:sequence>"
+            + "<xs:element name='Row' minOccurs='0' maxOccurs='unbounded'><xs:complexType><xs:sequence>"
+            + "<xs:element name='Product'  type='xs:string'  minOccurs='1' maxOccurs='1'/>"
+            + "<xs:element name='Comment'  type='xs:string'  minOccurs='0' maxOccurs='1'/>"
+            + "<xs:element name='Quantity' type='xs:decimal' minOccurs='1' maxOccurs='1'/>"
+            + "</xs:sequence></xs:complexType></xs:element>"
+            + "</xs:sequence></xs:complexType></xs:element></xs:schema>";
+
+    Schema schema;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.addLogStream(System.out, 8);
+
+        schema = new Schema("DimensionTable", 0, XSD);
+    }
+
+    private static List<String> cellNames(OutcomeBuilder builder, int row) throws Exception {
+        Element rowElement = (Element) builder.getOutcome().getDOM().getElementsByTagName("Row").item(row);
+        List<String> names = new ArrayList<>();
+
+        for (Node child = rowElement.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) names.add(child.getNodeName());
+        }
+
+        return names;
+    }
+
+    @Test
+    public void optionalCell_RemovedAndRecreated() throws Exception {
+        OutcomeBuilder builder = new OutcomeBuilder(schema,
+                "<Table><Row><Product>A</Product><Comment>first</Comment><Quantity>1</Quantity></Row></Table>");
+
+        builder.addJsonInstance(new JSONObject("{\"Table\": {\"Row\": [{\"Comment\": null}]}}"));
+
+        Logger.msg(builder.getXml());
+        assertEquals(Arrays.asList("Product", "Quantity"), cellNames(builder, 0));
+
+        // the cell was unbound when its element was removed, so a new element is created at its place
+        builder.addJsonInstance(new JSONObject("{\"Table\": {\"Row\": [{\"Comment\": \"second\"}]}}"));
+
+        Logger.msg(builder.getXml(true));
+        assertEquals(Arrays.asList("Product", "Comment", "Quantity"), cellNames(builder, 0));
+
+        assert compareXML("<Table><Row><Product>A</Product><Comment>second</Comment><Quantity>1</Quantity></Row></Table>", builder.getXml());
+    }
+
+    @Test
+    public void missingCell_CreatedAtItsPlace() throws Exception {
+        OutcomeBuilder builder = new OutcomeBuilder(schema, "<Table><Row><Quantity>1</Quantity></Row></Table>");
+
+        Logger.msg(builder.getXml(true));
+        assertEquals(Arrays.asList("Product", "Quantity"), cellNames(builder, 0));
+    }
+
+    @Test(expected = CardinalException.class)
+    public void duplicateCell_CardinalException() throws Exception {
+        new OutcomeBuilder(schema, "<Table><Row><Product>A</Product><Quantity>1</Quantity><Product>B</Product></Row></Table>");
+    }
+
+    @Test
+    public void twoBuilders_ShareColumnsNotRows() throws Exception {
+        OutcomeBuilder first  = new OutcomeBuilder(schema, "<Table><Row><Product>A</Product><Quantity>1</Quantity></Row></Table>");
+        OutcomeBuilder second = new OutcomeBuilder(schema, "<Table><Row><Product>B</Product><Quantity>2</Quantity></Row></Table>");
+
+        // the column metadata is cached in the SchemaModel, the values stay in the table of each builder
+        first.addJsonInstance(new JSONObject("{\"Table\": {\"Row\": [{\"Comment\": \"first\"}]}}"));
+
+        assert compareXML("<Table><Row><Product>A</Product><Comment>first</Comment><Quantity>1</Quantity></Row></Table>", first.getXml());
+        assert compareXML("<Table><Row><Product>B</Product><Quantity>2</Quantity></Row></Table>", second.getXml());
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency.outcomebuilder;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.persistency.outcomebuilder.field.StringField;
+import org.cristalise.kernel.test.persistency.XMLUtils;
+import org.cristalise.kernel.utils.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FacetValidationTest extends XMLUtils {
+
+    String dir = "src/test/data/outcomeBuilder";
+
+    org.exolab.castor.xml.schema.Schema som;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.addLogStream(System.out, 8);
+
+        som = new Schema("FacetValidation", 0, getXSD(dir, "FacetValidation")).getSom();
+    }
+
+    private String validate(String elementName, String value) throws Exception {
+        StringField field = StringField.getField(som.getElementDecl(elementName));
+        field.setText(value);
+
+        String error = field.validate();
+        Logger.msg(5, "FacetValidationTest.validate() - element:%s value:%s error:%s", elementName, value, error);
+
+        return error;
+    }
+
+    @Test
+    public void pattern() throws Exception {
+        assertNull(validate("Code", "ABC-123"));
+        assertNotNull(validate("Code", "abc-123"));
+        assertNotNull(validate("Code", "ABC-123x"));
+    }
+
+    @Test
+    public void length() throws Exception {
+        assertNull(validate("Name", "John"));
+        assertNotNull(validate("Name", "J"));
+        assertNotNull(validate("Name", "Johnny"));
+    }
+
+    @Test
+    public void inclusiveRange() throws Exception {
+        assertNull(validate("Percent", "0"));
+        assertNull(validate("Percent", "100"));
+        assertNotNull(validate("Percent", "-1"));
+        assertNotNull(validate("Percent", "101"));
+        assertNotNull(validate("Percent", "ten"));
+    }
+
+    @Test
+    public void exclusiveRangeAndDigits() throws Exception {
+        assertNull(validate("Price", "999.99"));
+        assertNull(validate("Price", "12.50"));
+        assertNotNull(validate("Price", "0"));
+        assertNotNull(validate("Price", "1.125"));
+        assertNotNull(validate("Price", "100000"));
+    }
+
+    @Test
+    public void isValid() throws Exception {
+        StringField field = StringField.getField(som.getElementDecl("Percent"));
+
+        field.setText("50");
+        field.validate();
+        assertTrue(field.isValid());
+
+        field.setText("500");
+        field.validate();
+        assertFalse(field.isValid());
+    }
+}
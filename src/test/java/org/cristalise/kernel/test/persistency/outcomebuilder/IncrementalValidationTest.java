@@ -0,0 +1,207 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency.outcomebuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cristalise.kernel.common.InvalidDataException;
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.persistency.outcomebuilder.OutcomeBuilder;
+import org.cristalise.kernel.persistency.outcomebuilder.OutcomeBuilder.ValidationMode;
+import org.cristalise.kernel.test.persistency.XMLUtils;
+import org.cristalise.kernel.utils.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IncrementalValidationTest extends XMLUtils {
+
+    String dir = "src/test/data/outcomeBuilder";
+
+    OutcomeBuilder builder;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.addLogStream(System.out, 8);
+
+        Schema schema = new Schema("FacetValidation", 0, getXSD(dir, "FacetValidation"));
+        builder = new OutcomeBuilder("FacetRecord", schema, getXML(dir, "FacetRecord"));
+
+        // the first validation always validates the whole outcome
+        builder.getXml();
+    }
+
+    private void assertInvalid() {
+        try {
+            builder.getXml();
+            fail("Outcome shall be invalid");
+        }
+        catch (InvalidDataException e) {
+            Logger.msg(5, "IncrementalValidationTest - expected error:%s", e.getMessage());
+        }
+    }
+
+    private void assertValid(ValidationMode mode) throws Exception {
+        builder.getXml();
+        assertEquals(mode, builder.getLastValidationMode());
+    }
+
+    private void assertInvalid(ValidationMode mode) {
+        assertInvalid();
+        assertEquals(mode, builder.getLastValidationMode());
+    }
+
+    @Test
+    public void putField_Valid() throws Exception {
+        builder.putField("Percent", "50");
+        builder.putField("Code", "XYZ-42");
+
+        assert compareXML(
+                getXML(dir, "FacetRecord").replace("ABC-1", "XYZ-42").replace(">10<", ">50<"),
+                builder.getXml());
+    }
+
+    @Test
+    public void putField_OutOfRange() throws Exception {
+        builder.putField("Percent", "500");
+        assertInvalid();
+    }
+
+    @Test
+    public void putField_PatternMismatch() throws Exception {
+        builder.putField("Code", "abc");
+        assertInvalid();
+    }
+
+    @Test
+    public void putField_NotInteger() throws Exception {
+        builder.putField("Percent", "1.5");
+        assertInvalid();
+    }
+
+    @Test
+    public void putField_FixedAfterError() throws Exception {
+        builder.putField("Percent", "-1");
+        assertInvalid();
+
+        builder.putField("Percent", "1");
+        builder.getXml();
+    }
+
+    @Test
+    public void validationMode_FieldsThenNone() throws Exception {
+        assertEquals(ValidationMode.OUTCOME, builder.getLastValidationMode());
+
+        builder.putField("Percent", "50");
+        assertValid(ValidationMode.FIELDS);
+
+        assertValid(ValidationMode.NONE);
+    }
+
+    @Test
+    public void validationMode_OutcomeAfterGetOutcome() throws Exception {
+        builder.getOutcome();
+        builder.putField("Percent", "50");
+        assertValid(ValidationMode.OUTCOME);
+    }
+
+    @Test
+    public void whiteSpace_CollapsedForInteger() throws Exception {
+        builder.putField("Percent", " 50\n");
+        assertValid(ValidationMode.FIELDS);
+    }
+
+    @Test
+    public void whiteSpace_PreservedForString() throws Exception {
+        builder.putField("Code", " ABC-1");
+        assertInvalid(ValidationMode.FIELDS);
+    }
+
+    @Test
+    public void pattern_DollarIsLiteral() throws Exception {
+        builder.putField("Amount", "$42");
+        assertValid(ValidationMode.FIELDS);
+
+        builder.putField("Amount", "42");
+        assertInvalid(ValidationMode.FIELDS);
+    }
+
+    @Test
+    public void pattern_ClassSubtractionValidatesOutcome() throws Exception {
+        builder.putField("Consonants", "BCD");
+        assertValid(ValidationMode.OUTCOME);
+
+        builder.putField("Consonants", "ABC");
+        assertInvalid(ValidationMode.OUTCOME);
+    }
+
+    @Test
+    public void date_ValidatesOutcome() throws Exception {
+        builder.putField("Due", "2020-13-01");
+        assertInvalid(ValidationMode.OUTCOME);
+    }
+
+    @Test
+    public void putField_Nested() throws Exception {
+        Schema schema = new Schema("NestedRecord", 0, getXSD(dir, "NestedRecord"));
+        builder = new OutcomeBuilder("NestedRecord", schema, getXML(dir, "NestedRecordUpdated"));
+        builder.getXml();
+
+        builder.putField("/NestedRecord/Level1/Level2/Counter", "6");
+        assertValid(ValidationMode.FIELDS);
+
+        assert compareXML(getXML(dir, "NestedRecordUpdated").replace(">5<", ">6<"), builder.getXml());
+
+        builder.putField("/NestedRecord/Level1/Level2/Counter", "six");
+        assertInvalid(ValidationMode.FIELDS);
+    }
+
+    @Test
+    public void putField_RootPath() throws Exception {
+        builder.putField("/FacetRecord/Percent", "60");
+        assertValid(ValidationMode.FIELDS);
+
+        builder.putField("FacetRecord/Percent", "600");
+        assertInvalid(ValidationMode.FIELDS);
+    }
+
+    @Test(expected = InvalidDataException.class)
+    public void putField_WrongRoot() throws Exception {
+        builder.putField("/NestedRecord/Percent", "60");
+    }
+
+    @Test(expected = InvalidDataException.class)
+    public void putField_WrongRootOfNestedPath() throws Exception {
+        builder.putField("/NestedRecord/Level1/Level2/Counter", "6");
+    }
+
+    @Test
+    public void addRecord_Root() throws Exception {
+        Map<String, String> record = new HashMap<>();
+        record.put("Price", "12.345");
+
+        builder.addRecord("/FacetRecord", record);
+        assertInvalid();
+    }
+}
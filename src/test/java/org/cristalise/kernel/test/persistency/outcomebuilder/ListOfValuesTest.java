@@ -21,6 +21,11 @@
 package org.cristalise.kernel.test.persistency.outcomebuilder;
 
 import static net.javacrumbs.jsonunit.JsonAssert.assertJsonEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -30,8 +35,10 @@ import java.util.List;
 
 import org.cristalise.kernel.persistency.outcome.Schema;
 import org.cristalise.kernel.persistency.outcomebuilder.OutcomeBuilder;
+import org.cristalise.kernel.persistency.outcomebuilder.field.ListOfValues;
 import org.cristalise.kernel.test.persistency.XMLUtils;
 import org.cristalise.kernel.utils.Logger;
+import org.exolab.castor.xml.schema.SimpleType;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Before;
@@ -90,4 +97,102 @@ public class ListOfValuesTest extends XMLUtils {
         String actual = builder.getXml();
         assert compareXML(getXML(dir, type), actual);
     }
+
+    private static ListOfValues newListOfValues() {
+        // mocked type has no enumeration facets, so the list is empty
+        return new ListOfValues(mock(SimpleType.class), null);
+    }
+
+    @Test
+    public void findKey_ReplacedValue() throws Exception {
+        ListOfValues lov = newListOfValues();
+
+        lov.put("a", "1");
+        lov.put("b", "2");
+        lov.put("a", "2");
+
+        assertFalse(lov.containsValue("1"));
+        assertNull(lov.findKey("1"));
+        assertEquals("b", lov.findKey("2"));
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(lov.getKeyArray()));
+
+        lov.remove("b");
+
+        assertEquals("a", lov.findKey("2"));
+    }
+
+    @Test
+    public void findKey_RemovedFirstKeyOfSharedValue() throws Exception {
+        ListOfValues lov = newListOfValues();
+
+        lov.put("x", "v");
+        lov.put("y", "w");
+        lov.put("z", "v");
+        lov.put("q", "v");
+
+        assertEquals("x", lov.findKey("v"));
+
+        lov.remove("x");
+        assertEquals("z", lov.findKey("v"));
+
+        lov.remove("z");
+        assertEquals("q", lov.findKey("v"));
+
+        lov.remove("q");
+        assertNull(lov.findKey("v"));
+        assertFalse(lov.containsValue("v"));
+        assertEquals("y", lov.findKey("w"));
+    }
+
+    @Test
+    public void findKey_Clear() throws Exception {
+        ListOfValues lov = newListOfValues();
+
+        lov.put("a", "1");
+        lov.put("b", "1");
+        lov.clear();
+
+        assertTrue(lov.isEmpty());
+        assertNull(lov.findKey("1"));
+        assertFalse(lov.containsValue("1"));
+
+        lov.put("c", "1");
+        assertEquals("c", lov.findKey("1"));
+    }
+
+    @Test
+    public void findKey_DefaultMethodsOfMap() throws Exception {
+        ListOfValues lov = newListOfValues();
+
+        lov.put("a", "1");
+        lov.putIfAbsent("a", "9");
+        lov.putIfAbsent("b", "2");
+        assertNull(lov.findKey("9"));
+        assertEquals("b", lov.findKey("2"));
+
+        assertFalse(lov.remove("b", "1"));
+        assertTrue(lov.remove("b", "2"));
+        assertNull(lov.findKey("2"));
+
+        lov.replace("a", "3");
+        assertTrue(lov.replace("a", "3", "4"));
+        assertNull(lov.findKey("1"));
+        assertNull(lov.findKey("3"));
+        assertEquals("a", lov.findKey("4"));
+
+        lov.merge("a", "5", (oldValue, value) -> oldValue + "" + value);
+        assertEquals("a", lov.findKey("45"));
+
+        lov.compute("c", (key, value) -> "6");
+        lov.computeIfAbsent("d", key -> "6");
+        lov.computeIfPresent("c", (key, value) -> null);
+        assertEquals("d", lov.findKey("6"));
+        assertFalse(lov.containsKey("c"));
+
+        lov.replaceAll((key, value) -> key.toUpperCase());
+        assertEquals("a", lov.findKey("A"));
+        assertEquals("d", lov.findKey("D"));
+        assertFalse(lov.containsValue("45"));
+        assertFalse(lov.containsValue("6"));
+    }
 }
@@ -0,0 +1,156 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency.outcomebuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cristalise.kernel.persistency.outcomebuilder.field.LovScriptCache;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.Logger;
+import org.exolab.castor.types.AnyNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LovScriptCacheTest {
+
+    AtomicInteger executions = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.addLogStream(System.out, 8);
+        LovScriptCache.resetCache();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.getProperties().remove(LovScriptCache.CACHE_TTL_CONFIGKEY);
+        LovScriptCache.resetCache();
+    }
+
+    private Map<String, Object> getResult(Map<String, Object> params, boolean cacheable) throws Exception {
+        return LovScriptCache.getResult("LovScript", 0, params, cacheable, () -> {
+            executions.incrementAndGet();
+            return Collections.<String, Object>singletonMap("key", params.toString());
+        });
+    }
+
+    private static AnyNode scriptRef(String cacheable) {
+        AnyNode node = new AnyNode(AnyNode.ELEMENT, "scriptRef", null, null, null);
+        if (cacheable != null) node.addAttribute(new AnyNode(AnyNode.ATTRIBUTE, "cacheable", null, null, cacheable));
+        node.addChild(new AnyNode(AnyNode.TEXT, null, null, null, "LovScript:0"));
+        return node;
+    }
+
+    @Test
+    public void cacheableAttribute() throws Exception {
+        assertTrue(LovScriptCache.isCacheable(scriptRef("true")));
+        assertTrue(LovScriptCache.isCacheable(scriptRef(" TRUE ")));
+        assertFalse(LovScriptCache.isCacheable(scriptRef("false")));
+        assertFalse(LovScriptCache.isCacheable(scriptRef(null)));
+    }
+
+    @Test
+    public void cacheableScriptIsExecutedOncePerParams() throws Exception {
+        Map<String, Object> params = new HashMap<>();
+        params.put("memberNames", "AAA,BBB");
+
+        Map<String, Object> first = getResult(params, true);
+
+        assertEquals(first, getResult(new HashMap<>(params), true));
+        assertEquals(1, executions.get());
+        assertEquals(1, LovScriptCache.getCache().getHitCount());
+
+        params.put("memberNames", "CCC");
+        getResult(params, true);
+
+        assertEquals(2, executions.get());
+        assertEquals(2, LovScriptCache.getCache().size());
+    }
+
+    @Test
+    public void nonCacheableScriptSkipsTheCache() throws Exception {
+        Map<String, Object> params = Collections.emptyMap();
+
+        getResult(params, false);
+        getResult(params, false);
+
+        assertEquals(2, executions.get());
+        assertEquals(0, LovScriptCache.getCache().size());
+        assertEquals(0, LovScriptCache.getCache().getHitCount() + LovScriptCache.getCache().getMissCount());
+    }
+
+    @Test
+    public void cachedResultExpires() throws Exception {
+        Gateway.getProperties().put(LovScriptCache.CACHE_TTL_CONFIGKEY, "1");
+        LovScriptCache.resetCache();
+
+        Map<String, Object> params = Collections.emptyMap();
+
+        getResult(params, true);
+        getResult(params, true);
+        assertEquals(1, executions.get());
+
+        Thread.sleep(1100);
+
+        getResult(params, true);
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void paramsWithSameTextAreDistinct() throws Exception {
+        Map<String, Object> joined = new HashMap<>();
+        joined.put("a", "x, b=y");
+
+        Map<String, Object> separate = new HashMap<>();
+        separate.put("a", "x");
+        separate.put("b", "y");
+
+        getResult(joined, true);
+        getResult(separate, true);
+
+        assertEquals(2, executions.get());
+        assertEquals(2, LovScriptCache.getCache().size());
+    }
+
+    @Test
+    public void nullParamName() throws Exception {
+        Map<String, Object> params = new HashMap<>();
+        params.put(null, "x");
+
+        getResult(params, true);
+        getResult(new HashMap<>(params), true);
+
+        assertEquals(1, executions.get());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void cachedResultIsUnmodifiable() throws Exception {
+        getResult(Collections.<String, Object>emptyMap(), true).put("key", "changed");
+    }
+}
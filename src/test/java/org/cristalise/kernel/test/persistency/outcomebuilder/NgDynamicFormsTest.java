@@ -21,6 +21,7 @@
 package org.cristalise.kernel.test.persistency.outcomebuilder;
 
 import static net.javacrumbs.jsonunit.JsonAssert.assertJsonEquals;
+import static org.junit.Assert.assertEquals;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -28,6 +29,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.persistency.outcomebuilder.NgDynamicFormsTemplate;
 import org.cristalise.kernel.persistency.outcomebuilder.OutcomeBuilder;
 import org.cristalise.kernel.test.persistency.XMLUtils;
 import org.cristalise.kernel.utils.Logger;
@@ -79,6 +81,24 @@ public class NgDynamicFormsTest extends XMLUtils {
         assertJsonEquals(expected, actual);
     }
 
+    @Test
+    public void ngForm_Storage_CachedTemplate() throws Exception {
+        Schema schema = new Schema("Storage", 0, getXSD(dir, "Storage"));
+
+        OutcomeBuilder builder1 = new OutcomeBuilder("Storage", schema, false);
+        OutcomeBuilder builder2 = new OutcomeBuilder("Storage", schema, false);
+
+        // callers receive a copy of the cached template
+        builder1.generateNgDynamicFormsJson().put("modified");
+
+        JSONArray expected = new JSONArray(getJSON(dir, "StorageNGForms"));
+
+        assertJsonEquals(expected, builder2.generateNgDynamicFormsJson());
+
+        assertEquals(builder1.getNgDynamicFormsETag(null), builder2.getNgDynamicFormsETag(null));
+        assertEquals(NgDynamicFormsTemplate.computeETag(builder2.generateNgDynamicForms()), builder2.getNgDynamicFormsETag(null));
+    }
+
     @Test @Ignore("Unimplemented: cannot generate json form for Table")
     public void ngForm_Table() throws Exception {
         OutcomeBuilder builder = new OutcomeBuilder("Table", new Schema("Table", 0, getXSD(dir, "Table")), false);
@@ -0,0 +1,98 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency.outcomebuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.cristalise.kernel.common.InvalidDataException;
+import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.persistency.outcomebuilder.InvalidSchemaException;
+import org.cristalise.kernel.persistency.outcomebuilder.SchemaValidator;
+import org.cristalise.kernel.test.persistency.XMLUtils;
+import org.cristalise.kernel.utils.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SchemaValidatorTest extends XMLUtils {
+
+    String dir = "src/test/data/outcomeBuilder";
+
+    Schema schema;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.addLogStream(System.out, 8);
+
+        schema = new Schema("FacetValidation", 0, getXSD(dir, "FacetValidation"));
+    }
+
+    @Test
+    public void cachedPerSchemaVersion() throws Exception {
+        assertSame(SchemaValidator.getSchemaValidator(schema), SchemaValidator.getSchemaValidator(schema));
+    }
+
+    @Test
+    public void validOutcome() throws Exception {
+        long count = SchemaValidator.getStatistics().getCount();
+
+        Outcome outcome = new Outcome(getXML(dir, "FacetRecord"), schema);
+        String errors = SchemaValidator.getSchemaValidator(schema).validate(outcome.getDOM());
+
+        assertEquals("", errors);
+        assertTrue(SchemaValidator.getStatistics().getCount() > count);
+    }
+
+    @Test(expected = InvalidDataException.class)
+    public void invalidOutcome() throws Exception {
+        // Percent is mandatory
+        Outcome outcome = new Outcome(getXML(dir, "FacetRecord").replace("<Percent>10</Percent>", ""), schema);
+
+        SchemaValidator.getSchemaValidator(schema).validateAndCheck(outcome.getDOM());
+    }
+
+    @Test
+    public void compileFailureCached() throws Exception {
+        // the included Schema is not available, so the type is not defined
+        Schema including = new Schema("IncludingSchema", 0,
+                "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+                + "<xs:include schemaLocation='Missing.xsd'/>"
+                + "<xs:element name='Root' type='MissingType'/>"
+                + "</xs:schema>");
+
+        long misses = SchemaValidator.getCache().getMissCount();
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                SchemaValidator.getSchemaValidator(including);
+                fail("Schema shall not compile");
+            }
+            catch (InvalidSchemaException e) {
+                Logger.msg(5, "SchemaValidatorTest - expected error:%s", e.getMessage());
+            }
+        }
+
+        assertEquals(misses + 1, SchemaValidator.getCache().getMissCount());
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * This file is part of the CRISTAL-iSE XPath Outcome Initiator module.
+ * Copyright (c) 2001-2016 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency.outcomeinit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.common.InvalidDataException;
+import org.cristalise.kernel.entity.agent.Job;
+import org.cristalise.kernel.persistency.cache.BoundedCache;
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.persistency.outcomeinit.CompiledSchema;
+import org.cristalise.kernel.persistency.outcomeinit.EmptyOutcomeInitiator;
+import org.cristalise.kernel.persistency.outcomeinit.XPathOutcomeInitiator;
+import org.junit.Test;
+
+/**
+ * Runs a shared EmptyOutcomeInitiator and XPathOutcomeInitiator from many threads at the same time and checks
+ * that every Outcome is identical to the one created by a single thread
+ */
+public class ConcurrentInitiationTest extends OutcomeInitiatorTestBase {
+
+    private static final int THREADS    = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int ITERATIONS = 50;
+
+    private static final String[] SCHEMAS = {"IntegerField", "StateMachine", "PatientDetails", "Module"};
+
+    /**
+     * Starts all the tasks at the same time and rethrows the first failure
+     */
+    private static void runConcurrently(Callable<Void> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch  start    = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+
+            start.countDown();
+
+            for (Future<Void> f : futures) f.get(60, TimeUnit.SECONDS);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void emptyInitiatorIsThreadSafe() throws Exception {
+        EmptyOutcomeInitiator emptyOI = new EmptyOutcomeInitiator();
+        Map<Job, String> expected = new LinkedHashMap<>();
+
+        for (String type : SCHEMAS) {
+            Job j = mockXPathJob(type, "xpath:", new LinkedHashMap<>(), true);
+            expected.put(j, emptyOI.initOutcome(j));
+        }
+
+        runConcurrently(() -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (Map.Entry<Job, String> e : expected.entrySet()) {
+                    assertEquals(e.getValue(), emptyOI.initOutcome(e.getKey()));
+                }
+            }
+            return null;
+        });
+
+        assertEquals(SCHEMAS.length, emptyOI.getSchemaCache().size());
+    }
+
+    /**
+     * Gives access to the compiled Schemas
+     */
+    private static class CompilingInitiator extends EmptyOutcomeInitiator {
+        CompiledSchema compile(Schema schema) throws InvalidDataException {
+            return getCompiledSchema(schema);
+        }
+    }
+
+    @Test
+    public void schemaIsCompiledOnceByConcurrentThreads() throws Exception {
+        CompilingInitiator emptyOI = new CompilingInitiator();
+        Schema schema = new Schema("PatientDetails", 0, null, getXSD("PatientDetails"));
+        Set<CompiledSchema> compiled = ConcurrentHashMap.newKeySet();
+
+        runConcurrently(() -> {
+            compiled.add(emptyOI.compile(schema));
+            return null;
+        });
+
+        assertEquals(1, compiled.size());
+        assertEquals(1, emptyOI.getSchemaCache().size());
+    }
+
+    @Test
+    public void xpathInitiatorIsThreadSafe() throws Exception {
+        Map<String, Object> props = new LinkedHashMap<>();
+        props.put("xpath:/IntegerField/counter", "@{IntValue}");
+
+        XPathOutcomeInitiator xpathOI = new XPathOutcomeInitiator("xpath:");
+        Job j = mockXPathJob("IntegerField", "xpath:", props, true);
+
+        String expected = xpathOI.initOutcome(j);
+
+        if (!compareXML(getXML("IntegerFieldUpdated"), expected)) fail("");
+
+        runConcurrently(() -> {
+            for (int i = 0; i < ITERATIONS; i++) assertEquals(expected, xpathOI.initOutcome(j));
+            return null;
+        });
+    }
+
+    @Test
+    public void boundedCacheStaysBoundedUnderContention() throws Exception {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<>("Contention", 10);
+
+        long lookups = cache.getHitCount() + cache.getMissCount();
+
+        runConcurrently(() -> {
+            for (int i = 0; i < ITERATIONS * 20; i++) {
+                Integer key = ThreadLocalRandom.current().nextInt(20);
+                Integer value = cache.get(key);
+
+                if (value == null) cache.put(key, key);
+                else               assertEquals(key, value);
+            }
+            return null;
+        });
+
+        assertTrue(cache.size() <= 10);
+        assertEquals(lookups + THREADS * ITERATIONS * 20, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+}
@@ -20,9 +20,30 @@
  */
 package org.cristalise.kernel.test.persistency.outcomeinit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.cristalise.kernel.entity.agent.Job;
+import org.cristalise.kernel.persistency.cache.SchemaKey;
 import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.persistency.outcome.Schema;
 import org.cristalise.kernel.persistency.outcomeinit.EmptyOutcomeInitiator;
+import org.cristalise.kernel.persistency.outcomeinit.InitiationResult;
+import org.cristalise.kernel.persistency.outcomeinit.OutcomeInitiatorExecutor;
+import org.cristalise.kernel.persistency.outcomeinit.SampleXmlUtil;
+import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.utils.Logger;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -115,6 +136,160 @@ public class EmptyOutcomeInitiatorTest extends OutcomeInitiatorTestBase {
         checkEmptyOutcome("Module");
     }
 
+    @Test
+    public void compiledSchemaIsCached() throws Exception {
+        Job j = mockJob(getXSD("PatientDetails"));
+
+        emptyOI.initOutcomeInstance(j);
+        emptyOI.initOutcomeInstance(j);
+
+        assertEquals(1, emptyOI.getSchemaCache().getMissCount());
+        assertEquals(1, emptyOI.getSchemaCache().getHitCount());
+        assertEquals(1, emptyOI.getSchemaCache().size());
+    }
+
+    @Test
+    public void schemaKeyFollowsXsd() throws Exception {
+        Schema integer = new Schema("TestSchema", -1, null, getXSD("IntegerField"));
+        Schema copy    = new Schema("TestSchema", -1, null, new String(getXSD("IntegerField")));
+        Schema decimal = new Schema("TestSchema", -1, null, getXSD("DecimalField"));
+
+        String key = SchemaKey.getSchemaKey(integer);
+
+        assertEquals(key, SchemaKey.getSchemaKey(integer));
+        assertEquals(key, SchemaKey.getSchemaKey(copy));
+        assertNotEquals(key, SchemaKey.getSchemaKey(decimal));
+        assertEquals(key, SchemaKey.getSchemaKey(integer));
+    }
+
+    @Test
+    public void cachedSampleIsCopied() throws Exception {
+        Job j = mockJob(getXSD("IntegerField"));
+
+        Outcome first = emptyOI.initOutcomeInstance(j);
+        first.setFieldByXPath("/IntegerField/counter", "123");
+
+        Outcome second = emptyOI.initOutcomeInstance(j);
+
+        assert compareXML(getXML("IntegerField"), second.getData());
+        assert compareXML(getXML("IntegerFieldUpdated"), first.getData());
+    }
+
+    @Test
+    public void domSampleEqualsXmlSample() throws Exception {
+        for (String type : new String[] {"IntegerField", "StateMachine", "PatientDetails", "EnumFields", "Module"}) {
+            Job j = mockJob(getXSD(type));
+
+            assert compareXML(emptyOI.initOutcome(j), emptyOI.initOutcomeInstance(j).getData());
+        }
+    }
+
+    @Test
+    public void staxGeneratorCreatesSameXML() throws Exception {
+        Gateway.getProperties().put(EmptyOutcomeInitiator.SAMPLE_GENERATOR_CONFIGKEY, "stax");
+
+        try {
+            EmptyOutcomeInitiator staxOI = new EmptyOutcomeInitiator();
+            assertEquals(SampleXmlUtil.Generator.STAX, staxOI.getSampleGenerator());
+
+            for (String type : new String[] {"IntegerField", "StateMachine", "PatientDetails", "EnumFields", "Module"}) {
+                Job j = mockJob(getXSD(type));
+
+                String expected = emptyOI.initOutcome(j);
+                String actual   = staxOI.initOutcome(j);
+
+                Logger.msg(actual);
+
+                assert compareXML(expected, actual);
+            }
+        }
+        finally {
+            Gateway.getProperties().remove(EmptyOutcomeInitiator.SAMPLE_GENERATOR_CONFIGKEY);
+        }
+    }
+
+    @Test
+    public void asyncInitiationUsesExecutor() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+
+        emptyOI.setExecutor(task -> {
+            executions.incrementAndGet();
+            new Thread(task).start();
+        });
+
+        CompletableFuture<Outcome> future = emptyOI.initOutcomeInstanceAsync(mockJob(getXSD("PatientDetails")));
+
+        assert compareXML(getXML("PatientDetails"), future.get(30, TimeUnit.SECONDS).getData());
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void asyncInitiationReportsFailure() throws Exception {
+        Job j = mockJob(getXSD("IntegerField"));
+        when(j.getSchema()).thenThrow(new IllegalStateException("no schema"));
+
+        try {
+            emptyOI.initOutcomeInstanceAsync(j).get(30, TimeUnit.SECONDS);
+            fail("initOutcomeInstanceAsync() shall fail");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void asyncInitiationIsRejectedWhenSaturated() throws Exception {
+        ThreadPoolExecutor pool = OutcomeInitiatorExecutor.createPlatformExecutor(1, 1);
+
+        try {
+            // occupy the thread and the queue
+            pool.execute(() -> sleep(1000));
+            pool.execute(() -> {});
+
+            CompletableFuture<Outcome> future = emptyOI.initOutcomeInstanceAsync(mockJob(getXSD("IntegerField")), pool);
+
+            assertTrue(future.isCompletedExceptionally());
+            future.get();
+            fail("initOutcomeInstanceAsync() shall be rejected");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void batchInitiationFromThreadOfSaturatedExecutor() throws Exception {
+        ThreadPoolExecutor pool = OutcomeInitiatorExecutor.createPlatformExecutor(1, 1);
+        emptyOI.setExecutor(pool);
+
+        try {
+            List<Job> jobs = Arrays.asList(
+                    mockJob(getXSD("IntegerField")), mockJob(getXSD("IntegerField")), mockJob(getXSD("IntegerField")));
+
+            // the batch occupies the only thread, so its first initiation waits in the queue behind it
+            List<InitiationResult> results =
+                    CompletableFuture.supplyAsync(() -> emptyOI.initOutcomeInstances(jobs), pool).get(30, TimeUnit.SECONDS);
+
+            assertEquals(jobs.size(), results.size());
+            for (InitiationResult result : results) assert compareXML(getXML("IntegerField"), result.getOutcome().getData());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Test @Ignore("default value is not used to generate the XML")
     public void counterIDWithDefault() throws Exception {
         checkEmptyOutcome("CounterID");
@@ -22,11 +22,16 @@ package org.cristalise.kernel.test.persistency.outcomeinit;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.HashMap;
+import java.util.Map;
 
 import org.cristalise.kernel.entity.agent.Job;
 import org.cristalise.kernel.persistency.outcome.Schema;
 import org.cristalise.kernel.persistency.outcomeinit.EmptyOutcomeInitiator;
 import org.cristalise.kernel.test.persistency.XMLUtils;
+import org.cristalise.kernel.utils.CastorHashMap;
 import org.cristalise.kernel.utils.Logger;
 import org.junit.BeforeClass;
 
@@ -72,4 +77,46 @@ public class OutcomeInitiatorTestBase extends XMLUtils {
         return j;
     }
 
+    /**
+     * Mocking job for the XPathOutcomeInitiator with a single XPath activity property
+     *
+     * @param type the name of the Schema in the test data directory
+     * @param prefix the prefix of the XPath activity properties
+     * @param xpath the name of the XPath activity property, can be null
+     * @param value the value of the XPath activity property
+     * @return the mock Job
+     * @throws Exception every exception
+     */
+    public Job mockXPathJob(String type, String prefix, String xpath, String value) throws Exception {
+        Map<String, Object> xpathProps = new HashMap<String, Object>();
+        if (xpath != null) xpathProps.put(xpath, value);
+
+        return mockXPathJob(type, prefix, xpathProps, false);
+    }
+
+    /**
+     * Mocking job for the XPathOutcomeInitiator. The activity properties contain the XPath properties and
+     * the 'IntValue' property which can be referenced by their values.
+     *
+     * @param type the name of the Schema in the test data directory
+     * @param prefix the prefix of the XPath activity properties
+     * @param xpathProps the XPath activity properties
+     * @param stubOnly the mock does not record its invocations, so many threads can use it without contention
+     * @return the mock Job
+     * @throws Exception every exception
+     */
+    public Job mockXPathJob(String type, String prefix, Map<String, Object> xpathProps, boolean stubOnly) throws Exception {
+        Job j = stubOnly ? mock(Job.class, withSettings().stubOnly()) : mock(Job.class);
+
+        CastorHashMap actProps = new CastorHashMap();
+        actProps.putAll(xpathProps);
+        actProps.put("IntValue", "123");
+
+        when(j.getSchema()).thenReturn(new Schema(type, 0, null, getXSD(type)));
+        when(j.getActPropString(EmptyOutcomeInitiator.ROOTNAME_PROPNAME)).thenReturn(null);
+        when(j.matchActPropNames(prefix)).thenReturn(xpathProps);
+        when(j.getActProps()).thenReturn(actProps);
+
+        return j;
+    }
 }
@@ -20,15 +20,26 @@
  */
 package org.cristalise.kernel.test.persistency.outcomeinit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 import static org.mockito.Mockito.when;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.cristalise.kernel.common.InvalidDataException;
 import org.cristalise.kernel.entity.agent.Job;
+import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.persistency.outcomeinit.InitiationResult;
+import org.cristalise.kernel.persistency.outcomeinit.OutcomeInitiatorExecutor;
 import org.cristalise.kernel.persistency.outcomeinit.XPathOutcomeInitiator;
-import org.cristalise.kernel.utils.CastorHashMap;
 import org.cristalise.kernel.utils.Logger;
 import org.junit.Test;
 
@@ -38,19 +49,9 @@ import org.junit.Test;
 public class XPathOutcomeInitiatorTest extends OutcomeInitiatorTestBase {
 
     private void checkUpdatedOutcome(String type, String xpath, String value, String prefix) throws Exception {
-        String xsd      = getXSD(type);
         String expected = getXML(type+"Updated");
 
-        Job j = mockJob(xsd);
-
-        Map<String, Object> resultMap = new HashMap<String, Object>();
-        resultMap.put(xpath, value);
-        when(j.matchActPropNames(prefix)).thenReturn(resultMap);
-
-        CastorHashMap actProps = new CastorHashMap();
-        actProps.put(xpath, value);
-        actProps.put("IntValue", "123");
-        when(j.getActProps()).thenReturn(actProps);
+        Job j = mockXPathJob(type, prefix, xpath, value);
 
         XPathOutcomeInitiator xpathOI = new XPathOutcomeInitiator(prefix);
         String actual = xpathOI.initOutcome(j);
@@ -74,4 +75,130 @@ public class XPathOutcomeInitiatorTest extends OutcomeInitiatorTestBase {
     public void updateSingleElementUsingMVEL() throws Exception {
         checkUpdatedOutcome("IntegerField", "xpath:/IntegerField/counter", "@{IntValue}", "xpath:");
     }
+
+    @Test
+    public void compiledXPathIsCached() throws Exception {
+        String xpath = "/IntegerField/counter";
+
+        checkUpdatedOutcome("IntegerField", "xpath:" + xpath, "123", "xpath:");
+        long hits = XPathOutcomeInitiator.getXPathCache().getHitCount();
+
+        checkUpdatedOutcome("IntegerField", "xpath:" + xpath, "123", "xpath:");
+
+        assertEquals(hits + 1, XPathOutcomeInitiator.getXPathCache().getHitCount());
+        assertTrue(XPathOutcomeInitiator.getXPathCache().getHitRate() > 0);
+    }
+
+    @Test
+    public void compiledXPathIsReusedByOtherThreads() throws Exception {
+        String xpath = "/IntegerField/counter";
+
+        checkUpdatedOutcome("IntegerField", "xpath:" + xpath, "123", "xpath:");
+        long compiles = XPathOutcomeInitiator.getXPathCompileCount();
+
+        // a ThreadLocal cache would compile the expression again in each new thread
+        for (int i = 0; i < 3; i++) {
+            Throwable[] error = new Throwable[1];
+            Thread thread = new Thread(() -> {
+                try {
+                    checkUpdatedOutcome("IntegerField", "xpath:" + xpath, "123", "xpath:");
+                }
+                catch (Throwable e) {
+                    error[0] = e;
+                }
+            });
+            thread.start();
+            thread.join();
+
+            if (error[0] != null) throw new AssertionError(error[0]);
+        }
+
+        assertEquals(compiles, XPathOutcomeInitiator.getXPathCompileCount());
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        }
+        catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void asyncInitiationOnVirtualThreadsReusesCaches() throws Exception {
+        assumeTrue("virtual threads require JDK 21 or later", hasVirtualThreads());
+
+        String expected = getXML("IntegerFieldUpdated");
+        Job    job      = mockXPathJob("IntegerField", "xpath:", "xpath:/IntegerField/counter", "123");
+
+        XPathOutcomeInitiator xpathOI = new XPathOutcomeInitiator("xpath:");
+        Executor virtual = OutcomeInitiatorExecutor.create(OutcomeInitiatorExecutor.Type.VIRTUAL, 1, 1);
+
+        try {
+            // warms up the caches
+            assert compareXML(expected, xpathOI.initOutcomeInstanceAsync(job, virtual).get(30, TimeUnit.SECONDS).getData());
+            long compiles = XPathOutcomeInitiator.getXPathCompileCount();
+
+            // each initiation runs on a new virtual thread, which shall find everything compiled
+            for (int i = 0; i < 10; i++) {
+                assert compareXML(expected, xpathOI.initOutcomeInstanceAsync(job, virtual).get(30, TimeUnit.SECONDS).getData());
+            }
+            assertEquals(compiles, XPathOutcomeInitiator.getXPathCompileCount());
+
+            List<CompletableFuture<Outcome>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) futures.add(xpathOI.initOutcomeInstanceAsync(job, virtual));
+
+            for (CompletableFuture<Outcome> f : futures) assert compareXML(expected, f.get(30, TimeUnit.SECONDS).getData());
+
+            // the Schema is compiled only once, whichever virtual thread initiates the Outcome
+            assertEquals(1, xpathOI.getSchemaCache().getMissCount());
+        }
+        finally {
+            ((ExecutorService) virtual).shutdown();
+        }
+    }
+
+    @Test
+    public void compiledTemplateIsCached() throws Exception {
+        assertTrue(XPathOutcomeInitiator.isLiteral("123"));
+        assertTrue(!XPathOutcomeInitiator.isLiteral("@{IntValue}"));
+
+        checkUpdatedOutcome("IntegerField", "xpath:/IntegerField/counter", "@{IntValue}", "xpath:");
+        long hits = XPathOutcomeInitiator.getTemplateCache().getHitCount();
+
+        checkUpdatedOutcome("IntegerField", "xpath:/IntegerField/counter", "@{IntValue}", "xpath:");
+
+        assertEquals(hits + 1, XPathOutcomeInitiator.getTemplateCache().getHitCount());
+    }
+
+    @Test
+    public void batchInitiationKeepsOrderAndIsolatesErrors() throws Exception {
+        Job noSchema = mockXPathJob("IntegerField", "xpath:", null, null);
+        when(noSchema.getSchema()).thenThrow(new IllegalStateException("no schema"));
+
+        List<Job> jobs = Arrays.asList(
+                mockXPathJob("IntegerField", "xpath:", "xpath:/IntegerField/counter", "@{IntValue}"),
+                mockXPathJob("StateMachine", "xpath:", null, null),
+                noSchema,
+                mockXPathJob("IntegerField", "xpath:", "xpath:/IntegerField/missing", "1"),
+                mockXPathJob("IntegerField", "xpath:", null, null));
+
+        XPathOutcomeInitiator xpathOI = new XPathOutcomeInitiator("xpath:");
+        List<InitiationResult> results = xpathOI.initOutcomeInstances(jobs);
+
+        assertEquals(jobs.size(), results.size());
+        for (int i = 0; i < jobs.size(); i++) assertTrue(jobs.get(i) == results.get(i).getJob());
+
+        assertTrue(compareXML(getXML("IntegerFieldUpdated"), results.get(0).getOutcome().getData()));
+        assertTrue(compareXML(getXML("StateMachine"),        results.get(1).getOutcome().getData()));
+        assertTrue(results.get(2).getError() instanceof IllegalStateException);
+        assertTrue(results.get(3).getError() instanceof InvalidDataException);
+        assertTrue(compareXML(getXML("IntegerField"),        results.get(4).getOutcome().getData()));
+
+        // IntegerField and StateMachine were compiled once
+        assertEquals(2, xpathOI.getSchemaCache().size());
+        assertEquals(2, xpathOI.getSchemaCache().getMissCount());
+    }
 }